@@ -7,10 +7,9 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.PrintWriter;
-import java.util.List;
-import java.util.Map;
 import output.Output;
 import output.OutputStaticFactory;
+import recommender.NeighborTable;
 import recommender.RecommenderFunctions;
 import recommender.RecommenderFunctionsStaticFactory;
 import recommender.RecommenderFunctions.NormalizationMethod;
@@ -57,10 +56,11 @@ public class AgentCollaborativePredictionScores implements Agent{
 		// Set up
 		basicElements = BasicElementStaticFactory.newBasicElementManager("elements", blackboard);		
 		matrices = MatrixManagerStaticFactory.newMatrixManager("matrix", blackboard, basicElements);
-		recommender = RecommenderFunctionsStaticFactory.getRecommenderFunctionsForRangeMemberships(basicElements, matrices);
 		parameters = ParameterManagerStaticFactory.newParameterManager("parameters", blackboard);
+		recommender = RecommenderFunctionsStaticFactory.getRecommenderFunctionsForRangeMemberships(basicElements, matrices, parameters);
 		parameters.writeParameter("inputdirectory", "C:\\eclipse\\workspace\\RecommenderPrototype\\input\\secondlife");
 		parameters.writeParameter("outputdirectory", "C:\\eclipse\\workspace\\RecommenderPrototype\\output\\secondlife");
+		parameters.writeParameter("numberofthreads", Integer.toString(Runtime.getRuntime().availableProcessors()));
 		output = OutputStaticFactory.getOutput("textOutput", parameters, basicElements, matrices);
 		
 		
@@ -115,11 +115,12 @@ public class AgentCollaborativePredictionScores implements Agent{
 			// Calculates the stakholders average ratings
 			recommender.calculateStakeholdersAverageRating(SxF.getName(), "SxF_Averages");
 			
-			// Calculates the stakeholder similarities
-			recommender.calculateSimilarities(SxF.getName(), "SxS_Similarities", "SxF_Averages", 1);
+			// Gets the neighbors - they are calculated directly from the ratings, the full similarity matrix is not needed here
+			NeighborTable neighbors = recommender.calculateNeighbors(SxF.getName(), "SxF_Averages", 1, numOfNeighbors);
 			
-			// Gets the neighbors
-			Map<Integer, List<Node>> neighbors = recommender.getNeighbors("SxS_Similarities", numOfNeighbors);
+			// Calculates the prediction scores of all the stakeholders for all the forums in one pass
+			recommender.calculatePredictionScores(PredictionFormula.Typical, SxF.getName(), "SxF_Averages", neighbors, "SxF_Predictions");
+			double[][] predictions = matrices.getMatrix("SxF_Predictions").getArray();
 						
 			// Outputs the headers for the csv files
 			output1.println("StakeholderId, ForumId, RecommendationScore");
@@ -136,8 +137,7 @@ public class AgentCollaborativePredictionScores implements Agent{
 						// A recommendation is made ONLY IF the stakeholder does not belong to the forum already
 						if (matrixData[s.getNumber()][f.getNumber()] == 0.0) {
 							
-							// Gets all the recommendations for this user, in order to get the recomendation value and rank of the forum that was removed
-							double value = recommender.getPredictionScore(s, f, PredictionFormula.Typical, SxF.getName(), "SxF_Averages", neighbors);
+							double value = predictions[s.getNumber()][f.getNumber()];
 							
 							output1.println(s.getId() + "," + f.getId() + "," +  value);
 							
@@ -5,12 +5,11 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.List;
-import java.util.Map;
 import input.Loader;
 import input.LoaderStaticFactory;
 import output.Output;
 import output.OutputStaticFactory;
+import recommender.NeighborTable;
 import recommender.RecommenderFunctions;
 import recommender.RecommenderFunctionsStaticFactory;
 import recommender.RecommenderFunctions.NormalizationMethod;
@@ -128,7 +127,8 @@ public class AgentExperimentBinaryMembershipScores implements Agent {
 			setup(TypeOfRecommender.Binary);
 
 			// Gets the SxF matrix
-			MatrixElement SxF = matrices.getStakeholdersForumsMatrix(false);
+			// The ratings are held out by changing the matrix in place, so it is read for update (the blackboard pins it)
+			MatrixElement SxF = matrices.getMatrixForUpdate(matrices.getStakeholdersForumsMatrix(false).getName());
 			
 			// Calculates the stakholders total number of forums where they were placed
 			recommender.calculateStakeholdersTotalRatings(SxF.getName(), "SxF_Totals");
@@ -209,7 +209,7 @@ public class AgentExperimentBinaryMembershipScores implements Agent {
 					recommender.calculateSimilarities(SxF.getName(), "SxS_Similarities", "SxF_Totals", 1);
 					
 					// Gets the neighbors
-					Map<Integer, List<Node>> neighborsBin = recommender.getNeighbors("SxS_Similarities", numOfNeighbors);
+					NeighborTable neighborsBin = recommender.getNeighbors("SxS_Similarities", numOfNeighbors);
 					
 					// Gets all the recommendations for this user, in order to get the recomendation value and rank of the forum that was removed
 					int rank = -1;
@@ -273,7 +273,7 @@ public class AgentExperimentBinaryMembershipScores implements Agent {
 			MatrixElement SxS_Similarities = matrices.getMatrix("SxS_Similarities");
 			output.writeMatrix(SxS_Similarities);
 			// Gets the neighbors
-			Map<Integer, List<Node>> neighbors = recommender.getNeighbors("SxS_Similarities", numOfNeighbors);
+			NeighborTable neighbors = recommender.getNeighbors("SxS_Similarities", numOfNeighbors);
 			
 			// ******************************************************************************
 			// The list of neighbors is printed - for the traditional method
@@ -290,7 +290,7 @@ public class AgentExperimentBinaryMembershipScores implements Agent {
 			for (Stakeholder s : basicElements.getStakeholders()) {
 				buffer = new StringBuffer();
 				buffer.append(s.getId());
-				for (Node n : neighbors.get(s.getNumber())) {
+				for (Node n : neighbors.getNeighbors(s.getNumber())) {
 					buffer.append("," + basicElements.getStakeholder(n.getId()).getId()+ "," + n.getValue());
 				}
 				output.writeToLog(buffer.toString());
@@ -315,7 +315,7 @@ public class AgentExperimentBinaryMembershipScores implements Agent {
 			MatrixElement SxS_Similarities_Bin = matrices.getMatrix("SxS_Similarities_Bin");
 			output.writeMatrix(SxS_Similarities_Bin);
 			// Gets the neighbors
-			Map<Integer, List<Node>> neighborsBin = recommender.getNeighbors("SxS_Similarities_Bin", numOfNeighbors);
+			NeighborTable neighborsBin = recommender.getNeighbors("SxS_Similarities_Bin", numOfNeighbors);
 						
 
 			// ******************************************************************************
@@ -333,7 +333,7 @@ public class AgentExperimentBinaryMembershipScores implements Agent {
 			for (Stakeholder s : basicElements.getStakeholders()) {
 				buffer = new StringBuffer();
 				buffer.append(s.getId());
-				for (Node n : neighborsBin.get(s.getNumber())) {
+				for (Node n : neighborsBin.getNeighbors(s.getNumber())) {
 					buffer.append("," + basicElements.getStakeholder(n.getId()).getId()+ "," + n.getValue());
 				}
 				output.writeToLog(buffer.toString());
@@ -4,12 +4,11 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.PrintWriter;
-import java.util.List;
-import java.util.Map;
 import input.Loader;
 import input.LoaderStaticFactory;
 import output.Output;
 import output.OutputStaticFactory;
+import recommender.NeighborTable;
 import recommender.RecommenderFunctions;
 import recommender.RecommenderFunctionsStaticFactory;
 import recommender.RecommenderFunctions.NormalizationMethod;
@@ -113,7 +112,8 @@ public class AgentExperimentDifferentNormalizations implements Agent{
 			String[] colNames = new String[numOfForums];
 
 			// Gets the original ratings matrix
-			MatrixElement SxF = matrices.getStakeholdersForumsMatrix(false);
+			// The ratings are held out by changing the matrix in place, so it is read for update (the blackboard pins it)
+			MatrixElement SxF = matrices.getMatrixForUpdate(matrices.getStakeholdersForumsMatrix(false).getName());
 			double[][] matrixData = SxF.getArray();
 			
 			// Outputs the headers for the csv files
@@ -148,7 +148,7 @@ public class AgentExperimentDifferentNormalizations implements Agent{
 						recommender.calculateSimilarities(SxF.getName(), "SxS_Similarities", "SxF_Averages", 1);
 						
 						// Gets the neighbors
-						Map<Integer, List<Node>> neighbors = recommender.getNeighbors("SxS_Similarities", numOfNeighbors);
+						NeighborTable neighbors = recommender.getNeighbors("SxS_Similarities", numOfNeighbors);
 						
 						// TEMP code that prints the lists of neighbors:
 						/*
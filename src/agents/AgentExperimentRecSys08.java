@@ -5,8 +5,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.lang.Exception;
-import java.util.Map;
-import java.util.List;
 import blackboard.*;
 import output.*;
 import recommender.*;
@@ -52,15 +50,22 @@ final class AgentExperimentRecSys08 implements Agent{
 		// Set up
 		basicElements = BasicElementStaticFactory.newBasicElementManager("elements", blackboard);		
 		matrices = MatrixManagerStaticFactory.newMatrixManager("matrix", blackboard, basicElements);
-		recommender = RecommenderFunctionsStaticFactory.getRecommenderFunctionsForRangeMemberships(basicElements, matrices);
 		parameters = ParameterManagerStaticFactory.newParameterManager("parameters", blackboard);
+		recommender = RecommenderFunctionsStaticFactory.getRecommenderFunctionsForRangeMemberships(basicElements, matrices, parameters);
 		parameters.writeParameter("inputdirectory", "C:\\eclipse\\workspace\\RecommenderPrototype\\input\\student");
 		parameters.writeParameter("outputdirectory", "C:\\eclipse\\workspace\\RecommenderPrototype\\output\\student");
+		parameters.writeParameter("numberofthreads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+		// The PCA of the SxF matrix changes with every rating that is held out.  With 'refit' it is calculated again for every rating, which is exact.
+		// With 'update' it is fitted once and the model follows each rating with an update and one step of refine: it is much faster, but the number
+		// of PCs stays the one of the full data, the components are approximate and they keep the signs of the fit, while the exact PCA can change the
+		// sign of a component from one rating to another - the similarities depend on the signs, so the MAE of the SxF_PCA architecture can differ.
+		parameters.writeParameter("pcaleaveoneout", "refit");
 		output = OutputStaticFactory.getOutput("textOutput", parameters, basicElements, matrices);
 		
 		
 		output.writeToLog("Executing Agent: Experiment RecSys 08");
 		output.writeToLog("Dataset being used: Student");
+		output.writeToLog("PCA of the SxF matrix in the leave one out test: " + parameters.readParameter("pcaleaveoneout"));
 		
 		// Loads the data 
 		output.writeToLog("Loading the data: Stakeholders, Needs, Ratings, Forums, Needs of Forums");
@@ -98,23 +103,37 @@ final class AgentExperimentRecSys08 implements Agent{
 				ArchitecuteType.SxT_PCA
 			};
 		
-		for (ArchitecuteType a : architectures) {		
-			for (int i : numNeighbors) {				
-				Integer numOfNeighbors = i;
-				parameters.writeParameter("numberofneighbors", numOfNeighbors.toString());				
-				runTest(a);
+		// The SxT matrix does not depend on the ratings, so it is built once here and all the experiments read it from the shared blackboard
+		matrices.getStakeholdersTermsMatrix(false);
+		
+		// All the combinations of architecture and number of neighbors are run concurrently, each one on its own blackboard
+		ExperimentRunner runner = new ExperimentRunner(blackboard, Integer.parseInt(parameters.readParameter("numberofthreads")));
+		for (final ArchitecuteType a : architectures) {		
+			for (final int i : numNeighbors) {				
+				runner.addExperiment(a.ordinal() + "," + i, new ExperimentRunner.Experiment() {
+					public double run(Blackboard bb) throws Exception {
+						return runTest(bb, a, i);
+					}
+				});
 			}
 		}
+		double[] results = runner.runAll();
+		
+		// Outputs the MAE of all the experiments
+		runner.writeSummary(new File(parameters.readParameter("outputdirectory") + "\\LeaveOneOut_Summary.csv"), "Architecture, K, MAE", results);
 		
 	}
 		
-	private void runTest(ArchitecuteType arch) {
+	private double runTest(Blackboard bb, ArchitecuteType arch, int numOfNeighbors) {
 		try {
 
-			// Sets the number of neigbors
-			int numOfNeighbors = Integer.parseInt(parameters.readParameter("numberofneighbors"));
-			
-			System.out.print("Architecture=" + arch.ordinal()+ ", K="+numOfNeighbors + ", MAE=");
+			// Each experiment has its own matrices and parameters - the basic elements are shared, and only read
+			MatrixManager matrices = MatrixManagerStaticFactory.newMatrixManager("matrix", bb, basicElements);
+			ParameterManager parameters = ParameterManagerStaticFactory.newParameterManager("parameters", bb);
+			parameters.writeParameter("numberofneighbors", Integer.toString(numOfNeighbors));
+			// The experiments already run in parallel, so each one calculates its similarities in a single thread
+			parameters.writeParameter("numberofthreads", "1");
+			RecommenderFunctions recommender = RecommenderFunctionsStaticFactory.getRecommenderFunctionsForRangeMemberships(basicElements, matrices, parameters);
 			
 			String fileName = "LeaveOneOut_Arch=" + arch.ordinal() + "_K=" + numOfNeighbors;
 			
@@ -132,13 +151,56 @@ final class AgentExperimentRecSys08 implements Agent{
 			String[] rowNames = new String[numOfStakeholders];
 			String[] colNames = new String[numOfForums];
 
-			// Gets the original ratings matrix
-			MatrixElement SxF = matrices.getStakeholdersForumsMatrix(false);
+			// Gets the original ratings matrix - it is rebuilt so that the experiment has its own copy, since the ratings are modified during the test
+			// The ratings are held out by changing the matrix in place, so it is read for update (the blackboard pins it)
+			MatrixElement SxF = matrices.getMatrixForUpdate(matrices.getStakeholdersForumsMatrix(true).getName());
 			double[][] matrixData = SxF.getArray();
 			
-			// Also gets the Stakeholder x Term matrix, as this one is also used
+			// Also gets the Stakeholder x Term matrix, as this one is also used - it is only read, so the copy of the shared blackboard is used
 			MatrixElement SxT = matrices.getStakeholdersTermsMatrix(false);
 			
+			// The leave one out engine only updates the parts of the model that depend on the rating that is held out.
+			// The PCA of the SxF matrix changes with every rating that is held out, so for that architecture it is either calculated again for every rating,
+			// or fitted once and updated (see the parameter 'pcaleaveoneout')
+			LeaveOneOutEngine engine = null;
+			PCAModel pcaModel = null;
+			String pcaLeaveOneOut = parameters.readParameter("pcaleaveoneout");
+			if (!pcaLeaveOneOut.equals("refit") && !pcaLeaveOneOut.equals("update"))
+				throw new IllegalArgumentException("The parameter 'pcaleaveoneout' has to be refit or update");
+			switch (arch) {
+				case SxF:
+					// Similarities are calculated using the SxF matrix
+					engine = recommender.newLeaveOneOutEngine(SxF.getName(), "SxF_Averages", SxF.getName(), "SxF_Averages", 1, numOfNeighbors);
+					break;
+				case SxT:
+					// Similarities are calculated using the SxT
+					engine = recommender.newLeaveOneOutEngine(SxF.getName(), "SxF_Averages", SxT.getName(), "SxT_Averages", 1, numOfNeighbors);
+					break;
+				case SxF_Sim_Mod:
+					// Similarities are calculated using the SxF matrix, but penalized when the number of co-rated items is less than 5
+					engine = recommender.newLeaveOneOutEngine(SxF.getName(), "SxF_Averages", SxF.getName(), "SxF_Averages", 5, numOfNeighbors);
+					break;
+				case SxT_Sim_Mod:
+					// Similarities are calculated using the SxT matrix, but penalized when the number of co-rated items is less than 5
+					engine = recommender.newLeaveOneOutEngine(SxF.getName(), "SxF_Averages", SxT.getName(), "SxT_Averages", 5, numOfNeighbors);
+					break;
+				case SxF_PCA:
+					// With 'update' the PCA is fitted once - for every rating that is held out the model is updated and its components refined.
+					// With 'refit' it is calculated for every rating.
+					if (pcaLeaveOneOut.equals("update")) {
+						pcaModel = SxF.fitPCA("SxF_PCA_Model", 0.9);
+						matrices.storePCAModel(pcaModel);
+					}
+					break;
+				case SxT_PCA:
+					// Similarities are calculated using the SxT after it PCA was applied to it - the SxT matrix does not depend on the ratings, so the PCA is done only once.
+					// There are many more terms than stakeholders, so the PCA only generates the (stakeholders+1) components the data can have
+					MatrixElement SxT_PCA = SxT.compressByPCA("SxT_PCA", 0.9);
+					matrices.storeMatrix(SxT_PCA);
+					engine = recommender.newLeaveOneOutEngine(SxF.getName(), "SxF_Averages", "SxT_PCA", "SxT_PCA_Averages", 1, numOfNeighbors);
+					break;
+			}
+			
 			// Outputs the headers for the csv files
 			output1.println("StakeholderId, ForumId, ScoreStakeholderInForum, ForumGotRecommended, RecommendationScore, RankOfRecommendation, Error, AbsoluteError");
 			Double sumOfErrors = 0.0;
@@ -156,52 +218,35 @@ final class AgentExperimentRecSys08 implements Agent{
 					// Saves the membership value
 					double originalMembershipScore = basicElements.getScoreOfStakeholderInForum(f, s);
 					
-					// Temporarily put a 0 in there - removing the stakeholder from the forum
-					matrixData[s.getNumber()][f.getNumber()] = 0.0;
-					
-					
-					// Recalculates the stakholders average rating - as it will change
-					recommender.calculateStakeholdersAverageRating(SxF.getName(), "SxF_Averages");
+					// Removes the stakeholder from the forum, and updates the model
+					NeighborTable neighbors;
+					if (engine != null) {
+						engine.holdOut(s.getNumber(), f.getNumber());
+						neighbors = engine.getNeighbors();
+					} else {
+						// Temporarily put a 0 in there - removing the stakeholder from the forum
+						matrixData[s.getNumber()][f.getNumber()] = 0.0;
+						
+						// Recalculates the stakholders average rating - as it will change
+						recommender.calculateStakeholdersAverageRating(SxF.getName(), "SxF_Averages");
+						
+						// Similarities are calculated using the SxF after it PCA was applied to it
+						MatrixElement SxF_PCA;
+						if (pcaModel != null) {
+							pcaModel.update(s.getNumber(), f.getNumber(), 0.0);
+							pcaModel.refine();
+							SxF_PCA = pcaModel.getScores("SxF_PCA");
+						} else {
+							SxF_PCA = SxF.compressByPCA("SxF_PCA", 0.9);
+						}
+						matrices.storeMatrix(SxF_PCA);
+						recommender.calculateStakeholdersAverageRating("SxF_PCA", "SxF_PCA_Averages");
+						recommender.calculateSimilarities("SxF_PCA", "SxS_Similarities", "SxF_PCA_Averages", 1);
 						
-					// The way the similarities are calculated depends on the architecture
-					switch (arch) {
-						case SxF:
-							// Similarities are calculated using the SxF matrix
-							recommender.calculateSimilarities(SxF.getName(), "SxS_Similarities", "SxF_Averages", 1);
-							break;
-						case SxT:
-							// Similarities are calculated using the SxT
-							recommender.calculateStakeholdersAverageRating(SxT.getName(), "SxT_Averages");
-							recommender.calculateSimilarities(SxT.getName(), "SxS_Similarities", "SxT_Averages", 1);
-							break;
-						case SxF_Sim_Mod:
-							// Similarities are calculated using the SxF matrix, but penalized when the number of co-rated items is less than 5
-							recommender.calculateSimilarities(SxF.getName(), "SxS_Similarities", "SxF_Averages", 5);							
-							break;
-						case SxT_Sim_Mod:
-							// Similarities are calculated using the SxT matrix, but penalized when the number of co-rated items is less than 5
-							recommender.calculateStakeholdersAverageRating(SxT.getName(), "SxT_Averages");
-							recommender.calculateSimilarities(SxT.getName(), "SxS_Similarities", "SxT_Averages", 5);
-							break;
-						case SxF_PCA:
-							// Similarities are calculated using the SxF after it PCA was applied to it
-							MatrixElement SxF_PCA = SxF.compressByPCA("SxF_PCA", 0.9);
-							matrices.storeMatrix(SxF_PCA);
-							recommender.calculateStakeholdersAverageRating("SxF_PCA", "SxF_PCA_Averages");
-							recommender.calculateSimilarities("SxF_PCA", "SxS_Similarities", "SxF_PCA_Averages", 1);
-							break;
-						case SxT_PCA:
-							// Similarities are calculated using the SxT after it PCA was applied to it
-							MatrixElement SxT_PCA = SxT.compressByPCA("SxT_PCA", 0.9);
-							matrices.storeMatrix(SxT_PCA);
-							recommender.calculateStakeholdersAverageRating("SxT_PCA", "SxT_PCA_Averages");
-							recommender.calculateSimilarities("SxT_PCA", "SxS_Similarities", "SxT_PCA_Averages", 1);
-							break;						
+						// Gets the neighbors
+						neighbors = recommender.getNeighbors("SxS_Similarities", numOfNeighbors);
 					}
 					
-					// Gets the neighbors
-					Map<Integer, List<Node>> neighbors = recommender.getNeighbors("SxS_Similarities", numOfNeighbors);
-					
 					// TEMP code that prints the lists of neighbors:
 					/*
 					StringBuffer buffer = new StringBuffer();
@@ -234,7 +279,16 @@ final class AgentExperimentRecSys08 implements Agent{
 					leaveOneOutMatrix[s.getNumber()][f.getNumber()] = rank;
 										
 					// Restores the model 
-					matrixData[s.getNumber()][f.getNumber()] = originalMembershipScore;
+					if (engine != null) {
+						engine.restore();
+					} else {
+						matrixData[s.getNumber()][f.getNumber()] = originalMembershipScore;
+						// The components of the fit are put back, so every rating starts from the same model
+						if (pcaModel != null) {
+							pcaModel.update(s.getNumber(), f.getNumber(), originalMembershipScore);
+							pcaModel.resetComponents();
+						}
+					}
 				}
 			}
 			// Outputs the MAE
@@ -242,17 +296,20 @@ final class AgentExperimentRecSys08 implements Agent{
 			output1.println("SumOfAbsError, NumOfRecommendations, MAE");
 			output1.println(sumOfErrors + "," + totNumOfRecommendations + "," + (sumOfErrors/totNumOfRecommendations));
 			
-			System.out.println((sumOfErrors/totNumOfRecommendations));
+			System.out.println("Architecture=" + arch.ordinal()+ ", K="+numOfNeighbors + ", MAE=" + (sumOfErrors/totNumOfRecommendations));
 			output.writeToLog("Architecture=" + arch.ordinal()+ ", K="+numOfNeighbors + ", MAE=" + (sumOfErrors/totNumOfRecommendations));
 			
 			// Writes the leave one out matrix
 			MatrixElement leaveOneOut = new MatrixElement("Matrix"+fileName, leaveOneOutMatrix, colNames, rowNames);
 			output.writeMatrix(leaveOneOut);
+			
+			return sumOfErrors/totNumOfRecommendations;
 		
 		} catch (Exception e) {
 			System.out.println("The following error ocurred:\n" + e.getMessage());
 			System.out.println("Details:\n");
 			e.printStackTrace();
+			return Double.NaN;
 		}
 		
 	}	
@@ -1,6 +1,7 @@
 package agents;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import input.Loader;
 import input.LoaderStaticFactory;
@@ -59,14 +60,24 @@ public class AgentRecomputeMAE implements Agent {
 
 		int[] numNeighbors = {5,10,15,20,25,30,35};
 		
-		for (ArchitecuteType a : ArchitecuteType.values()) {		
-			for (int i : numNeighbors) {	
-				recalculateMAE(a, i, 3);
+		// The results of all the experiments are recalculated concurrently
+		ExperimentRunner runner = new ExperimentRunner(blackboard, Runtime.getRuntime().availableProcessors());
+		for (final ArchitecuteType a : ArchitecuteType.values()) {		
+			for (final int i : numNeighbors) {	
+				runner.addExperiment(a.ordinal() + "," + i, new ExperimentRunner.Experiment() {
+					public double run(Blackboard bb) throws Exception {
+						return recalculateMAE(a, i, 3);
+					}
+				});
 			}
 		}		
+		double[] results = runner.runAll();
+		
+		// Outputs the new MAE of all the experiments, with its own name so that it is not mistaken for (or written over) the summary of the original run
+		runner.writeSummary(new File(parameters.readParameter("outputdirectory") + "\\LeaveOneOut_Recomputed_Summary.csv"), "Architecture, K, MAE", results);
 	}
 
-	private void recalculateMAE(ArchitecuteType architecture, int numNeighbors, int minNumOfForums) throws Exception {
+	private double recalculateMAE(ArchitecuteType architecture, int numNeighbors, int minNumOfForums) throws Exception {
 		
 		String filename = parameters.readParameter("leaveoneoutinputdirectory") + "\\LeaveOneOut_Arch=" + architecture.ordinal() + "_K=" + numNeighbors + ".csv";
 		
@@ -115,6 +126,8 @@ public class AgentRecomputeMAE implements Agent {
         }
 		System.out.println("Architecture=" + architecture.ordinal()+ ", K="+numNeighbors + ", oldMAE=" + (sumOfErrors/totNumOfRecommendations) + ", newMAE=" + (sumOfErrorsAdjusted/totNumOfRecommendationsAdjusted));
 		output.writeToLog("Architecture=" + architecture.ordinal()+ ", K="+numNeighbors + ", oldMAE=" + (sumOfErrors/totNumOfRecommendations) + ", newMAE=" + (sumOfErrorsAdjusted/totNumOfRecommendationsAdjusted));
+		
+		return sumOfErrorsAdjusted/totNumOfRecommendationsAdjusted;
 	}
 
 	private enum ArchitecuteType {
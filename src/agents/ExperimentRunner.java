@@ -0,0 +1,115 @@
+package agents;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import blackboard.Blackboard;
+import blackboard.BlackboardStaticFactory;
+
+/**
+ *
+ * Runs the cells of an experiment grid (ex. architectures x number of neighbors) concurrently on one machine.
+ *
+ * Each experiment gets its own overlay blackboard on top of the shared base blackboard, where the data has already been loaded.
+ * The matrices and parameters that an experiment stores go to its overlay, so the experiments do not interfere with each other.
+ * The overlay is cleared when the experiment finishes, so that its matrices do not stay in the base when the base has a memory budget.
+ * The experiments are kept in a queue that is shared by a fixed number of threads: when a thread finishes an experiment it takes the next one,
+ * so the long experiments (ex. the ones that use PCA) do not hold up the short ones.
+ *
+ * The result of each experiment is its MAE, and the results of all the experiments are written together in a summary file.
+ *
+ */
+final class ExperimentRunner {
+	// A cell of the experiment grid - it runs on its own blackboard and returns the MAE
+	interface Experiment {
+		double run(Blackboard blackboard) throws Exception;
+	}
+
+	// Local Variables
+	Blackboard _base;
+	int _numOfThreads;
+	List<String> _names;
+	List<Experiment> _experiments;
+
+	// Constructor - Package Private
+	ExperimentRunner(Blackboard base, int numOfThreads) {
+		// Integrity checks
+		if (base==null)
+			throw new IllegalArgumentException("The blackboard reference has to be a valid object");
+		if (numOfThreads<1)
+			throw new IllegalArgumentException("The number of threads has to be >= 1");
+
+		// Sets the internal fields;
+		_base = base;
+		_numOfThreads = numOfThreads;
+		_names = new ArrayList<String>();
+		_experiments = new ArrayList<Experiment>();
+	}
+
+	// Adds an experiment - the name is used in the summary, the experiments are started in the order they are added
+	void addExperiment(String name, Experiment experiment) {
+		if (experiment==null)
+			throw new IllegalArgumentException("The experiment has to be a valid object");
+
+		_names.add(name);
+		_experiments.add(experiment);
+	}
+
+	// Runs all the experiments and returns their MAE, in the order they were added.
+	// If an experiment fails the error is printed and its MAE is NaN, the other experiments are not stopped.
+	double[] runAll() throws InterruptedException {
+		double[] results = new double[_experiments.size()];
+		ExecutorService pool = Executors.newFixedThreadPool(_numOfThreads);
+		try {
+			List<Future<Double>> futures = new ArrayList<Future<Double>>();
+			for (final Experiment experiment : _experiments) {
+				futures.add(pool.submit(new Callable<Double>() {
+					public Double call() throws Exception {
+						Blackboard overlay = BlackboardStaticFactory.newOverlayBlackboard(_base);
+						try {
+							return experiment.run(overlay);
+						} finally {
+							overlay.clear();
+						}
+					}
+				}));
+			}
+
+			// Waits for all the experiments to be finished
+			for (int i=0; i<futures.size(); i++) {
+				try {
+					results[i] = futures.get(i).get();
+				} catch (ExecutionException e) {
+					System.out.println("The following error ocurred in the experiment " + _names.get(i) + ":\n" + e.getCause().getMessage());
+					System.out.println("Details:\n");
+					e.getCause().printStackTrace();
+					results[i] = Double.NaN;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return results;
+	}
+
+	// Writes the MAE of all the experiments in a csv file - one line per experiment, with its name and its MAE
+	void writeSummary(File file, String header, double[] results) throws Exception {
+		PrintWriter output = new PrintWriter( new BufferedWriter(new FileWriter(file)), true) ;
+		try {
+			output.println(header);
+			for (int i=0; i<_names.size(); i++) {
+				output.println(_names.get(i) + "," + results[i]);
+			}
+		} finally {
+			output.close();
+		}
+	}
+}
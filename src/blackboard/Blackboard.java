@@ -5,6 +5,14 @@ import data.Element;
 public interface Blackboard {
 	public void store(String name, Element element);
 	public Element get(String name);
+	// Returns the element to be changed in place - a blackboard with a memory budget pins it before handing it out, so the changes are never lost
+	public Element getForUpdate(String name);
 	public boolean contains(String name);
 	public void remove(String name);
+	// Returns the element, if it is not in the blackboard it is first built with the builder and stored
+	public Element getOrBuild(String name, ElementBuilder builder);
+	// Number of times an element has been stored or removed - it allows the managers to cache the elements they use and to know when they have been replaced
+	public long getVersion();
+	// Removes all the elements - an overlay only removes its own elements, its base is not modified
+	public void clear();
 }
@@ -0,0 +1,371 @@
+package blackboard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import data.Element;
+import data.SizedElement;
+import data.SpillableElement;
+import data.SpilledElement;
+
+/**
+ *
+ * Blackboard with a memory budget.
+ * When the elements that report their size (ex. the matrices) use more memory than the budget, the least recently used ones are evicted.
+ *
+ * The elements that were built with getOrBuild can be evicted (ex. the matrices of the MatrixManager), since the blackboard keeps their builder
+ * and can build them again the next time they are read.  For the rest of the program an evicted element is still in the blackboard.
+ * If a spill directory is given, the evicted elements that can be written to disk (ex. the matrices) are written to memory mapped files in the directory,
+ * and they are read back from the file instead of being built again.  Then the elements that were stored directly can also be evicted
+ * (ex. the similarities calculated by the recommender), since they are not lost.
+ *
+ * An element is never evicted while it is pinned (see SizedElement.isPinned): a matrix whose array was handed out can be changed in place
+ * (ex. a rating held out by the leave one out tests), and the changes would be lost if it were built again or read back from an older copy.
+ * The elements that are going to be changed have to be read with getForUpdate, which pins them while holding the monitor.
+ * The basic elements and the parameters do not report their size, so they are never evicted either.
+ *
+ * The blackboard can be shared by several threads.  The maps are only accessed while holding the monitor of the blackboard, but the slow work is done
+ * outside of it: the elements are built and read back from disk while holding a lock of their name only (as in BlackboardConcurrentObj),
+ * and the evicted elements are written to disk by the thread that evicted them, after it leaves the monitor.  Until they are written they are still returned.
+ *
+ */
+final class BlackboardBoundedObj implements Blackboard{
+	// Local variables
+	LinkedHashMap<String, Element> _elements;		// In access order, the least recently used element is the first one
+	HashMap<String, ElementBuilder> _builders;		// Builders of the elements that can be evicted - kept after the element is evicted
+	HashMap<String, SpilledElement> _spilled;		// Evicted elements that were written to the spill directory
+	HashMap<String, Element> _evicting;				// Evicted elements that are being written to the spill directory
+	ConcurrentHashMap<String, Object> _locks;		// Locks of the elements that are being built or read back, one per name
+	HashMap<String, Long> _sizes;					// Size of each element in _elements when it was last measured
+	HashMap<String, Element> _handedOut;			// Elements in memory returned since the last eviction - their size can have changed
+	long _used;										// Sum of _sizes
+	File _spillDirectory;							// null if the evicted elements are not written to disk
+	long _budget;
+	AtomicLong _version;
+
+	// Constructor - Package Private
+	BlackboardBoundedObj(long budgetInBytes, File spillDirectory) {
+		// Integrity checks
+		if (budgetInBytes<=0)
+			throw new IllegalArgumentException("The memory budget has to be > 0");
+		if ((spillDirectory!=null) && !spillDirectory.isDirectory())
+			throw new IllegalArgumentException("The spill directory:" + spillDirectory + " does not exist");
+
+		_elements = new LinkedHashMap<String, Element>(16, 0.75f, true);
+		_builders = new HashMap<String, ElementBuilder>();
+		_spilled = new HashMap<String, SpilledElement>();
+		_evicting = new HashMap<String, Element>();
+		_locks = new ConcurrentHashMap<String, Object>();
+		_sizes = new HashMap<String, Long>();
+		_handedOut = new HashMap<String, Element>();
+		_used = 0;
+		_budget = budgetInBytes;
+		_spillDirectory = spillDirectory;
+		_version = new AtomicLong();
+	}
+
+	public void store(String name, Element element){
+		// Stores the element in the repository, if the element already exists it is over-written
+		// The blackboard does not know how to build the element, so it is only evicted if it can be written to the spill directory
+		List<String> evicted;
+		synchronized (this) {
+			put(name, element);
+			_builders.remove(name);
+			_evicting.remove(name);
+			deleteSpilled(name);
+			_version.incrementAndGet();
+			evicted = evict(name);
+		}
+		spill(evicted);
+	}
+
+	public Element get(String name) {
+		synchronized (this) {
+			Element element = getInMemory(name);
+			if (element!=null)
+				return element;
+			if (!_builders.containsKey(name) && !_spilled.containsKey(name))
+				throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
+		}
+		// The element was evicted, it is read back from disk or built again
+		return load(name, null, false);
+	}
+
+	// The element is pinned before leaving the monitor: if it were pinned by the caller after get returns (ex. by MatrixElement.getArray),
+	// another thread could evict it in between, and the caller would change a copy that is not in the blackboard anymore.
+	// An element that is being written to the spill directory is pinned as well, and spill puts it back in memory.
+	public Element getForUpdate(String name) {
+		synchronized (this) {
+			Element element = getInMemory(name);
+			if (element!=null)
+				return pin(element);
+			if (!_builders.containsKey(name) && !_spilled.containsKey(name))
+				throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
+		}
+		return load(name, null, true);
+	}
+
+	public synchronized boolean contains(String name) {
+		return _elements.containsKey(name) || _evicting.containsKey(name) || _builders.containsKey(name) || _spilled.containsKey(name);
+	}
+
+	public synchronized void remove(String name) {
+		// Checks if the element is in the repository
+		if (!contains(name))
+			throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
+
+		_elements.remove(name);
+		_handedOut.remove(name);
+		forget(name);
+		_evicting.remove(name);
+		_builders.remove(name);
+		deleteSpilled(name);
+		_version.incrementAndGet();
+	}
+
+	public Element getOrBuild(String name, ElementBuilder builder) {
+		synchronized (this) {
+			Element element = getInMemory(name);
+			if (element!=null)
+				return element;
+		}
+		return load(name, builder, false);
+	}
+
+	public long getVersion() {return _version.get();}
+
+	public synchronized void clear() {
+		for (SpilledElement spilled : _spilled.values()) {
+			spilled.delete();
+		}
+		_elements.clear();
+		_sizes.clear();
+		_handedOut.clear();
+		_used = 0;
+		_evicting.clear();
+		_builders.clear();
+		_spilled.clear();
+		_version.incrementAndGet();
+	}
+
+	// Returns the element if it is in memory, or null - must be called holding the monitor.
+	// The caller can change the storage of the element (ex. a sparse matrix becomes dense when its array is read), so it is measured again at the next eviction.
+	private Element getInMemory(String name) {
+		Element element = _elements.get(name);
+		if (element!=null) {
+			_handedOut.put(name, element);
+			return element;
+		}
+		return _evicting.get(name);
+	}
+
+	// Puts the element in memory and measures it - must be called holding the monitor
+	private void put(String name, Element element) {
+		_elements.put(name, element);
+		_handedOut.remove(name);
+		measure(name, element);
+	}
+
+	// Records the current size of an element in memory - must be called holding the monitor
+	private void measure(String name, Element element) {
+		forget(name);
+		if (element instanceof SizedElement) {
+			long size = ((SizedElement) element).getSizeInBytes();
+			_sizes.put(name, size);
+			_used += size;
+		}
+	}
+
+	// Takes the size of an element that leaves memory (or is measured again) out of the total - must be called holding the monitor
+	private void forget(String name) {
+		Long size = _sizes.remove(name);
+		if (size!=null)
+			_used -= size;
+	}
+
+	// Pins the element if it can be pinned - must be called holding the monitor
+	private Element pin(Element element) {
+		if (element instanceof SizedElement)
+			((SizedElement) element).pin();
+		return element;
+	}
+
+	// Reads the element back if it was spilled, or builds it (with the given builder, or the one it was built with before), and stores it.
+	// Only one thread loads each element, the others wait for it and then find it in memory.  If pinned is true, the element is pinned
+	// before it is stored, so it can not be evicted before it is returned.
+	// The lock is dropped from the map once the element is loaded (as in BlackboardConcurrentObj): the threads that were waiting for it
+	// see that it is not the lock of the name anymore and start again, so the map does not grow with the names that were ever loaded.
+	private Element load(String name, ElementBuilder builder, boolean pinned) {
+		while (true) {
+			Object lock = _locks.get(name);
+			if (lock==null) {
+				Object newLock = new Object();
+				lock = _locks.putIfAbsent(name, newLock);
+				if (lock==null)
+					lock = newLock;
+			}
+			synchronized (lock) {
+				if (_locks.get(name)!=lock)
+					continue;
+				try {
+					return loadHoldingLock(name, builder, pinned);
+				} finally {
+					_locks.remove(name, lock);
+				}
+			}
+		}
+	}
+
+	// Loads the element - must be called holding the lock of its name
+	private Element loadHoldingLock(String name, ElementBuilder builder, boolean pinned) {
+		// The element can be stored again while it is read, then what was read is out of date and it is read again
+		while (true) {
+			SpilledElement spilled;
+			ElementBuilder registeredBuilder;
+			ElementBuilder elementBuilder;
+			synchronized (this) {
+				Element element = getInMemory(name);
+				if (element!=null)
+					return pinned ? pin(element) : element;
+				spilled = _spilled.get(name);
+				registeredBuilder = _builders.get(name);
+				elementBuilder = (registeredBuilder!=null) ? registeredBuilder : builder;
+				// It was removed meanwhile
+				if ((spilled==null) && (elementBuilder==null))
+					throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
+			}
+
+			Element element = null;
+			if (spilled!=null) {
+				try {
+					element = spilled.read();
+				} catch (IOException e) {
+					// The file could not be read, so the element is built again
+					element = null;
+				}
+			}
+			boolean built = false;
+			if (element==null) {
+				if (elementBuilder==null)
+					throw new IllegalArgumentException("The element:" + name + " could not be read back from the spill directory.");
+				element = elementBuilder.build(name);
+				built = true;
+			}
+
+			List<String> evicted;
+			synchronized (this) {
+				Element current = getInMemory(name);
+				if (current!=null)
+					return pinned ? pin(current) : current;
+				// It was removed (or stored and evicted) meanwhile: a removed element is not put back, with the builder that was dropped with it
+				if ((_spilled.get(name)!=spilled) || (_builders.get(name)!=registeredBuilder))
+					continue;
+				deleteSpilled(name);
+				if (pinned)
+					pin(element);
+				put(name, element);
+				_handedOut.put(name, element);
+				if (built)
+					_builders.put(name, elementBuilder);
+				_version.incrementAndGet();
+				evicted = evict(name);
+			}
+			spill(evicted);
+			return element;
+		}
+	}
+
+	// Evicts the least recently used elements that can be built again or spilled, until the elements fit in the budget - must be called holding the monitor.
+	// The elements that can be written to the spill directory are moved to _evicting and their names are returned, so that they are written
+	// after leaving the monitor.  The others are dropped, they will be built again.
+	// The memory used is kept as a running total, each element is measured when it is put in memory.  The matrices can change their storage after
+	// they are returned (ex. a sparse matrix becomes dense when its array is read), so the elements returned since the last eviction are measured again.
+	// A change made through a reference kept from before the element was stored is only seen once the element is read from the blackboard again.
+	private List<String> evict(String newElementName) {
+		List<String> evicted = new ArrayList<String>();
+		for (Map.Entry<String, Element> entry : _handedOut.entrySet()) {
+			measure(entry.getKey(), entry.getValue());
+		}
+		_handedOut.clear();
+
+		// The element that was just stored is not evicted, even if it does not fit in the budget by itself
+		Iterator<Map.Entry<String, Element>> it = _elements.entrySet().iterator();
+		while ((_used>_budget) && it.hasNext()) {
+			Map.Entry<String, Element> entry = it.next();
+			String name = entry.getKey();
+			Element element = entry.getValue();
+			if (name.equals(newElementName) || !isEvictable(name, element))
+				continue;
+			if ((_spillDirectory!=null) && (element instanceof SpillableElement)) {
+				_evicting.put(name, element);
+				evicted.add(name);
+			}
+			it.remove();
+			forget(name);
+		}
+		return evicted;
+	}
+
+	// An element can be evicted if it uses memory, it is not pinned, and it can be built again or written to the spill directory.
+	// The elements that use no memory (ex. a matrix read back from a spill file, whose values stay in the file) are kept.
+	private boolean isEvictable(String name, Element element) {
+		if (!(element instanceof SizedElement) || ((SizedElement) element).isPinned() || (((SizedElement) element).getSizeInBytes()==0))
+			return false;
+		return _builders.containsKey(name) || ((_spillDirectory!=null) && (element instanceof SpillableElement));
+	}
+
+	// Writes the evicted elements to the spill directory - called without holding the monitor.
+	// An element that was stored again or removed meanwhile is not needed anymore.  An element that was pinned meanwhile, or that can not be written
+	// and can not be built again, goes back to memory.
+	private void spill(List<String> evicted) {
+		for (String name : evicted) {
+			Element element;
+			synchronized (this) {
+				element = _evicting.get(name);
+			}
+			if (element==null)
+				continue;
+
+			SpilledElement spilled = null;
+			File file = null;
+			try {
+				file = File.createTempFile("blackboard", ".spill", _spillDirectory);
+				spilled = ((SpillableElement) element).spill(file);
+			} catch (IOException e) {
+				// The element will be built again, or it is kept in memory
+				if ((file!=null) && !file.delete())
+					file.deleteOnExit();
+				spilled = null;
+			}
+
+			synchronized (this) {
+				if (_evicting.get(name)!=element) {
+					if (spilled!=null)
+						spilled.delete();
+				} else if ((spilled==null) || ((SizedElement) element).isPinned()) {
+					if (spilled!=null)
+						spilled.delete();
+					_evicting.remove(name);
+					if (!_builders.containsKey(name) || ((SizedElement) element).isPinned())
+						put(name, element);
+				} else {
+					_evicting.remove(name);
+					_spilled.put(name, spilled);
+				}
+			}
+		}
+	}
+
+	private void deleteSpilled(String name) {
+		SpilledElement spilled = _spilled.remove(name);
+		if (spilled!=null)
+			spilled.delete();
+	}
+}
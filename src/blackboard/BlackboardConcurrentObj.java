@@ -0,0 +1,110 @@
+package blackboard;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import data.Element;
+
+/**
+ *
+ * Blackboard that can be used by several threads at the same time.
+ * The elements are kept in a ConcurrentHashMap, and every operation does a single atomic access to it (there is no check-then-act between contains and get).
+ *
+ * getOrBuild builds each missing element only once: the threads that ask for the same element wait for the one that is building it,
+ * while the threads that ask for other elements are not blocked.  There is one lock per element name, so a builder can get other elements from the blackboard
+ * (ex. the averages of a matrix are built from the matrix) without blocking the builders of unrelated elements.
+ * A lock is only in the map while its element is being built or waited for, so the map does not grow with the names that were ever built.
+ *
+ */
+final class BlackboardConcurrentObj implements Blackboard{
+	// Local variables
+	ConcurrentHashMap<String, Element> _elements;
+	ConcurrentHashMap<String, Object> _locks;	// Locks of the elements that are being built, one per name
+	AtomicLong _version;
+
+	// Constructor - Package Private
+	BlackboardConcurrentObj() {
+		_elements =  new ConcurrentHashMap<String, Element>();
+		_locks = new ConcurrentHashMap<String, Object>();
+		_version = new AtomicLong();
+	}
+
+	public void store(String name, Element element){
+		// Integrity checks
+		if (element==null)
+			throw new IllegalArgumentException("The element:" + name + " has to be a valid object");
+
+		// Stores the element in the repository, if the element already exists it is over-written
+		_elements.put(name, element);
+		_version.incrementAndGet();
+	}
+
+	public Element get(String name) {
+		Element element = _elements.get(name);
+		if (element==null)
+			throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
+		return element;
+	}
+
+	// The elements are never evicted, so they do not need to be pinned
+	public Element getForUpdate(String name) {
+		return get(name);
+	}
+
+	public boolean contains(String name) {
+		return _elements.containsKey(name);
+	}
+
+	public void remove(String name) {
+		if (_elements.remove(name)==null)
+			throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
+		_version.incrementAndGet();
+	}
+
+	public Element getOrBuild(String name, ElementBuilder builder) {
+		Element element = _elements.get(name);
+		if (element!=null)
+			return element;
+
+		// Only one thread builds the element, the others wait for it and then find it in the repository.
+		// The lock is dropped from the map once the element is in the repository: the threads that were waiting for it see that it is not
+		// the lock of the name anymore and start again, so they find the element (or, if it was removed meanwhile, only one of them builds it again).
+		while (true) {
+			Object lock = _locks.get(name);
+			if (lock==null) {
+				Object newLock = new Object();
+				lock = _locks.putIfAbsent(name, newLock);
+				if (lock==null)
+					lock = newLock;
+			}
+			synchronized (lock) {
+				if (_locks.get(name)!=lock)
+					continue;
+				try {
+					element = _elements.get(name);
+					if (element==null) {
+						element = builder.build(name);
+						if (element==null)
+							throw new IllegalArgumentException("The element:" + name + " could not be built.");
+						// If another thread stored the element in the meantime, its element is kept
+						Element previous = _elements.putIfAbsent(name, element);
+						if (previous!=null) {
+							element = previous;
+						} else {
+							_version.incrementAndGet();
+						}
+					}
+				} finally {
+					_locks.remove(name, lock);
+				}
+			}
+			return element;
+		}
+	}
+
+	public long getVersion() {return _version.get();}
+
+	public void clear() {
+		_elements.clear();
+		_version.incrementAndGet();
+	}
+}
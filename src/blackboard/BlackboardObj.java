@@ -12,6 +12,7 @@ import data.Element;
 final class BlackboardObj implements Blackboard{
 	// Local variables
 	HashMap<String, Element> _elements;
+	long _version;
 	
 	// Constructor - Package Private
 	BlackboardObj() {
@@ -22,6 +23,7 @@ final class BlackboardObj implements Blackboard{
 	public void store(String name, Element element){
 		// Stores the element in the repository, if the element already exists it is over-written 
 		_elements.put(name, element);		
+		_version++;
 	}
 	public Element get(String name) {
 		// Checks if the element is in the repository
@@ -32,6 +34,11 @@ final class BlackboardObj implements Blackboard{
 		}
 	}
 	
+	// The elements are never evicted, so they do not need to be pinned
+	public Element getForUpdate(String name) {
+		return get(name);
+	}
+	
 	public boolean contains(String name) {
 		// Checks if the element is in the repository
 		if (_elements.containsKey(name)) {
@@ -46,10 +53,27 @@ final class BlackboardObj implements Blackboard{
 		// Checks if the element is in the repository
 		if (_elements.containsKey(name)) {
 			_elements.remove(name);
+			_version++;
 		} else {
 			throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
 		}
 		
 	}
 	
+	public Element getOrBuild(String name, ElementBuilder builder) {
+		Element element = _elements.get(name);
+		if (element==null) {
+			element = builder.build(name);
+			store(name, element);
+		}
+		return element;
+	}
+	
+	public long getVersion() {return _version;}
+	
+	public void clear() {
+		_elements.clear();
+		_version++;
+	}
+	
 }
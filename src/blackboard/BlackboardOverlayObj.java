@@ -0,0 +1,143 @@
+package blackboard;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import data.Element;
+
+/**
+ *
+ * Blackboard that is layered on top of a base blackboard.
+ * The elements are read from the overlay first, and from the base if they are not found there.
+ * The elements stored or removed only change the overlay, the base blackboard is never modified.
+ *
+ * This allows several experiments to share the same base model (ex. the loaded basic elements) while each one keeps its own matrices and parameters.
+ * Note that the elements read from the base are shared, so they should only be read, not modified.
+ *
+ * If the base has a memory budget (BlackboardBoundedObj), the elements of the overlay are kept in the base under a name prefix that is unique to the overlay,
+ * so that they count against the same budget and can be evicted like the rest.  They are not visible to the base nor to the other overlays,
+ * and clear has to be called when the overlay is not used anymore so that they are removed from the base.
+ */
+final class BlackboardOverlayObj implements Blackboard{
+	// Used to give each overlay its own prefix
+	static AtomicInteger _numOfOverlays = new AtomicInteger();
+
+	// Local variables
+	Blackboard _base;
+	HashMap<String, Element> _elements;
+	HashSet<String> _shared;	// Names of the elements of the overlay that are kept in the base, under the prefix
+	HashSet<String> _removed;	// Names of the elements of the base that were removed in the overlay
+	boolean _sharesBudget;		// True if the elements of the overlay are kept in the base
+	String _prefix;
+	long _version;
+
+	// Constructor - Package Private
+	BlackboardOverlayObj(Blackboard base) {
+		// Integrity checks
+		if (base==null)
+			throw new IllegalArgumentException("The base blackboard has to be a valid object");
+
+		_base = base;
+		_elements =  new HashMap<String, Element>();
+		_shared = new HashSet<String>();
+		_removed = new HashSet<String>();
+		_sharesBudget = (base instanceof BlackboardBoundedObj);
+		_prefix = "#overlay" + _numOfOverlays.incrementAndGet() + "#";
+	}
+
+	public void store(String name, Element element){
+		// Stores the element in the overlay, if the element already exists it is over-written
+		if (_sharesBudget) {
+			_base.store(_prefix + name, element);
+			_shared.add(name);
+		} else {
+			_elements.put(name, element);
+		}
+		_removed.remove(name);
+		_version++;
+	}
+
+	public Element get(String name) {
+		// Checks if the element is in the overlay, and then in the base
+		if (_elements.containsKey(name)) {
+			return _elements.get(name);
+		} else if (_shared.contains(name)) {
+			return _base.get(_prefix + name);
+		} else if (!_removed.contains(name) && _base.contains(name)) {
+			return _base.get(name);
+		} else {
+			throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
+		}
+	}
+
+	// The elements of the overlay kept in the base, and the ones read through to the base, are pinned by the base
+	public Element getForUpdate(String name) {
+		if (_elements.containsKey(name)) {
+			return _elements.get(name);
+		} else if (_shared.contains(name)) {
+			return _base.getForUpdate(_prefix + name);
+		} else if (!_removed.contains(name) && _base.contains(name)) {
+			return _base.getForUpdate(name);
+		} else {
+			throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
+		}
+	}
+
+	public boolean contains(String name) {
+		return _elements.containsKey(name) || _shared.contains(name) || (!_removed.contains(name) && _base.contains(name));
+	}
+
+	public void remove(String name) {
+		// Checks if the element is in the repository
+		if (!contains(name))
+			throw new IllegalArgumentException("The element:" + name + " is not in the blackboard repository.");
+
+		_elements.remove(name);
+		if (_shared.remove(name)) {
+			_base.remove(_prefix + name);
+		}
+		// The base is not modified, the element is only hidden
+		if (_base.contains(name)) {
+			_removed.add(name);
+		}
+		_version++;
+	}
+
+	public Element getOrBuild(final String name, final ElementBuilder builder) {
+		// The element is built in the overlay if it is not in the overlay nor in the base
+		if (contains(name)) {
+			return get(name);
+		}
+		if (_sharesBudget) {
+			// The base builds it under the prefix, so it can evict it and build it again - the builder still gets the name used in the overlay
+			Element element = _base.getOrBuild(_prefix + name, new ElementBuilder() {
+				public Element build(String prefixedName) {
+					return builder.build(name);
+				}
+			});
+			_shared.add(name);
+			_version++;
+			return element;
+		}
+		Element element = builder.build(name);
+		store(name, element);
+		return element;
+	}
+
+	// Removes the elements of the overlay, the base is not modified
+	public void clear() {
+		for (String name : _shared) {
+			if (_base.contains(_prefix + name))
+				_base.remove(_prefix + name);
+		}
+		_elements.clear();
+		_shared.clear();
+		_removed.clear();
+		_version++;
+	}
+
+	// The elements read through to the base change when the base changes, so its changes are counted as well
+	public long getVersion() {
+		return _version + _base.getVersion();
+	}
+}
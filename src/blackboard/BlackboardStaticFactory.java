@@ -3,6 +3,8 @@
  */
 package blackboard;
 
+import java.io.File;
+
 /**
  *
  * Static Factory that creates the Blackboard objects
@@ -14,4 +16,25 @@ public class BlackboardStaticFactory {
 	public static Blackboard newBlackboard() {
 		return new BlackboardObj();
 	}	
+	
+	// Creates a blackboard that can be shared by several threads
+	public static Blackboard newConcurrentBlackboard() {
+		return new BlackboardConcurrentObj();
+	}
+	
+	// Creates a blackboard that evicts the least recently used matrices built by the managers when they use more memory than the budget
+	public static Blackboard newBoundedBlackboard(long budgetInBytes) {
+		return new BlackboardBoundedObj(budgetInBytes, null);
+	}
+	
+	// Same as above, but the evicted matrices are written to memory mapped files in the spill directory and read back from them
+	public static Blackboard newBoundedBlackboard(long budgetInBytes, File spillDirectory) {
+		return new BlackboardBoundedObj(budgetInBytes, spillDirectory);
+	}
+	
+	// Creates a blackboard that reads through to the base blackboard, but stores its own elements separately
+	// If the base has a memory budget the elements are kept in the base and count against it, so the overlay has to be cleared when it is not used anymore
+	public static Blackboard newOverlayBlackboard(Blackboard base) {
+		return new BlackboardOverlayObj(base);
+	}
 }
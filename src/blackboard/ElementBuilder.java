@@ -0,0 +1,13 @@
+package blackboard;
+
+import data.Element;
+
+/**
+ *
+ * Builds an element that is not yet in the blackboard.
+ * It is used with Blackboard.getOrBuild, so that the elements that are derived from others (ex. the matrices) are only built when they are first needed.
+ *
+ */
+public interface ElementBuilder {
+	public Element build(String name);
+}
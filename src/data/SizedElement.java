@@ -0,0 +1,17 @@
+package data;
+
+/**
+ * 
+ * Element that can tell how much memory it uses.
+ * It is used by the blackboards that have a memory budget to decide which elements to evict.
+ *
+ */
+public interface SizedElement extends Element {
+	// Estimate of the memory used by the element, in bytes
+	public long getSizeInBytes();
+	// True if the element can not be evicted, because it was changed in place or handed out to be changed (ex. the array of a matrix),
+	// so the changes would be lost if it were built again or read back from disk
+	public boolean isPinned();
+	// Pins the element, so that it is never evicted - the blackboards call it while they hand the element out to be changed (see Blackboard.getForUpdate)
+	public void pin();
+}
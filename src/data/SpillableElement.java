@@ -0,0 +1,15 @@
+package data;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 
+ * Element that can be written to a file when it is evicted from memory, and read back later.
+ * It is used by the blackboards that have a memory budget, so that the large elements (ex. the matrices) are paged in from disk instead of being rebuilt.
+ *
+ */
+public interface SpillableElement extends SizedElement {
+	// Writes the element to the file and returns the object that reads it back.  The returned object does not keep a reference to the element.
+	public SpilledElement spill(File file) throws IOException;
+}
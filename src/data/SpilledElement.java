@@ -0,0 +1,16 @@
+package data;
+
+import java.io.IOException;
+
+/**
+ * 
+ * Element that has been written to a file by SpillableElement.spill.
+ * It only keeps what is needed to read the element back from the file.
+ *
+ */
+public interface SpilledElement {
+	// Reads the element back from the file - every call returns a new copy of the element
+	public Element read() throws IOException;
+	// Deletes the file - the element can not be read after this
+	public void delete();
+}
@@ -0,0 +1,24 @@
+package data.basic;
+
+/**
+ * 
+ * Listener that is notified every time a basic element (or a relationship between basic elements) is added to the BasicElementManager,
+ * or a membership of a stakeholder is removed.
+ * It is used to keep the elements derived from the basic elements (ex. the matrices) up to date without building them again.
+ * 
+ * Each notification corresponds to exactly one change of the version of a collection (see ElementCollection), and it is sent right after the version changes.
+ * Note that the adding of Recommendations is not notified, since nothing is derived from them.
+ *
+ */
+public interface BasicElementListener {
+	public void stakeholderAdded(Stakeholder s);
+	public void needAdded(Need n, Stakeholder s);
+	// A term was found in the text of a need - the term can be new (its number is the last one) or already in the model
+	public void termAddedToNeed(Need n, Term t, double frequency, double previousFrequency);
+	public void forumAdded(Forum f);
+	public void ratingAdded(Rating r, Stakeholder s, Need n);
+	public void needAddedToForum(Forum f, Need n, double score);
+	public void stakeholderAddedToForum(Forum f, Stakeholder s, double score);
+	// The stakeholder was taken out of the forum when its memberships were replaced (see BasicElementManager.setForumsOfStakeholder)
+	public void stakeholderRemovedFromForum(Forum f, Stakeholder s);
+}
@@ -11,8 +11,9 @@ import java.util.Collection;
  * Note that all the basic elements have two identifiers: 
  * 		1) String id - represents the unique identifier that the users have given the basic element
  * 		2) int number - represents the unique number that was auto-calculated when the element was entered
- * In all the methods used by the basic element manager the String id is used.
- * The number identifier is used to index the matrices that are later created from the basic elements
+ * In all the methods used by the basic element manager the String id is used, except for the bulk methods that add or set several elements at once.
+ * The number identifier is used to index the matrices that are later created from the basic elements, so the code that works with the matrices
+ * can use the bulk methods without converting the numbers back to String ids.
  */
 public interface BasicElementManager {
 	public String getId();
@@ -23,10 +24,16 @@ public interface BasicElementManager {
 	public void addRating(String id, String stakeholderId, String needId, RatingType type, double value);
 	public void addForum(String id, String title);
 	public void addRecommendation(String id, String stakeholderId, String forumId, RecommenderType type, String reason, double recommendationValue);
+	// Adds the first count ratings at once - the stakeholders and needs are given by number, and the rating i has its own String id ids[i]
+	public void addRatings(String[] ids, int[] stakeholderNumbers, int[] needNumbers, RatingType type, double[] values, int count);
 
 	// These methods link the basic elements together
 	public void addNeedToForum(String forumId, String needId, Double score);
 	public void addStakeholderToForum(String forumId, String stakeholderId, Double score);
+	// Adds the stakeholder to several forums at once, by number - the same as calling addStakeholderToForum for the first count forums
+	public void addStakeholderToForums(int stakeholderNumber, int[] forumNumbers, double[] scores, int count);
+	// Replaces all the memberships of the stakeholder (by number) with the first count forums, the stakeholder is removed from the forums that are not given
+	public void setForumsOfStakeholder(int stakeholderNumber, int[] forumNumbers, double[] scores, int count);
 
 	// Individual Getters - by String id
 	public Stakeholder getStakeholder(String id);
@@ -72,5 +79,11 @@ public interface BasicElementManager {
 	public Collection<Term> getTermsByNeed(Need n);
 	public Collection<Need> getNeedsByTerm(Term t);
 	public Double getScoreOfTermInNeed(Need n, Term t);
+	
+	// Version of a collection of basic elements - it changes every time an element is added to the collection (or its score is updated)
+	public long getVersion(ElementCollection collection);
+	
+	// Registers a listener that is notified when basic elements are added.  The listener is only weakly referenced, so the caller has to keep a reference to it.
+	public void addListener(BasicElementListener listener);
 		
 }
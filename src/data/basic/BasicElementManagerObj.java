@@ -1,9 +1,13 @@
 package data.basic;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 
 import blackboard.Blackboard;
 import utils.Utilities;
@@ -25,14 +29,16 @@ final class BasicElementManagerObj implements BasicElementManager{
 	// Local Variables
 	String _id;		// Identifier of the object.  This is used to name the elements in the blackboard
 	Blackboard _bb;	// Reference to the blackboard object
-
-	// Variables that keep track of the number id of each element
-	int stakeholderNumber = 0;
-	int needNumber = 0;
-	int termNumber = 0;
-	int ratingNumber = 0;
-	int forumNumber = 0;
-	int recommendationNumber = 0;
+	String _elementsName;	// Name of the basic elements in the blackboard
+	
+	// The basic elements are kept here so they are not looked up in the blackboard on every call
+	// They are only read again from the blackboard if it has changed since they were read (ex. the basic elements were replaced)
+	// The version is written after the elements, so a thread that sees the new version also sees the elements read with it
+	BasicElements _elements;
+	volatile long _elementsVersion;
+	
+	// Listeners that are notified when the basic elements change - they are weak references, so a matrix manager that is no longer used does not stay in memory
+	List<WeakReference<BasicElementListener>> _listeners;
 
 	// Constructor - Package Private
 	BasicElementManagerObj(String id, Blackboard blackboard) {
@@ -47,8 +53,22 @@ final class BasicElementManagerObj implements BasicElementManager{
 		_bb = blackboard;
 		
 		// Creates the required data structures and saves them in the blackboard.
-		BasicElements elements = new BasicElements(_id + "_basicElements");
-		_bb.store(_id + "_basicElements", elements);
+		_elementsName = _id + "_basicElements";
+		BasicElements elements = new BasicElements(_elementsName);
+		_bb.store(_elementsName, elements);
+		_elements = elements;
+		_elementsVersion = _bb.getVersion();
+		_listeners = new ArrayList<WeakReference<BasicElementListener>>();
+	}
+	
+	// Returns the basic elements - they are only read from the blackboard if the blackboard has changed since the last time
+	private BasicElements getElements() {
+		long version = _bb.getVersion();
+		if (version!=_elementsVersion) {
+			_elements = (BasicElements) _bb.get(_elementsName);
+			_elementsVersion = version;
+		}
+		return _elements;
 	}
 			
 	// Returns the id of the basic element manager - the id is used to name the elements in the blackboard
@@ -57,7 +77,7 @@ final class BasicElementManagerObj implements BasicElementManager{
 	// These methods add the basic elements 
 	public void addStakeholder(String id,  String name, String description) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		
 		// Checks if the string id is unique
 		if (elements.stakeholders.containsKey(id)) {
@@ -65,22 +85,24 @@ final class BasicElementManagerObj implements BasicElementManager{
 		}
 				
 		// Creates a new stakeholder - note that the constructor checks the other fields
-		Stakeholder s = new StakeholderObj(id, stakeholderNumber, name, description); 
+		// The number of the stakeholder is the next free position of the array
+		Stakeholder s = new StakeholderObj(id, elements.stakeholdersN.size(), name, description); 
 		
 		// Updates the corresponding collections
 		elements.stakeholders.put(s.getId(), s);
-		elements.stakeholdersN.put(s.getNumber(), s);
-		elements.needsByStakeholder.put(s, new ArrayList<Need>());
-		elements.recommendationsByStakeholder.put(s, new ArrayList<Recommendation>());
-		elements.forumsByStakeholder.put(s, new ArrayList<Forum>());
-		elements.ratingsByStakeholder.put(s, new ArrayList<Rating>());
-	
-		// Increases the stakeholder number for the next one
-		stakeholderNumber++;		
+		elements.stakeholdersN.add(s);
+		elements.needsByStakeholder.add(new NumberList(false));
+		elements.recommendationsByStakeholder.add(new NumberList(false));
+		elements.forumsAndScoresByStakeholder.add(new NumberList(true));
+		elements.ratingsByStakeholder.add(new NumberList(false));
+		elements.versions[ElementCollection.Stakeholders.ordinal()]++;
+		for (BasicElementListener l : getListeners()) {
+			l.stakeholderAdded(s);
+		}
 	}
 	public void addNeed(String id, String stakeholderId,  String text) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		
 		// Checks if the string id is unique
 		if (elements.needs.containsKey(id)) {
@@ -90,17 +112,21 @@ final class BasicElementManagerObj implements BasicElementManager{
 		}
 		 
 		// Creates a new need - note that the constructor checks the other fields
-		Need n = new NeedObj(id, needNumber, text);
+		Need n = new NeedObj(id, elements.needsN.size(), text);
 		Stakeholder s = elements.stakeholders.get(stakeholderId);
 		
 		// Updates the corresponding collections
 		elements.needs.put(n.getId(), n);
-		elements.needsN.put(n.getNumber(), n);
-		elements.stakeholderByNeed.put(n, s);		
-		elements.needsByStakeholder.get(s).add(n);
-		elements.forumsByNeed.put(n, new HashMap<Forum, Double>());
-		elements.ratingsByNeed.put(n, new ArrayList<Rating>());
-		elements.termsByNeed.put(n, new HashMap<Term, Double>());
+		elements.needsN.add(n);
+		elements.stakeholderByNeed.add(s.getNumber());		
+		elements.needsByStakeholder.get(s.getNumber()).add(n.getNumber());
+		elements.forumsAndScoresByNeed.add(new NumberList(true));
+		elements.ratingsByNeed.add(new NumberList(false));
+		elements.termsAndScoresByNeed.add(new NumberList(true));
+		elements.versions[ElementCollection.Needs.ordinal()]++;
+		for (BasicElementListener l : getListeners()) {
+			l.needAdded(n, s);
+		}
 		
 		// The need now has to be broken down into terms
 		HashMap<String, Integer> termFrequencies = Utilities.getTermFrequencies(n.getRawText());
@@ -108,31 +134,24 @@ final class BasicElementManagerObj implements BasicElementManager{
 			addTerm(term, n.getId(), term, (double) termFrequencies.get(term));
 		}
 		
-		// Increases the need number for the next one
-		needNumber++;		
-		
 	}
 	private void addTerm(String id, String needId, String text, Double frequency) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
 		// Checks if the terms already exists in the terms of the model
 		if (!elements.terms.containsKey(id)) {
 			// The term does NOT exists
 			
 			// Creates a new term
-			Term t = new TermObj(id, termNumber, text);
+			Term t = new TermObj(id, elements.termsN.size(), text);
 			Need n = elements.needs.get(needId);
 			
 			// Updates the corresponding collections
 			elements.terms.put(t.getId(), t);
-			elements.termsN.put(t.getNumber(), t);
-			elements.termsByNeed.get(n).put(t, frequency);
-			elements.needsByTerm.put(t, new HashMap<Need, Double>());
-			elements.needsByTerm.get(t).put(n, frequency);
-			
-			// Increases the term number for the next one
-			termNumber++;
+			elements.termsN.add(t);
+			elements.needsByTerm.add(new NumberList(false));
+			linkTermToNeed(elements, n, t, frequency);
 			
 		} else {
 			// The term already exists
@@ -142,13 +161,25 @@ final class BasicElementManagerObj implements BasicElementManager{
 			Need n = elements.needs.get(needId);
 
 			// Updates the corresponding collections
-			elements.termsByNeed.get(n).put(t, frequency);
-			elements.needsByTerm.get(t).put(n, frequency);
+			linkTermToNeed(elements, n, t, frequency);
 		}
 	}	 
+	private void linkTermToNeed(BasicElements elements, Need n, Term t, double frequency) {
+		// The frequency is kept with the terms of the need, the need is only added to the term the first time
+		NumberList terms = elements.termsAndScoresByNeed.get(n.getNumber());
+		int pos = terms.indexOf(t.getNumber());
+		double previousFrequency = (pos>=0) ? terms.getScore(pos) : 0.0;
+		if (terms.put(t.getNumber(), frequency)) {
+			elements.needsByTerm.get(t.getNumber()).add(n.getNumber());
+		}
+		elements.versions[ElementCollection.Terms.ordinal()]++;
+		for (BasicElementListener l : getListeners()) {
+			l.termAddedToNeed(n, t, frequency, previousFrequency);
+		}
+	}
 	public void addRating(String id, String stakeholderId, String needId, RatingType type, double value) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
 		// Checks if the string id is unique
 		if (elements.ratings.containsKey(id)) {
@@ -160,24 +191,65 @@ final class BasicElementManagerObj implements BasicElementManager{
 		}
 		
 		// Creates a new rating - note that the constructor checks the other fields
-		Rating r = new RatingObj(id, ratingNumber, type, value);
+		Rating r = new RatingObj(id, elements.ratingsN.size(), type, value);
 		Stakeholder s = elements.stakeholders.get(stakeholderId);
 		Need n = elements.needs.get(needId);
 		
 		// Updates the corresponding collections
 		elements.ratings.put(r.getId(), r);
-		elements.ratingsN.put(r.getNumber(), r);
-		elements.ratingsByStakeholder.get(s).add(r);
-		elements.ratingsByNeed.get(n).add(r);
-		elements.stakeholderByRating.put(r, s);
-		elements.needByRating.put(r, n);
-	
-		// Increases the rating number for the next one
-		ratingNumber++;		
+		elements.ratingsN.add(r);
+		elements.ratingsByStakeholder.get(s.getNumber()).add(r.getNumber());
+		elements.ratingsByNeed.get(n.getNumber()).add(r.getNumber());
+		elements.stakeholderByRating.add(s.getNumber());
+		elements.needByRating.add(n.getNumber());
+		elements.versions[ElementCollection.Ratings.ordinal()]++;
+		for (BasicElementListener l : getListeners()) {
+			l.ratingAdded(r, s, n);
+		}
+	}
+	public void addRatings(String[] ids, int[] stakeholderNumbers, int[] needNumbers, RatingType type, double[] values, int count) {
+		// Gets the basic elements from the blackboard
+		BasicElements elements = getElements();
+
+		// Integrity checks - all the ratings are checked (and created) before any of them is added, so an invalid one does not leave the batch half added
+		if ((count<0) || (count>ids.length) || (count>stakeholderNumbers.length) || (count>needNumbers.length) || (count>values.length)) {
+			throw new IllegalArgumentException("The number of ratings has to be between 0 and the length of the arrays.");
+		}
+		Rating[] ratings = new Rating[count];
+		HashSet<String> newIds = new HashSet<String>();
+		for (int i=0; i<count; i++) {
+			if (elements.ratings.containsKey(ids[i]) || !newIds.add(ids[i])) {
+				throw new IllegalArgumentException("There is already a Rating with this String id in the model.");
+			} else if (elements.stakeholdersN.get(stakeholderNumbers[i])==null) {
+				throw new IllegalArgumentException("The Stakeholder is not in the model.");
+			} else if (elements.needsN.get(needNumbers[i])==null) {
+				throw new IllegalArgumentException("The Need is not in the model.");
+			}
+			// Note that the constructor checks the other fields
+			ratings[i] = new RatingObj(ids[i], elements.ratingsN.size()+i, type, values[i]);
+		}
+
+		// Updates the corresponding collections, the same as addRating - each rating is a change of its own for the listeners
+		List<BasicElementListener> listeners = getListeners();
+		for (int i=0; i<count; i++) {
+			Rating r = ratings[i];
+			Stakeholder s = elements.stakeholdersN.get(stakeholderNumbers[i]);
+			Need n = elements.needsN.get(needNumbers[i]);
+			elements.ratings.put(r.getId(), r);
+			elements.ratingsN.add(r);
+			elements.ratingsByStakeholder.get(s.getNumber()).add(r.getNumber());
+			elements.ratingsByNeed.get(n.getNumber()).add(r.getNumber());
+			elements.stakeholderByRating.add(s.getNumber());
+			elements.needByRating.add(n.getNumber());
+			elements.versions[ElementCollection.Ratings.ordinal()]++;
+			for (BasicElementListener l : listeners) {
+				l.ratingAdded(r, s, n);
+			}
+		}
 	}
 	public void addForum(String id, String title) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
 		// Checks if the string id is unique
 		if (elements.forums.containsKey(id)) {
@@ -185,21 +257,22 @@ final class BasicElementManagerObj implements BasicElementManager{
 		}
 		
 		// Creates a new forum - note that the constructor checks the other fields
-		Forum f = new ForumObj(id, forumNumber, title);
+		Forum f = new ForumObj(id, elements.forumsN.size(), title);
 		
 		// Updates the corresponding collections
 		elements.forums.put(f.getId(), f);
-		elements.forumsN.put(f.getNumber(), f);
-		elements.recommendationsByForum.put(f, new ArrayList<Recommendation>());
-		elements.needsAndScoresByForum.put(f, new HashMap<Need, Double>());
-		elements.stakeholdersAndScoresByForum.put(f, new HashMap<Stakeholder, Double>());
-		
-		// Increases the forum number for the next one
-		forumNumber++;			
+		elements.forumsN.add(f);
+		elements.recommendationsByForum.add(new NumberList(false));
+		elements.needsByForum.add(new NumberList(false));
+		elements.stakeholdersByForum.add(new NumberList(false));
+		elements.versions[ElementCollection.Forums.ordinal()]++;
+		for (BasicElementListener l : getListeners()) {
+			l.forumAdded(f);
+		}
 	}
 	public void addRecommendation(String id, String stakeholderId, String forumId, RecommenderType type, String reason, double recommendationValue){
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		
 		// Checks if the string id is unique
 		if (elements.recommendations.containsKey(id)) {
@@ -211,26 +284,24 @@ final class BasicElementManagerObj implements BasicElementManager{
 		}
 
 		// Creates a new recommendation - note that the constructor checks the other fields
-		Recommendation r = new RecommendationObj(id, recommendationNumber, type, reason, recommendationValue);
+		Recommendation r = new RecommendationObj(id, elements.recommendationsN.size(), type, reason, recommendationValue);
 		Stakeholder s = elements.stakeholders.get(stakeholderId);
 		Forum f = elements.forums.get(forumId);
 		
 		// Updates the corresponding collections		
 		elements.recommendations.put(r.getId(), r);
-		elements.recommendationsN.put(r.getNumber(), r);
-		elements.recommendationsByStakeholder.get(s).add(r);
-		elements.stakeholderByRecommendation.put(r, s);
-		elements.forumByRecommendation.put(r, f);
-		elements.recommendationsByForum.get(f).add(r);
-		
-		// Increases the recommendation number for the next one
-		recommendationNumber++;				
+		elements.recommendationsN.add(r);
+		elements.recommendationsByStakeholder.get(s.getNumber()).add(r.getNumber());
+		elements.stakeholderByRecommendation.add(s.getNumber());
+		elements.forumByRecommendation.add(f.getNumber());
+		elements.recommendationsByForum.get(f.getNumber()).add(r.getNumber());
+		elements.versions[ElementCollection.Recommendations.ordinal()]++;
 	}
 
 	// These methods link the basic elements together
 	public void addNeedToForum(String forumId, String needId, Double score) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		
 		// Checks if the string id is unique		
 		if (!elements.forums.containsKey(forumId) ) {
@@ -243,13 +314,19 @@ final class BasicElementManagerObj implements BasicElementManager{
 		Forum f = elements.forums.get(forumId);
 		Need n = elements.needs.get(needId);
 		
-		// Updates the corresponding collections				
-		elements.forumsByNeed.get(n).put(f, score);
-		elements.needsAndScoresByForum.get(f).put(n, score);
+		// Updates the corresponding collections - the score is kept with the forums of the need
+		// In case the element is already there, then it does not get added again, only the membership score is updated
+		if (elements.forumsAndScoresByNeed.get(n.getNumber()).put(f.getNumber(), score)) {
+			elements.needsByForum.get(f.getNumber()).add(n.getNumber());
+		}
+		elements.versions[ElementCollection.NeedsOfForums.ordinal()]++;
+		for (BasicElementListener l : getListeners()) {
+			l.needAddedToForum(f, n, score);
+		}
 	}
 	public void addStakeholderToForum(String forumId, String stakeholderId, Double score) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		
 		if (!elements.forums.containsKey(forumId) ) {
 			throw new IllegalArgumentException("The Forum is not in the model.");
@@ -261,22 +338,101 @@ final class BasicElementManagerObj implements BasicElementManager{
 		Forum f = elements.forums.get(forumId);
 		Stakeholder s = elements.stakeholders.get(stakeholderId);
 		
-		// elements.forumsByStakeholder.get(s).add(f);
-		// elements.stakeholdersAndScoresByForum.get(f).put(s, score);
-
-		// Updates the corresponding collections				
+		// Updates the corresponding collections - the score is kept with the forums of the stakeholder
 		// In case the element is already there, then it does not get added again, only the membership score is updated
-		if (!elements.forumsByStakeholder.get(s).contains(f)) {
-			elements.forumsByStakeholder.get(s).add(f);
-		} 
-		elements.stakeholdersAndScoresByForum.get(f).put(s, score);
+		if (elements.forumsAndScoresByStakeholder.get(s.getNumber()).put(f.getNumber(), score)) {
+			elements.stakeholdersByForum.get(f.getNumber()).add(s.getNumber());
+		}
+		elements.versions[ElementCollection.StakeholdersOfForums.ordinal()]++;
+		for (BasicElementListener l : getListeners()) {
+			l.stakeholderAddedToForum(f, s, score);
+		}
 	
 	}
+	public void addStakeholderToForums(int stakeholderNumber, int[] forumNumbers, double[] scores, int count) {
+		// Gets the basic elements from the blackboard
+		BasicElements elements = getElements();
+
+		// Integrity checks - all the forums are checked before any of them is added
+		Stakeholder s = elements.stakeholdersN.get(stakeholderNumber);
+		if (s==null) {
+			throw new IllegalArgumentException("The Stakeholder is not in the model.");
+		} else if ((count<0) || (count>forumNumbers.length) || (count>scores.length)) {
+			throw new IllegalArgumentException("The number of forums has to be between 0 and the length of the arrays.");
+		}
+		for (int i=0; i<count; i++) {
+			if (elements.forumsN.get(forumNumbers[i])==null)
+				throw new IllegalArgumentException("The Forum is not in the model.");
+		}
+
+		// Updates the corresponding collections, the same as addStakeholderToForum - each membership is a change of its own for the listeners
+		NumberList forums = elements.forumsAndScoresByStakeholder.get(s.getNumber());
+		List<BasicElementListener> listeners = getListeners();
+		for (int i=0; i<count; i++) {
+			Forum f = elements.forumsN.get(forumNumbers[i]);
+			if (forums.put(f.getNumber(), scores[i])) {
+				elements.stakeholdersByForum.get(f.getNumber()).add(s.getNumber());
+			}
+			elements.versions[ElementCollection.StakeholdersOfForums.ordinal()]++;
+			for (BasicElementListener l : listeners) {
+				l.stakeholderAddedToForum(f, s, scores[i]);
+			}
+		}
+	}
+	public void setForumsOfStakeholder(int stakeholderNumber, int[] forumNumbers, double[] scores, int count) {
+		// Gets the basic elements from the blackboard
+		BasicElements elements = getElements();
+
+		// Integrity checks - all the forums are checked before any membership is changed
+		Stakeholder s = elements.stakeholdersN.get(stakeholderNumber);
+		if (s==null) {
+			throw new IllegalArgumentException("The Stakeholder is not in the model.");
+		} else if ((count<0) || (count>forumNumbers.length) || (count>scores.length)) {
+			throw new IllegalArgumentException("The number of forums has to be between 0 and the length of the arrays.");
+		}
+		// The new memberships are kept as a set, so that the current ones can be checked against them - if a forum is repeated its last score is kept
+		NumberList newForums = new NumberList(true);
+		for (int i=0; i<count; i++) {
+			if (elements.forumsN.get(forumNumbers[i])==null)
+				throw new IllegalArgumentException("The Forum is not in the model.");
+			newForums.put(forumNumbers[i], scores[i]);
+		}
+
+		// Removes the stakeholder from the forums that are not in the new memberships
+		NumberList forums = elements.forumsAndScoresByStakeholder.get(s.getNumber());
+		List<BasicElementListener> listeners = getListeners();
+		for (int k=0; k<forums.size(); k++) {
+			Forum f = elements.forumsN.get(forums.getNumber(k));
+			if (newForums.indexOf(f.getNumber())<0) {
+				elements.stakeholdersByForum.get(f.getNumber()).remove(s.getNumber());
+				elements.versions[ElementCollection.StakeholdersOfForums.ordinal()]++;
+				for (BasicElementListener l : listeners) {
+					l.stakeholderRemovedFromForum(f, s);
+				}
+			}
+		}
+
+		// The stakeholder is added to the forums it was not in before, and the memberships are replaced in the order they are given
+		for (int k=0; k<newForums.size(); k++) {
+			if (forums.indexOf(newForums.getNumber(k))<0) {
+				elements.stakeholdersByForum.get(newForums.getNumber(k)).add(s.getNumber());
+			}
+		}
+		forums.clear();
+		for (int k=0; k<newForums.size(); k++) {
+			Forum f = elements.forumsN.get(newForums.getNumber(k));
+			forums.put(f.getNumber(), newForums.getScore(k));
+			elements.versions[ElementCollection.StakeholdersOfForums.ordinal()]++;
+			for (BasicElementListener l : listeners) {
+				l.stakeholderAddedToForum(f, s, newForums.getScore(k));
+			}
+		}
+	}
 
 	// Individual Getters - by String id
 	public Stakeholder getStakeholder(String id) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		
 		if (elements.stakeholders.containsKey(id)) {
 			return elements.stakeholders.get(id);
@@ -286,7 +442,7 @@ final class BasicElementManagerObj implements BasicElementManager{
 	}
 	public Need getNeed(String id) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
 		if (elements.needs.containsKey(id)) {
 			return elements.needs.get(id);
@@ -296,7 +452,7 @@ final class BasicElementManagerObj implements BasicElementManager{
 	}
 	public Forum getForum(String id) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
 		if (elements.forums.containsKey(id)) {
 			return elements.forums.get(id);
@@ -306,7 +462,7 @@ final class BasicElementManagerObj implements BasicElementManager{
 	}
 	public Recommendation getRecommendation(String id) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
 		if (elements.recommendations.containsKey(id)) {
 			return elements.recommendations.get(id);
@@ -316,7 +472,7 @@ final class BasicElementManagerObj implements BasicElementManager{
 	}		
 	public Term getTerm(String id) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
 		if (elements.terms.containsKey(id)) {
 			return elements.terms.get(id);
@@ -326,7 +482,7 @@ final class BasicElementManagerObj implements BasicElementManager{
 	}
 	public Rating getRating(String id) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
 		if (elements.ratings.containsKey(id)) {
 			return elements.ratings.get(id);
@@ -338,60 +494,66 @@ final class BasicElementManagerObj implements BasicElementManager{
 	// Individual Getters - by Number id
 	public Stakeholder getStakeholder(int number) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		
-		if (elements.stakeholdersN.containsKey(number)) {
-			return elements.stakeholdersN.get(number);
+		Stakeholder e = elements.stakeholdersN.get(number);
+		if (e!=null) {
+			return e;
 		} else {
 			throw new IllegalArgumentException("The String id does not correspond to a Stakeholder in the model.");
 		}
 	}
 	public Need getNeed(int number) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
-		if (elements.needsN.containsKey(number)) {
-			return elements.needsN.get(number);
+		Need e = elements.needsN.get(number);
+		if (e!=null) {
+			return e;
 		} else {
 			throw new IllegalArgumentException("The String id does not correspond to a Need in the model.");
 		}
 	}
 	public Forum getForum(int number) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
-		if (elements.forumsN.containsKey(number)) {
-			return elements.forumsN.get(number);
+		Forum e = elements.forumsN.get(number);
+		if (e!=null) {
+			return e;
 		} else {
 			throw new IllegalArgumentException("The String id does not correspond to a Forum in the model.");
 		}
 	}
 	public Recommendation getRecommendation(int number) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
-		if (elements.recommendationsN.containsKey(number)) {
-			return elements.recommendationsN.get(number);
+		Recommendation e = elements.recommendationsN.get(number);
+		if (e!=null) {
+			return e;
 		} else {
 			throw new IllegalArgumentException("The String id does not correspond to a Recommendation in the model.");
 		}
 	}		
 	public Term getTerm(int number) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
-		if (elements.termsN.containsKey(number)) {
-			return elements.termsN.get(number);
+		Term e = elements.termsN.get(number);
+		if (e!=null) {
+			return e;
 		} else {
 			throw new IllegalArgumentException("The String id does not correspond to a Term in the model.");
 		}		
 	}
 	public Rating getRating(int number) {
 		// Gets the basic elements from the blackboard
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 
-		if (elements.ratingsN.containsKey(number)) {
-			return elements.ratingsN.get(number);
+		Rating e = elements.ratingsN.get(number);
+		if (e!=null) {
+			return e;
 		} else {
 			throw new IllegalArgumentException("The String id does not correspond to a Rating in the model.");
 		}		
@@ -399,178 +561,217 @@ final class BasicElementManagerObj implements BasicElementManager{
 	
 	// Collection Getters
 	public Collection<Stakeholder> getStakeholders(){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");		
+		BasicElements elements = getElements();		
 		return Collections.unmodifiableCollection(elements.stakeholders.values());
 	}
 	public Collection<Need> getNeeds(){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		return Collections.unmodifiableCollection(elements.needs.values());
 	}
 	public Collection<Forum> getForums(){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		return Collections.unmodifiableCollection(elements.forums.values());
 	}
 	public Collection<Recommendation> getRecommendations(){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		return Collections.unmodifiableCollection(elements.recommendations.values());
 	}		
 	public Collection<Term> getTerms(){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		return Collections.unmodifiableCollection(elements.terms.values());		
 	}
 	public Collection<Rating> getRatings(){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
+		BasicElements elements = getElements();
 		return Collections.unmodifiableCollection(elements.ratings.values());
 	}
 	
 	// Queries
+	// The elements are checked by their number, and the related elements are read from the adjacency lists of the element
 	public Collection<Need> getNeedsByStakeholder(Stakeholder s){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.stakeholders.containsValue(s) ) {
+		BasicElements elements = getElements();
+		if (!elements.stakeholdersN.contains(s, s.getNumber()) ) {
 			throw new IllegalArgumentException("The Stakeholder is not in the model.");
 		}
-		return Collections.unmodifiableCollection(elements.needsByStakeholder.get(s));
+		return elements.needsByStakeholder.get(s.getNumber()).asList(elements.needsN);
 	}	
 	public Stakeholder getStakeholderOfNeed(Need n){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.needs.containsValue(n) ) {
+		BasicElements elements = getElements();
+		if (!elements.needsN.contains(n, n.getNumber()) ) {
 			throw new IllegalArgumentException("The Need is not in the model.");
 		}
-		return elements.stakeholderByNeed.get(n);
+		return elements.stakeholdersN.get(elements.stakeholderByNeed.getNumber(n.getNumber()));
 	}	
 	public Collection<Recommendation> getRecommendationsForStakeholder (Stakeholder s){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.stakeholders.containsValue(s) ) {
+		BasicElements elements = getElements();
+		if (!elements.stakeholdersN.contains(s, s.getNumber()) ) {
 			throw new IllegalArgumentException("The Stakeholder is not in the model.");
 		}
-		return Collections.unmodifiableCollection(elements.recommendationsByStakeholder.get(s));
+		return elements.recommendationsByStakeholder.get(s.getNumber()).asList(elements.recommendationsN);
 	}
 	public Stakeholder getStakeholderOfRecommendation(Recommendation r) {
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.recommendations.containsValue(r) ) {
+		BasicElements elements = getElements();
+		if (!elements.recommendationsN.contains(r, r.getNumber()) ) {
 			throw new IllegalArgumentException("The Recommendation is not in the model.");
 		}
-		return elements.stakeholderByRecommendation.get(r);		
+		return elements.stakeholdersN.get(elements.stakeholderByRecommendation.getNumber(r.getNumber()));		
 	}	
 	public Forum getForumOfRecommendation(Recommendation r){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.recommendations.containsValue(r) ) {
+		BasicElements elements = getElements();
+		if (!elements.recommendationsN.contains(r, r.getNumber()) ) {
 			throw new IllegalArgumentException("The Recommendation is not in the model.");
 		}
-		return elements.forumByRecommendation.get(r);
+		return elements.forumsN.get(elements.forumByRecommendation.getNumber(r.getNumber()));
 	}
 	public Collection<Recommendation> getRecommendationsByForum (Forum f){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.forums.containsValue(f) ) {
+		BasicElements elements = getElements();
+		if (!elements.forumsN.contains(f, f.getNumber()) ) {
 			throw new IllegalArgumentException("The Forum is not in the model.");
 		}
-		return Collections.unmodifiableCollection(elements.recommendationsByForum.get(f));
+		return elements.recommendationsByForum.get(f.getNumber()).asList(elements.recommendationsN);
 	}	
 	public Collection<Need> getNeedsOfForum(Forum f){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.forums.containsValue(f) ) {
+		BasicElements elements = getElements();
+		if (!elements.forumsN.contains(f, f.getNumber()) ) {
 			throw new IllegalArgumentException("The Forum is not in the model.");
 		}		
-		return Collections.unmodifiableCollection(elements.needsAndScoresByForum.get(f).keySet());
+		return elements.needsByForum.get(f.getNumber()).asList(elements.needsN);
 	}	
 	public Collection<Forum> getForumsOfNeed(Need n) {
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.needs.containsValue(n) ) {
+		BasicElements elements = getElements();
+		if (!elements.needsN.contains(n, n.getNumber()) ) {
 			throw new IllegalArgumentException("The Need is not in the model.");
-		} else if (!elements.forumsByNeed.containsKey(n)) {
-			throw new IllegalArgumentException("The Need is not yet in any Forum.");
 		}		
-		return Collections.unmodifiableCollection(elements.forumsByNeed.get(n).keySet());
+		return elements.forumsAndScoresByNeed.get(n.getNumber()).asList(elements.forumsN);
 	}
 	public Collection<Stakeholder> getStakeholdersOfForum(Forum f){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.forums.containsValue(f) ) {
+		BasicElements elements = getElements();
+		if (!elements.forumsN.contains(f, f.getNumber()) ) {
 			throw new IllegalArgumentException("The Forum is not in the model.");
 		}
-		return Collections.unmodifiableCollection(elements.stakeholdersAndScoresByForum .get(f).keySet());
+		return elements.stakeholdersByForum.get(f.getNumber()).asList(elements.stakeholdersN);
 	}	
 	public Collection<Forum> getForumsOfStakeholder(Stakeholder s){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.stakeholders.containsValue(s) ) {
+		BasicElements elements = getElements();
+		if (!elements.stakeholdersN.contains(s, s.getNumber()) ) {
 			throw new IllegalArgumentException("The Stakeholder is not in the model.");
 		}
-		return Collections.unmodifiableCollection(elements.forumsByStakeholder.get(s));
+		return elements.forumsAndScoresByStakeholder.get(s.getNumber()).asList(elements.forumsN);
 	}
 	public Double getScoreOfNeedInForum(Forum f, Need n){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.forums.containsValue(f) ) {
+		BasicElements elements = getElements();
+		if (!elements.forumsN.contains(f, f.getNumber()) ) {
 			throw new IllegalArgumentException("The Forum is not in the model.");
-		} else if (!elements.needs.containsValue(n) ) {
+		} else if (!elements.needsN.contains(n, n.getNumber()) ) {
 			throw new IllegalArgumentException("The Need is not in the model.");
-		} else if (!elements.needsAndScoresByForum.get(f).containsKey(n)) {
+		}
+		NumberList forums = elements.forumsAndScoresByNeed.get(n.getNumber());
+		int pos = forums.indexOf(f.getNumber());
+		if (pos<0) {
 			throw new IllegalArgumentException("The Need is not in the Forum and therefore has no score.");
 		}	
-		return elements.needsAndScoresByForum.get(f).get(n);
+		return forums.getScore(pos);
 	}
 	public Double getScoreOfStakeholderInForum(Forum f, Stakeholder s){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.forums.containsValue(f) ) {
+		BasicElements elements = getElements();
+		if (!elements.forumsN.contains(f, f.getNumber()) ) {
 			throw new IllegalArgumentException("The Forum is not in the model.");
-		} else if (!elements.stakeholders.containsValue(s) ) {
+		} else if (!elements.stakeholdersN.contains(s, s.getNumber()) ) {
 			throw new IllegalArgumentException("The Stakeholder is not in the model.");
-		} else if (!elements.stakeholdersAndScoresByForum.get(f).containsKey(s)) {
+		}
+		NumberList forums = elements.forumsAndScoresByStakeholder.get(s.getNumber());
+		int pos = forums.indexOf(f.getNumber());
+		if (pos<0) {
 			throw new IllegalArgumentException("The Stakeholder is not in the Forum and therefore has no score.");
 		}
-		return elements.stakeholdersAndScoresByForum.get(f).get(s);
+		return forums.getScore(pos);
 	}
 	public Collection<Rating> getRatingsByStakeholder(Stakeholder s){
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.stakeholders.containsValue(s) ) {
+		BasicElements elements = getElements();
+		if (!elements.stakeholdersN.contains(s, s.getNumber()) ) {
 			throw new IllegalArgumentException("The Stakeholder is not in the model.");
 		}
-		return Collections.unmodifiableCollection(elements.ratingsByStakeholder.get(s));
+		return elements.ratingsByStakeholder.get(s.getNumber()).asList(elements.ratingsN);
 	}
 	public Stakeholder getStakeholderOfRating(Rating r) {
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.ratings.containsValue(r) ) {
+		BasicElements elements = getElements();
+		if (!elements.ratingsN.contains(r, r.getNumber()) ) {
 			throw new IllegalArgumentException("The Rating is not in the model.");
 		}
-		return elements.stakeholderByRating.get(r);
+		return elements.stakeholdersN.get(elements.stakeholderByRating.getNumber(r.getNumber()));
 	}
 	public Need getNeedOfRating(Rating r) {
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.ratings.containsValue(r) ) {
+		BasicElements elements = getElements();
+		if (!elements.ratingsN.contains(r, r.getNumber()) ) {
 			throw new IllegalArgumentException("The Rating is not in the model.");
 		}
-		return elements.needByRating.get(r);
+		return elements.needsN.get(elements.needByRating.getNumber(r.getNumber()));
 	}
 	public Collection<Rating> getRatingsByNeed(Need n) {
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.needs.containsValue(n) ) {
+		BasicElements elements = getElements();
+		if (!elements.needsN.contains(n, n.getNumber()) ) {
 			throw new IllegalArgumentException("The Need is not in the model.");
 		}
-		return Collections.unmodifiableCollection(elements.ratingsByNeed.get(n));
+		return elements.ratingsByNeed.get(n.getNumber()).asList(elements.ratingsN);
 	}
 	public Collection<Term> getTermsByNeed(Need n) {
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.needs.containsValue(n) ) {
+		BasicElements elements = getElements();
+		if (!elements.needsN.contains(n, n.getNumber()) ) {
 			throw new IllegalArgumentException("The Need is not in the model.");
 		}
-		return Collections.unmodifiableCollection(elements.termsByNeed.get(n).keySet());
+		return elements.termsAndScoresByNeed.get(n.getNumber()).asList(elements.termsN);
 	}
 	public Collection<Need> getNeedsByTerm(Term t) {
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.terms.containsValue(t) ) {
+		BasicElements elements = getElements();
+		if (!elements.termsN.contains(t, t.getNumber()) ) {
 			throw new IllegalArgumentException("The Term is not in the model.");
 		}
-		return Collections.unmodifiableCollection(elements.needsByTerm.get(t).keySet());
+		return elements.needsByTerm.get(t.getNumber()).asList(elements.needsN);
 
 	}
 	public Double getScoreOfTermInNeed(Need n, Term t) {
-		BasicElements elements = (BasicElements) _bb.get(_id + "_basicElements");
-		if (!elements.needs.containsValue(n) ) {
+		BasicElements elements = getElements();
+		if (!elements.needsN.contains(n, n.getNumber()) ) {
 			throw new IllegalArgumentException("The Need is not in the model.");
-		} else if (!elements.terms.containsValue(t) ) {
+		} else if (!elements.termsN.contains(t, t.getNumber()) ) {
 			throw new IllegalArgumentException("The Term is not in the model.");
-		} else if (!elements.termsByNeed.get(n).containsKey(t)) {
-		throw new IllegalArgumentException("The Term is not in the Need and therefore has no score.");
+		}
+		NumberList terms = elements.termsAndScoresByNeed.get(n.getNumber());
+		int pos = terms.indexOf(t.getNumber());
+		if (pos<0) {
+			throw new IllegalArgumentException("The Term is not in the Need and therefore has no score.");
+		}
+		return terms.getScore(pos);
 	}
-	return elements.termsByNeed.get(n).get(t);
+	
+	public long getVersion(ElementCollection collection) {
+		BasicElements elements = getElements();
+		return elements.versions[collection.ordinal()];
+	}
+	
+	public void addListener(BasicElementListener listener) {
+		if (listener==null)
+			throw new IllegalArgumentException("The listener has to be a valid object");
+		// The matrix managers can be created by several threads at the same time (ex. one per experiment)
+		synchronized (_listeners) {
+			_listeners.add(new WeakReference<BasicElementListener>(listener));
+		}
+	}
+	
+	// Returns the listeners that are still in use, and removes the ones that have been garbage collected
+	private List<BasicElementListener> getListeners() {
+		synchronized (_listeners) {
+			List<BasicElementListener> listeners = new ArrayList<BasicElementListener>(_listeners.size());
+			Iterator<WeakReference<BasicElementListener>> it = _listeners.iterator();
+			while (it.hasNext()) {
+				BasicElementListener l = it.next().get();
+				if (l==null) {
+					it.remove();
+				} else {
+					listeners.add(l);
+				}
+			}
+			return listeners;
+		}
 	}
 	
-}
+}
\ No newline at end of file
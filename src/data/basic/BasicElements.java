@@ -5,7 +5,6 @@ package data.basic;
 
 import data.Element;
 import java.util.HashMap;
-import java.util.ArrayList;
 
 /**
  *
@@ -22,6 +21,7 @@ class BasicElements implements Element{
 	String nameId;
 	
 	// Data structures that contain the basic elements of the models - since they can be indexed by String id or by number they are duplicated
+	// The numbers are dense (0..n-1) so the elements are kept in arrays indexed by their number
 	HashMap<String, Stakeholder> stakeholders;
 	HashMap<String, Need> needs;
 	HashMap<String, Term> terms;
@@ -29,47 +29,51 @@ class BasicElements implements Element{
 	HashMap<String, Forum> forums;
 	HashMap<String, Recommendation> recommendations;
 	
-	HashMap<Integer, Stakeholder> stakeholdersN;
-	HashMap<Integer, Need> needsN;
-	HashMap<Integer, Term> termsN;
-	HashMap<Integer, Rating> ratingsN;
-	HashMap<Integer, Forum> forumsN;
-	HashMap<Integer, Recommendation> recommendationsN;
+	ElementArray<Stakeholder> stakeholdersN;
+	ElementArray<Need> needsN;
+	ElementArray<Term> termsN;
+	ElementArray<Rating> ratingsN;
+	ElementArray<Forum> forumsN;
+	ElementArray<Recommendation> recommendationsN;
 	
 	// Data structures that represent the relationships between the elements
+	// They are indexed by the number of the element, and keep the numbers of the related elements (and their scores)
 	// A Stakeholder has many needs
-	HashMap<Stakeholder, ArrayList<Need>> needsByStakeholder;
-	// A Need was entered by one Stakeholder
-	HashMap<Need, Stakeholder> stakeholderByNeed;
+	ElementArray<NumberList> needsByStakeholder;
+	// A Need was entered by one Stakeholder - the position in the list is the number of the need
+	NumberList stakeholderByNeed;
 	// A Stakeholder can have many recommendations
-	HashMap<Stakeholder, ArrayList<Recommendation>> recommendationsByStakeholder;
+	ElementArray<NumberList> recommendationsByStakeholder;
 	// A recommendation is made to one stakeholder
-	HashMap<Recommendation, Stakeholder> stakeholderByRecommendation;
+	NumberList stakeholderByRecommendation;
 	// A recommendation is for one Forum
-	HashMap<Recommendation, Forum> forumByRecommendation;
+	NumberList forumByRecommendation;
 	// A Forum can be recommended in multiple recommendations
-	HashMap<Forum, ArrayList<Recommendation>> recommendationsByForum;
-	// A Forum contains many Needs, and each need has a score indicating how well it belongs to the forum
-	HashMap<Forum, HashMap<Need, Double>> needsAndScoresByForum;
+	ElementArray<NumberList> recommendationsByForum;
+	// A Forum contains many Needs
+	ElementArray<NumberList> needsByForum;
 	// A Need belongs to one or more Forum, and each need has a score indicating how well it belongs - allows for fuzzy clustering
-	HashMap<Need, HashMap<Forum, Double>> forumsByNeed;
-	// A Forum contains many Stakeholders, and each has a score indicating the 'rating' the stakeholder 'gave' the forum
-	HashMap<Forum, HashMap<Stakeholder, Double>> stakeholdersAndScoresByForum;
-	// A Stakeholder can be in many Forums
-	HashMap<Stakeholder, ArrayList<Forum>> forumsByStakeholder;
+	ElementArray<NumberList> forumsAndScoresByNeed;
+	// A Forum contains many Stakeholders
+	ElementArray<NumberList> stakeholdersByForum;
+	// A Stakeholder can be in many Forums, and each has a score indicating the 'rating' the stakeholder 'gave' the forum
+	ElementArray<NumberList> forumsAndScoresByStakeholder;
 	
 	// A Stakeholder can have many Ratings
-	HashMap<Stakeholder, ArrayList<Rating>> ratingsByStakeholder;
+	ElementArray<NumberList> ratingsByStakeholder;
 	// A Rating is entered by one Stakeholder
-	HashMap<Rating, Stakeholder> stakeholderByRating;
+	NumberList stakeholderByRating;
 	// A Rating is for one Need
-	HashMap<Rating, Need> needByRating;
+	NumberList needByRating;
 	// A Need can have many Ratings
-	HashMap<Need, ArrayList<Rating>> ratingsByNeed;
+	ElementArray<NumberList> ratingsByNeed;
 	// A Need contains many Terms, and each one has a frequency
-	HashMap<Need, HashMap<Term, Double>> termsByNeed;
-	// A Term can be in many Needs, and have a different frequency in each one
-	HashMap<Term, HashMap<Need, Double>> needsByTerm;	
+	ElementArray<NumberList> termsAndScoresByNeed;
+	// A Term can be in many Needs
+	ElementArray<NumberList> needsByTerm;	
+	
+	// Versions of the collections, indexed by the ordinal of the ElementCollection
+	long[] versions;
 	
 	// Constructor - Package Private
 	BasicElements(String name) {
@@ -87,28 +91,29 @@ class BasicElements implements Element{
 		ratings = new HashMap<String, Rating>();
 		forums = new HashMap<String, Forum>();
 		recommendations = new HashMap<String, Recommendation>();
-		stakeholdersN = new HashMap<Integer, Stakeholder>();
-		needsN = new HashMap<Integer, Need>();
-		termsN = new HashMap<Integer, Term>();
-		ratingsN = new HashMap<Integer, Rating>();
-		forumsN = new HashMap<Integer, Forum>();
-		recommendationsN = new HashMap<Integer, Recommendation>();
-		needsByStakeholder = new HashMap<Stakeholder, ArrayList<Need>>();
-		stakeholderByNeed = new HashMap<Need, Stakeholder>();
-		recommendationsByStakeholder = new HashMap<Stakeholder, ArrayList<Recommendation>>();
-		stakeholderByRecommendation = new HashMap<Recommendation, Stakeholder>();
-		forumByRecommendation = new HashMap<Recommendation, Forum>();
-		recommendationsByForum = new HashMap<Forum, ArrayList<Recommendation>>();
-		needsAndScoresByForum = new HashMap<Forum, HashMap<Need,Double>>();
-		forumsByNeed = new HashMap<Need, HashMap<Forum,Double>>();
-		stakeholdersAndScoresByForum = new HashMap<Forum, HashMap<Stakeholder,Double>>();
-		forumsByStakeholder = new HashMap<Stakeholder, ArrayList<Forum>>();
-		ratingsByStakeholder = new HashMap<Stakeholder, ArrayList<Rating>>();
-		stakeholderByRating = new HashMap<Rating, Stakeholder>();
-		needByRating = new HashMap<Rating, Need>();
-		ratingsByNeed = new HashMap<Need, ArrayList<Rating>>();
-		termsByNeed = new HashMap<Need, HashMap<Term,Double>>();
-		needsByTerm = new HashMap<Term, HashMap<Need,Double>>();
+		stakeholdersN = new ElementArray<Stakeholder>();
+		needsN = new ElementArray<Need>();
+		termsN = new ElementArray<Term>();
+		ratingsN = new ElementArray<Rating>();
+		forumsN = new ElementArray<Forum>();
+		recommendationsN = new ElementArray<Recommendation>();
+		needsByStakeholder = new ElementArray<NumberList>();
+		stakeholderByNeed = new NumberList(false);
+		recommendationsByStakeholder = new ElementArray<NumberList>();
+		stakeholderByRecommendation = new NumberList(false);
+		forumByRecommendation = new NumberList(false);
+		recommendationsByForum = new ElementArray<NumberList>();
+		needsByForum = new ElementArray<NumberList>();
+		forumsAndScoresByNeed = new ElementArray<NumberList>();
+		stakeholdersByForum = new ElementArray<NumberList>();
+		forumsAndScoresByStakeholder = new ElementArray<NumberList>();
+		ratingsByStakeholder = new ElementArray<NumberList>();
+		stakeholderByRating = new NumberList(false);
+		needByRating = new NumberList(false);
+		ratingsByNeed = new ElementArray<NumberList>();
+		termsAndScoresByNeed = new ElementArray<NumberList>();
+		needsByTerm = new ElementArray<NumberList>();
+		versions = new long[ElementCollection.values().length];
 		
 	}
 	
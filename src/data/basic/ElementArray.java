@@ -0,0 +1,48 @@
+package data.basic;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Growable array of basic elements indexed by their number.
+ * The numbers of the basic elements are dense (0..n-1, assigned in the order the elements are added),
+ * so the element with a given number is a single array load instead of a HashMap lookup with a boxed Integer key.
+ *
+ * Note that the class is package private, it is only used by the BasicElements.
+ *
+ */
+final class ElementArray<T> {
+	// Local Variables
+	Object[] _items;
+	int _size;
+
+	// Constructor - Package Private
+	ElementArray() {
+		_items = new Object[16];
+		_size = 0;
+	}
+
+	// Number of elements in the array - it is also the number of the next element to be added
+	int size() {return _size;}
+
+	// Adds the element at the end of the array - its number has to be the current size
+	void add(T element) {
+		if (_size==_items.length) {
+			_items = Arrays.copyOf(_items, 2*_items.length);
+		}
+		_items[_size++] = element;
+	}
+
+	// Returns the element with the number, or null if there is no element with that number
+	@SuppressWarnings("unchecked")
+	T get(int number) {
+		if ((number<0) || (number>=_size))
+			return null;
+		return (T) _items[number];
+	}
+
+	// Checks that the element is the one stored with its number - the basic elements do not override equals, so the identity is checked
+	boolean contains(T element, int number) {
+		return (element!=null) && (number>=0) && (number<_size) && (_items[number]==element);
+	}
+}
@@ -0,0 +1,18 @@
+package data.basic;
+
+/**
+ * 
+ * Defines the collections of basic elements (and of relationships between them) that are kept by the BasicElementManager.
+ * Each collection has a version number that changes when the collection changes, so that the elements derived from it (ex. the matrices) know when they are out of date.
+ *
+ */
+public enum ElementCollection {
+	Stakeholders,
+	Needs,
+	Terms,
+	Ratings,
+	Forums,
+	Recommendations,
+	NeedsOfForums,
+	StakeholdersOfForums
+}
@@ -0,0 +1,167 @@
+package data.basic;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * Growable list of element numbers, with an optional score for each number (ex. the membership score of a stakeholder in a forum).
+ * It is used to keep the relationships between the basic elements as primitive adjacency arrays, instead of collections of objects or HashMaps of boxed scores.
+ *
+ * The numbers are kept in the order they are added.
+ * The lists with scores are sets of numbers (ex. the forums of a stakeholder), so once they grow past INDEX_THRESHOLD numbers they also keep a hash index
+ * from each number to its position, and finding a number does not scan the list.
+ * Note that the class is package private, it is only used by the BasicElements and the BasicElementManager.
+ *
+ */
+final class NumberList {
+	static final int INDEX_THRESHOLD = 8;	// Size from which the lists with scores are indexed
+
+	// Local Variables
+	int[] _numbers;
+	double[] _scores;	// null if the list has no scores
+	int _size;
+	int _hint;			// Position after the last number found - the lists are usually looked up in the same order they are iterated
+	int[] _index;		// Open addressing hash table with the position+1 of each number (0 is an empty slot), null if the list is not indexed
+
+	// Constructor - Package Private
+	NumberList(boolean withScores) {
+		_numbers = new int[4];
+		_scores = withScores ? new double[4] : null;
+		_size = 0;
+		_hint = 0;
+	}
+
+	int size() {return _size;}
+	int getNumber(int pos) {return _numbers[pos];}
+	double getScore(int pos) {return _scores[pos];}
+
+	// Returns the position of the number in the list, or -1 if it is not in the list
+	int indexOf(int number) {
+		// The hint is only a starting point, it is checked before being used (so it is safe if several threads read the list)
+		int hint = _hint;
+		if ((hint<_size) && (_numbers[hint]==number)) {
+			_hint = hint+1;
+			return hint;
+		}
+		if (_index!=null) {
+			int mask = _index.length-1;
+			for (int slot=hash(number) & mask; _index[slot]!=0; slot=(slot+1) & mask) {
+				if (_numbers[_index[slot]-1]==number) {
+					_hint = _index[slot];
+					return _index[slot]-1;
+				}
+			}
+			return -1;
+		}
+		for (int i=0; i<_size; i++) {
+			if (_numbers[i]==number) {
+				_hint = i+1;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Adds the number at the end of the list
+	void add(int number) {
+		ensureCapacity();
+		_numbers[_size++] = number;
+		index(_size-1);
+	}
+
+	// Adds the number with its score - if the number is already in the list only its score is updated.  Returns true if the number was added.
+	boolean put(int number, double score) {
+		int pos = indexOf(number);
+		if (pos>=0) {
+			_scores[pos] = score;
+			return false;
+		}
+		ensureCapacity();
+		_numbers[_size] = number;
+		_scores[_size] = score;
+		_size++;
+		index(_size-1);
+		return true;
+	}
+
+	// Removes the number from the list, keeping the order of the rest.  Returns true if the number was in the list.
+	boolean remove(int number) {
+		int pos = indexOf(number);
+		if (pos<0)
+			return false;
+		System.arraycopy(_numbers, pos+1, _numbers, pos, _size-pos-1);
+		if (_scores!=null) {
+			System.arraycopy(_scores, pos+1, _scores, pos, _size-pos-1);
+		}
+		_size--;
+		// The positions after the number have changed
+		if (_index!=null) {
+			rebuildIndex(_index.length);
+		}
+		return true;
+	}
+
+	// Removes all the numbers - the arrays are kept, so the list can be filled again without growing them
+	void clear() {
+		_size = 0;
+		_hint = 0;
+		_index = null;
+	}
+
+	// Returns a read only list of the elements whose numbers are in the list.  The list is a view, so it reflects later changes.
+	<T> List<T> asList(final ElementArray<T> elements) {
+		return new AbstractList<T>() {
+			public T get(int index) {
+				if ((index<0) || (index>=_size))
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+				return elements.get(_numbers[index]);
+			}
+			public int size() {return _size;}
+		};
+	}
+
+	// Adds the number at the position to the index, creating or growing the index when needed
+	private void index(int pos) {
+		if ((_scores==null) || ((_index==null) && (_size<=INDEX_THRESHOLD)))
+			return;
+		if ((_index==null) || (2*_size > _index.length)) {
+			rebuildIndex(Integer.highestOneBit(4*_size));
+			return;
+		}
+		int mask = _index.length-1;
+		int slot = hash(_numbers[pos]) & mask;
+		while (_index[slot]!=0) {
+			slot = (slot+1) & mask;
+		}
+		_index[slot] = pos+1;
+	}
+
+	private void rebuildIndex(int capacity) {
+		_index = new int[capacity];
+		int mask = capacity-1;
+		for (int pos=0; pos<_size; pos++) {
+			int slot = hash(_numbers[pos]) & mask;
+			while (_index[slot]!=0) {
+				slot = (slot+1) & mask;
+			}
+			_index[slot] = pos+1;
+		}
+	}
+
+	// The numbers are dense, so they are mixed before being used as slots
+	private static int hash(int number) {
+		int h = number * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void ensureCapacity() {
+		if (_size==_numbers.length) {
+			_numbers = Arrays.copyOf(_numbers, 2*_numbers.length);
+			if (_scores!=null) {
+				_scores = Arrays.copyOf(_scores, 2*_scores.length);
+			}
+		}
+	}
+}
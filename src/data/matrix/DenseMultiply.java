@@ -0,0 +1,123 @@
+package data.matrix;
+
+/**
+ *
+ * Multiplication of dense matrices (and of a dense matrix by a sparse one) that writes directly into the array of the result.
+ *
+ * The product is blocked: a block of rows of the result is updated with a tile of BLOCK x BLOCK entries of the right matrix at a time,
+ * so the tile stays in the cache while it is used by all the rows of the block.  The rows of the result are updated with the i-k-j loop order,
+ * which reads both the right matrix and the result row by row.
+ * Each entry (i,j) is still summed from k=0 upwards starting at zero, so the result is exactly the same as the one of Jama's Matrix.times.
+ *
+ * Large products are split by blocks of rows between the threads of the shared pool (see ParallelRows), each thread writes its own rows of the result.
+ *
+ * It also has the small helpers (transpose, orthonormalize) used with the products by the PCA and the PCAModel.
+ *
+ * Note that the class is package private, it is used by the MatrixElement, the PCA and the PCAModel.
+ *
+ */
+final class DenseMultiply {
+	static final int BLOCK = 64;					// Size of the tiles of the right matrix
+	static final long PARALLEL_THRESHOLD = 1L << 22;	// Number of multiply-adds from which the product is split between threads
+	static final ParallelRows PARALLEL = new ParallelRows(PARALLEL_THRESHOLD, BLOCK);
+
+	// Not instantiable
+	private DenseMultiply() {}
+
+	// Dense x Dense: a is rows x inner and b is inner x cols
+	static double[][] times(final double[][] a, final double[][] b, int rows, final int inner, final int cols) {
+		final double[][] result = new double[rows][cols];
+		run(new ParallelRows.RowRange() {
+			public void run(int fromRow, int toRow) {
+				for (int kk=0; kk<inner; kk+=BLOCK) {
+					int kEnd = Math.min(kk+BLOCK, inner);
+					for (int jj=0; jj<cols; jj+=BLOCK) {
+						int jEnd = Math.min(jj+BLOCK, cols);
+						for (int i=fromRow; i<toRow; i++) {
+							double[] aRow = a[i];
+							double[] row = result[i];
+							for (int k=kk; k<kEnd; k++) {
+								double aik = aRow[k];
+								double[] bRow = b[k];
+								for (int j=jj; j<jEnd; j++) {
+									row[j] += aik * bRow[j];
+								}
+							}
+						}
+					}
+				}
+			}
+		}, rows, (long) rows * inner * cols);
+		return result;
+	}
+
+	// Dense x Sparse: a is rows x b.getNumRows() - only the non-zeros of b are visited
+	static double[][] times(final double[][] a, final SparseMatrix b, int rows) {
+		final double[][] result = new double[rows][b.getNumCols()];
+		run(new ParallelRows.RowRange() {
+			public void run(int fromRow, int toRow) {
+				for (int i=fromRow; i<toRow; i++) {
+					double[] aRow = a[i];
+					double[] row = result[i];
+					for (int k=0; k<b._numRows; k++) {
+						double aik = aRow[k];
+						for (int kb=b._rowPtr[k]; kb<b._rowPtr[k+1]; kb++) {
+							row[b._colIdx[kb]] += aik * b._values[kb];
+						}
+					}
+				}
+			}
+		}, rows, (long) rows * Math.max(1, b.getNumNonZeros()));
+		return result;
+	}
+
+	static double[][] transpose(double[][] a, int rows, int cols) {
+		double[][] result = new double[cols][rows];
+		for (int i=0; i<rows; i++) {
+			for (int j=0; j<cols; j++) {
+				result[j][i] = a[i][j];
+			}
+		}
+		return result;
+	}
+
+	// Modified Gram-Schmidt on the first count rows, applied twice so that the rows stay orthogonal to the precision of the machine.
+	// A row that depends on the previous ones becomes zero.
+	static double[][] orthonormalize(double[][] rows, int count, int length) {
+		for (int i=0; i<count; i++) {
+			double[] v = rows[i];
+			double before = norm(v, length);
+			for (int pass=0; pass<2; pass++) {
+				for (int k=0; k<i; k++) {
+					double[] u = rows[k];
+					double dot = 0;
+					for (int j=0; j<length; j++) {
+						dot += u[j] * v[j];
+					}
+					for (int j=0; j<length; j++) {
+						v[j] -= dot * u[j];
+					}
+				}
+			}
+			double after = norm(v, length);
+			double scale = ((after==0) || (after <= 1e-12 * before)) ? 0 : 1 / after;
+			for (int j=0; j<length; j++) {
+				v[j] *= scale;
+			}
+		}
+		return rows;
+	}
+
+	private static double norm(double[] v, int length) {
+		double sum = 0;
+		for (int j=0; j<length; j++) {
+			sum += v[j] * v[j];
+		}
+		return Math.sqrt(sum);
+	}
+
+	// Runs the product in the calling thread, or split by blocks of rows between the processors when it is large enough
+	private static void run(ParallelRows.RowRange range, int rows, long work) {
+		PARALLEL.run(range, 0, rows, work);
+	}
+}
@@ -3,21 +3,36 @@ package data.matrix;
 import java.text.DecimalFormat;
 
 import Jama.*;
-import data.Element;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import data.SpillableElement;
+import data.SpilledElement;
 
 /**
  * 
  * Adapter class for the Jama.Matrix class, that also implements the Element interface.
  * This makes this class directly storable in the blackboard 
  * It also serves as an adapter to the Jama.Matrix class - to allow for future changes to the underlying matrix package 
+ * 
+ * The matrix can be stored either dense (a Jama.Matrix) or sparse (compressed rows/columns, see SparseMatrix).
+ * Sparse storage is meant for matrices where most entries are zero (ex. SxT, NxT), and the operations only visit the non-zero entries.
+ * Symmetric matrices (ex. the similarities between the stakeholders) can also be stored packed, keeping only the upper triangle (see SymmetricMatrix).
+ * The operations that have no packed version read a dense copy of a packed matrix, and the ones that change the matrix convert it to dense storage first.
  *
  */
-public class MatrixElement implements Element{
+public class MatrixElement implements SpillableElement{
 	String _name;
-	Matrix _matrix;
+	Matrix _matrix;			// Dense storage - null when the matrix is sparse or packed
+	SparseMatrix _sparse;	// Sparse storage - null when the matrix is dense or packed
+	SymmetricMatrix _symmetric;	// Packed storage of a symmetric matrix - null when the matrix is not packed
 	String[] _colNames;
 	String[] _rowNames;
+	long[] _sourceVersions;	// Versions of the basic elements the matrix was built from - null if the matrix was not built by the MatrixManager
+	boolean _pinned;		// true once the array was handed out or the matrix was changed in place - a bounded blackboard does not evict it then
 	
+	// The array is not copied, the matrix takes over its ownership (the same as with getArray, changes made to the array are changes to the matrix).
+	// Code that builds a new array for the result, like the operations of this class, hands it over without any further copy.
 	public MatrixElement(String name, double[][] matrix, String[] columnNames, String[] rowNames) {
 		if (name=="")
 			throw new IllegalArgumentException("The name can't be null");
@@ -40,21 +55,274 @@ public class MatrixElement implements Element{
 		_rowNames = rowNames;
 	}
 	
+	// Constructor for sparse matrices - Package Private, since the SparseMatrix is not visible outside of this package
+	MatrixElement(String name, SparseMatrix matrix, String[] columnNames, String[] rowNames) {
+		if (name=="")
+			throw new IllegalArgumentException("The name can't be null");
+		if (matrix==null)
+			throw new IllegalArgumentException("The matrix reference has to be a valid object");
+		if (columnNames==null)
+			throw new IllegalArgumentException("The columnNames reference has to be a valid object");
+		if (rowNames==null)
+			throw new IllegalArgumentException("The rowNames reference has to be a valid object");
+		if (matrix.getNumRows()!=rowNames.length)
+			throw new IllegalArgumentException("The rowNames vector has to be the same size as the n dimension of the matrix");
+		if (matrix.getNumCols()!=columnNames.length)
+			throw new IllegalArgumentException("The columnNames vector has to be the same size as the m dimension of the matrix");
+		
+		// Sets the internal fields;
+		_name = name;
+		_sparse = matrix;
+		_colNames = columnNames;
+		_rowNames = rowNames;
+	}
+	
+	// Constructors for packed symmetric matrices: the array holds the upper triangle row by row, so row i has the entries (i,i) .. (i,n-1) starting at
+	// position getPackedOffset(n, i), where n is the number of names.  The rows and the columns have the same names.  The array is not copied.
+	// The single precision version uses half of the memory, for matrices whose values do not need more than 7 significant digits (ex. similarities).
+	public MatrixElement(String name, double[] packedUpperTriangle, String[] names) {
+		this(name, (names==null) ? null : new SymmetricMatrix(names.length, packedUpperTriangle), names);
+	}
+	
+	public MatrixElement(String name, float[] packedUpperTriangle, String[] names) {
+		this(name, (names==null) ? null : new SymmetricMatrix(names.length, packedUpperTriangle), names);
+	}
+	
+	// Constructor for packed matrices - Package Private, since the SymmetricMatrix is not visible outside of this package
+	MatrixElement(String name, SymmetricMatrix matrix, String[] names) {
+		if (name=="")
+			throw new IllegalArgumentException("The name can't be null");
+		if (names==null)
+			throw new IllegalArgumentException("The names reference has to be a valid object");
+		if (matrix==null)
+			throw new IllegalArgumentException("The matrix reference has to be a valid object");
+		
+		// Sets the internal fields;
+		_name = name;
+		_symmetric = matrix;
+		_colNames = names;
+		_rowNames = names;
+	}
+	
+	// Number of entries of the packed array of a symmetric matrix of size n, and position of the first entry of row i in it
+	public static int getPackedLength(int n) {
+		return SymmetricMatrix.getPackedLength(n);
+	}
+	
+	// True if a symmetric matrix of size n can be packed - the packed array can't have more than Integer.MAX_VALUE entries, so above a size
+	// of 65,535 the matrix has to be stored dense
+	public static boolean canBePacked(int n) {
+		return SymmetricMatrix.fitsInArray(n);
+	}
+	
+	public static int getPackedOffset(int n, int i) {
+		return SymmetricMatrix.getOffset(n, i);
+	}
+	
 	public String getName(){
 		return _name;
 	}
 	
 	public double[][] getArray() {
-		return _matrix.getArray();
+		// The callers of this method expect to read and write the entries of the matrix directly, so a sparse matrix
+		// is converted to dense storage first.  Code that can work on the non-zeros only should use the sparse accessors instead.
+		// The same is done with a packed matrix.
+		// Since the caller can change the array, the matrix is pinned: a bounded blackboard would lose the changes if it evicted the matrix.
+		pin();
+		return denseArray();
 		// TODO For security reasons it might be better to return the getArrayCopy, however for performance it is not doing that.
 	}
 	
 	public int getNumRows() {
-		return _matrix.getRowDimension();
+		if (_symmetric!=null)
+			return _symmetric.getSize();
+		return (_sparse!=null) ? _sparse.getNumRows() : _matrix.getRowDimension();
 	}
 	
 	public int getNumCols() {
-		return _matrix.getColumnDimension();
+		if (_symmetric!=null)
+			return _symmetric.getSize();
+		return (_sparse!=null) ? _sparse.getNumCols() : _matrix.getColumnDimension();
+	}
+	
+	public double get(int i, int j) {
+		if (_symmetric!=null)
+			return _symmetric.get(i, j);
+		return (_sparse!=null) ? _sparse.get(i, j) : _matrix.get(i, j);
+	}
+	
+	// Copies row i into the array, whatever the storage of the matrix is - it is the way to read a sparse or packed matrix row by row without converting it to dense
+	public void getRow(int i, double[] row) {
+		if (_symmetric!=null) {
+			_symmetric.getRow(i, row);
+		} else if (_sparse!=null) {
+			Arrays.fill(row, 0, _sparse.getNumCols(), 0.0);
+			for (int k=_sparse._rowPtr[i]; k<_sparse._rowPtr[i+1]; k++) {
+				row[_sparse._colIdx[k]] = _sparse._values[k];
+			}
+		} else {
+			System.arraycopy(_matrix.getArray()[i], 0, row, 0, _matrix.getColumnDimension());
+		}
+	}
+	
+	public StorageType getStorageType() {
+		if (_symmetric!=null)
+			return StorageType.Symmetric;
+		return (_sparse!=null) ? StorageType.Sparse : StorageType.Dense;
+	}
+	
+	public boolean isSparse() {
+		return _sparse!=null;
+	}
+	
+	public boolean isSymmetric() {
+		return _symmetric!=null;
+	}
+	
+	// True if the array of the matrix was handed out (getArray), or if the matrix was changed in place or shares its rows with a view, so that
+	// the blackboards with a memory budget do not evict it.  The in place updates of the MatrixManager do not pin the matrix, since it can be built again.
+	// A matrix that is going to be changed should be read with MatrixManager.getMatrixForUpdate, which pins it before the blackboard hands it out.
+	public synchronized boolean isPinned() {
+		return _pinned;
+	}
+	
+	public synchronized void pin() {
+		_pinned = true;
+	}
+	
+	// Memory used by the values of the matrix - the row and column names are shared by several matrices, so they are not counted.
+	// A packed matrix that was read back from a spill file uses no memory, its values are read from the file (see MatrixSpillFile).
+	public long getSizeInBytes() {
+		if (_symmetric!=null)
+			return _symmetric.getSizeInBytes();
+		if (_sparse!=null)
+			return _sparse.getSizeInBytes();
+		// Each row is a separate array, with its own header
+		return (long) _matrix.getRowDimension() * (8L * _matrix.getColumnDimension() + 16);
+	}
+	
+	// In place updates - used by the MatrixManager to keep the matrices built from the basic elements up to date when basic elements are added.
+	// Note that the matrices that were derived from this one (ex. with times) are not updated.
+	
+	// Sets the entry (i,j), and the name of the column if it did not have one yet
+	void setEntry(int i, int j, double value, String columnName) {
+		if (_sparse!=null) {
+			_sparse.set(i, j, value);
+		} else {
+			dense().set(i, j, value);
+		}
+		if (_colNames[j]==null)
+			_colNames[j] = columnName;
+	}
+	
+	// Adds a row of zeros at the end of the matrix.  For a dense matrix only the references to the rows are copied.
+	void appendRow(String rowName) {
+		int numRows = getNumRows();
+		int numCols = getNumCols();
+		if (_sparse!=null) {
+			_sparse.appendRow();
+		} else {
+			double[][] rows = Arrays.copyOf(dense().getArray(), numRows+1);
+			rows[numRows] = new double[numCols];
+			_matrix = new Matrix(rows, numRows+1, numCols);
+		}
+		_rowNames = Arrays.copyOf(_rowNames, numRows+1);
+		_rowNames[numRows] = rowName;
+	}
+	
+	// Adds a column of zeros at the end of the matrix.  Only a sparse matrix can do it in place, a dense matrix would have to copy all its rows, so it returns false.
+	boolean appendColumn(String columnName) {
+		if (_sparse==null)
+			return false;
+		int numCols = getNumCols();
+		_sparse.appendColumn();
+		_colNames = Arrays.copyOf(_colNames, numCols+1);
+		_colNames[numCols] = columnName;
+		return true;
+	}
+	
+	// Writes the values of the matrix to a memory mapped file - the matrix is read back with the same storage it has now
+	public SpilledElement spill(File file) throws IOException {
+		return new MatrixSpillFile(this, file);
+	}
+	
+	// Returns the number of entries that are different from zero
+	public int getNumNonZeros() {
+		if (_sparse!=null)
+			return _sparse.getNumNonZeros();
+		
+		Matrix dense = denseMatrix();
+		double[][] mat = dense.getArray();
+		int count = 0;
+		for (int i=0; i<dense.getRowDimension(); i++){
+			for (int j=0; j<dense.getColumnDimension(); j++){
+				if (mat[i][j]!=0.0)
+					count++;
+			}
+		}
+		return count;
+	}
+	
+	// Accessors to the compressed row storage (only for sparse matrices).
+	// For row i the non-zero entries are in positions getRowPointers()[i] .. getRowPointers()[i+1]-1, sorted by column.
+	// As with getArray the internal arrays are returned for performance, they must not be modified.
+	public int[] getRowPointers() {
+		checkSparse();
+		return _sparse._rowPtr;
+	}
+	
+	public int[] getColumnIndices() {
+		checkSparse();
+		return _sparse._colIdx;
+	}
+	
+	// The values are handed out to be read (ex. by a similarity kernel), so an in place update of the matrix copies them first
+	public double[] getValues() {
+		checkSparse();
+		_sparse._sharedValues = true;
+		return _sparse._values;
+	}
+	
+	// Returns a copy of the matrix with the requested storage
+	public MatrixElement toSparse(String name) {
+		// The structure of a sparse matrix is shared (it is copied when it changes), but the values are copied
+		SparseMatrix mat = (_sparse!=null) ? _sparse.withValues(Arrays.copyOf(_sparse._values, _sparse.getNumNonZeros())) : SparseMatrix.fromDense(denseMatrix().getArray(), getNumCols());
+		return new MatrixElement(name, mat, _colNames, _rowNames);
+	}
+	
+	public MatrixElement toDense(String name) {
+		double[][] mat = (_sparse!=null) ? _sparse.toDense() : (_symmetric!=null) ? _symmetric.toDense() : _matrix.getArrayCopy();
+		return new MatrixElement(name, mat, _colNames, _rowNames);
+	}
+	
+	private void checkSparse() {
+		if (_sparse==null)
+			throw new IllegalArgumentException("The matrix " + _name + " is not stored in sparse form");
+	}
+	
+	// Returns the Jama representation of the matrix without changing the way this matrix is stored
+	private Matrix denseMatrix() {
+		if (_symmetric!=null)
+			return new Matrix(_symmetric.toDense(), _symmetric.getSize(), _symmetric.getSize());
+		return (_sparse!=null) ? new Matrix(_sparse.toDense(), _sparse.getNumRows(), _sparse.getNumCols()) : _matrix;
+	}
+	
+	// Returns the dense storage of a matrix that is not sparse, converting a packed matrix to dense storage first - used by the operations that change the matrix
+	private Matrix dense() {
+		if (_symmetric!=null) {
+			_matrix = new Matrix(_symmetric.toDense(), _symmetric.getSize(), _symmetric.getSize());
+			_symmetric = null;
+		}
+		return _matrix;
+	}
+	
+	// Converts a sparse or packed matrix to dense storage and returns its array - unlike getArray it does not pin the matrix
+	private double[][] denseArray() {
+		if (_sparse!=null) {
+			_matrix = new Matrix(_sparse.toDense(), _sparse.getNumRows(), _sparse.getNumCols());
+			_sparse = null;
+		}
+		return dense().getArray();
 	}
 	
 	public String getColumnName(int i) {
@@ -68,9 +336,9 @@ public class MatrixElement implements Element{
 	public String toString() {
 		StringBuffer buf = new StringBuffer();
 		DecimalFormat df = new DecimalFormat("#0.00");
-		for (int i=0; i<_matrix.getRowDimension(); i++){
-			for (int j=0; j<_matrix.getColumnDimension(); j++){
-				buf.append("    " + df.format(_matrix.get(i, j)));
+		for (int i=0; i<getNumRows(); i++){
+			for (int j=0; j<getNumCols(); j++){
+				buf.append("    " + df.format(get(i, j)));
 			}
 			buf.append("\n");
 		}
@@ -79,29 +347,138 @@ public class MatrixElement implements Element{
 	}
 	
 	public MatrixElement times (double s, String name) {
-		Matrix mat = _matrix.times(s);
-		return new MatrixElement(name, mat.getArrayCopy(), _colNames, _rowNames);
+		if (_sparse!=null)
+			return new MatrixElement(name, _sparse.times(s), _colNames, _rowNames);
+		
+		// The product is already a new matrix, so its array is not copied again
+		Matrix mat = denseMatrix().times(s);
+		return new MatrixElement(name, mat.getArray(), _colNames, _rowNames);
 	}
 	
 	public MatrixElement times (MatrixElement m, String name) {
-		Matrix mat = _matrix.times(m._matrix);
-		return new MatrixElement(name, mat.getArrayCopy(), m._colNames, _rowNames);
+		// Sparse x Sparse stays sparse, Sparse x Dense only visits the non-zeros of this matrix
+		if ((_sparse!=null) && (m._sparse!=null))
+			return new MatrixElement(name, _sparse.times(m._sparse), m._colNames, _rowNames);
+		if (_sparse!=null)
+			return new MatrixElement(name, _sparse.times(m.denseMatrix().getArray(), m.getNumCols()), m._colNames, _rowNames);
+		
+		// Dense x Dense (or Sparse) is written directly into the array of the result, see DenseMultiply
+		if (getNumCols()!=m.getNumRows())
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+		double[][] result;
+		if (m._sparse!=null) {
+			result = DenseMultiply.times(denseMatrix().getArray(), m._sparse, getNumRows());
+		} else {
+			result = DenseMultiply.times(denseMatrix().getArray(), m.denseMatrix().getArray(), getNumRows(), getNumCols(), m.getNumCols());
+		}
+		return new MatrixElement(name, result, m._colNames, _rowNames);
 	}
 	
 	public MatrixElement transpose(String name) {
+		if (_sparse!=null)
+			return new MatrixElement(name, _sparse.transpose(), _rowNames, _colNames);
+		
+		// A symmetric matrix is its own transpose, so the packed storage is shared (it is never changed in place)
+		if (_symmetric!=null)
+			return new MatrixElement(name, _symmetric, _colNames);
+		
+		// The transpose is already a new matrix, so its array is not copied again
 		Matrix mat = _matrix.transpose();
-		return new MatrixElement(name, mat.getArrayCopy(), _rowNames, _colNames);		
+		return new MatrixElement(name, mat.getArray(), _rowNames, _colNames);		
+	}
+	
+	// Views - the result shares the storage of this matrix wherever the storage allows it, so a change to a shared entry is seen by both matrices.
+	// Note that the transpose of a sparse matrix is also a view (it shares the compressed column storage), while a dense one has to be copied.
+	// A sparse matrix is only changed by the in place updates of the MatrixManager, and it copies its shared values first, so its views are not changed.
+	
+	// Returns the rows fromRow (inclusive) to toRow (exclusive).
+	// A dense matrix keeps each row in its own array, so the view shares the rows of this matrix and nothing is copied.
+	// For a sparse matrix the row pointers are rebased: the entries are shared if the rows start at the first one, otherwise only the entries of the rows are copied.
+	public MatrixElement getRows(String name, int fromRow, int toRow) {
+		if ((fromRow<0) || (toRow>getNumRows()) || (fromRow>=toRow))
+			throw new IllegalArgumentException("The rows have to be between 0 and " + getNumRows() + ", and fromRow has to be < toRow");
+		
+		String[] rowNames = Arrays.copyOfRange(_rowNames, fromRow, toRow);
+		if (_sparse!=null)
+			return new MatrixElement(name, _sparse.getRows(fromRow, toRow), _colNames, rowNames);
+		// A change to the rows of one of the matrices is a change to the other one, so both are pinned
+		MatrixElement view = new MatrixElement(name, Arrays.copyOfRange(denseMatrix().getArray(), fromRow, toRow), _colNames, rowNames);
+		if (_symmetric==null) {
+			pin();
+			view.pin();
+		}
+		return view;
+	}
+	
+	// Returns the given columns, in the given order.
+	// If they are all the columns in their order the result is a view that shares all the storage of this matrix.  Otherwise only the selected columns are copied:
+	// each dense row holds all the columns, so the rows can not be shared, and a sparse matrix only gathers the entries of the selected columns.
+	public MatrixElement getColumns(String name, int[] columns) {
+		if ((columns==null) || (columns.length==0))
+			throw new IllegalArgumentException("At least one column has to be selected");
+		
+		// Maps each column of this matrix to its position in the result
+		int numCols = getNumCols();
+		int[] position = new int[numCols];
+		Arrays.fill(position, -1);
+		boolean identity = (columns.length==numCols);
+		String[] colNames = new String[columns.length];
+		for (int c=0; c<columns.length; c++) {
+			if ((columns[c]<0) || (columns[c]>=numCols))
+				throw new IllegalArgumentException("The column " + columns[c] + " is not in the matrix");
+			if (position[columns[c]]>=0)
+				throw new IllegalArgumentException("The column " + columns[c] + " is selected more than once");
+			position[columns[c]] = c;
+			colNames[c] = _colNames[columns[c]];
+			identity &= (columns[c]==c);
+		}
+		
+		if (identity) {
+			// A new SparseMatrix shares the arrays, so a row appended later to one of the matrices is not appended to the other
+			if (_sparse!=null)
+				return new MatrixElement(name, _sparse.getRows(0, _sparse.getNumRows()), colNames, _rowNames);
+			if (_symmetric!=null)
+				return new MatrixElement(name, _symmetric, colNames);
+			MatrixElement view = new MatrixElement(name, _matrix.getArray(), colNames, _rowNames);
+			pin();
+			view.pin();
+			return view;
+		}
+		if (_sparse!=null)
+			return new MatrixElement(name, _sparse.getColumns(position, columns.length), colNames, _rowNames);
+		
+		double[][] mat = denseMatrix().getArray();
+		double[][] result = new double[mat.length][columns.length];
+		for (int i=0; i<mat.length; i++){
+			for (int c=0; c<columns.length; c++){
+				result[i][c] = mat[i][columns[c]];
+			}
+		}
+		return new MatrixElement(name, result, colNames, _rowNames);
 	}
 	
 	public MatrixElement averagesByRow(String name) {
-		double[][] mat = _matrix.getArray();
-		double[][] rows = new double[_matrix.getRowDimension()][1];
+		double[][] rows = new double[getNumRows()][1];
 		String[] colName = {"Row Average"};
 		int numOfEntries;
 		
-		for (int i=0; i<_matrix.getRowDimension(); i++){
+		if (_sparse!=null) {
+			// Only the stored entries are visited - a stored entry is never zero
+			for (int i=0; i<_sparse.getNumRows(); i++){
+				for (int k=_sparse._rowPtr[i]; k<_sparse._rowPtr[i+1]; k++) {
+					rows[i][0]+=_sparse._values[k];
+				}
+				numOfEntries = _sparse._rowPtr[i+1] - _sparse._rowPtr[i];
+				rows[i][0] = (numOfEntries==0) ? 0 : rows[i][0] / numOfEntries;
+			}
+			return new MatrixElement(name, rows, colName, _rowNames);
+		}
+		
+		Matrix dense = denseMatrix();
+		double[][] mat = dense.getArray();
+		for (int i=0; i<dense.getRowDimension(); i++){
 			numOfEntries = 0;
-			for (int j=0; j<_matrix.getColumnDimension(); j++) {
+			for (int j=0; j<dense.getColumnDimension(); j++) {
 				if (mat[i][j]!=0.0) {
 					numOfEntries++;
 					rows[i][0]+=mat[i][j];
@@ -113,14 +490,30 @@ public class MatrixElement implements Element{
 	}
 	
 	public MatrixElement averagesByColumn(String name) {
-		double[][] mat = _matrix.getArray();
-		double[][] cols = new double[1][_matrix.getColumnDimension()];
+		double[][] cols = new double[1][getNumCols()];
 		String[] rowName = {"Column Average"};
 		int numOfEntries;
 		
-		for (int j=0; j<_matrix.getColumnDimension(); j++){
+		if (_sparse!=null) {
+			// The entries are scattered into their columns - since the rows are visited in order, the sums are accumulated in the same order as the dense version
+			int[] entries = new int[_sparse.getNumCols()];
+			for (int i=0; i<_sparse.getNumRows(); i++){
+				for (int k=_sparse._rowPtr[i]; k<_sparse._rowPtr[i+1]; k++) {
+					entries[_sparse._colIdx[k]]++;
+					cols[0][_sparse._colIdx[k]]+=_sparse._values[k];
+				}
+			}
+			for (int j=0; j<_sparse.getNumCols(); j++){
+				cols[0][j] = (entries[j]==0) ? 0 : cols[0][j] / entries[j];
+			}
+			return new MatrixElement(name, cols, _colNames, rowName);
+		}
+		
+		Matrix dense = denseMatrix();
+		double[][] mat = dense.getArray();
+		for (int j=0; j<dense.getColumnDimension(); j++){
 			numOfEntries = 0;
-			for (int i=0; i<_matrix.getRowDimension(); i++) {
+			for (int i=0; i<dense.getRowDimension(); i++) {
 				if (mat[i][j]!=0.0) {
 					numOfEntries++;
 					cols[0][j]+=mat[i][j];
@@ -132,12 +525,22 @@ public class MatrixElement implements Element{
 	}
 	
 	public MatrixElement totalsByRow(String name) {
-		double[][] mat = _matrix.getArray();
-		double[][] rows = new double[_matrix.getRowDimension()][1];
+		double[][] rows = new double[getNumRows()][1];
 		String[] colName = {"Row Total"};
 		
-		for (int i=0; i<_matrix.getRowDimension(); i++){
-			for (int j=0; j<_matrix.getColumnDimension(); j++) {
+		if (_sparse!=null) {
+			for (int i=0; i<_sparse.getNumRows(); i++){
+				for (int k=_sparse._rowPtr[i]; k<_sparse._rowPtr[i+1]; k++) {
+					rows[i][0]+=_sparse._values[k];
+				}
+			}
+			return new MatrixElement(name, rows, colName, _rowNames);
+		}
+		
+		Matrix dense = denseMatrix();
+		double[][] mat = dense.getArray();
+		for (int i=0; i<dense.getRowDimension(); i++){
+			for (int j=0; j<dense.getColumnDimension(); j++) {
 				if (mat[i][j]!=0.0) {
 					rows[i][0]+=mat[i][j];
 				}
@@ -147,12 +550,22 @@ public class MatrixElement implements Element{
 	}
 	
 	public MatrixElement totalsByColumn(String name) {
-		double[][] mat = _matrix.getArray();
-		double[][] cols = new double[1][_matrix.getColumnDimension()];
+		double[][] cols = new double[1][getNumCols()];
 		String[] rowName = {"Column Total"};
 		
-		for (int j=0; j<_matrix.getColumnDimension(); j++){
-			for (int i=0; i<_matrix.getRowDimension(); i++) {
+		if (_sparse!=null) {
+			for (int i=0; i<_sparse.getNumRows(); i++){
+				for (int k=_sparse._rowPtr[i]; k<_sparse._rowPtr[i+1]; k++) {
+					cols[0][_sparse._colIdx[k]]+=_sparse._values[k];
+				}
+			}
+			return new MatrixElement(name, cols, _colNames, rowName);
+		}
+		
+		Matrix dense = denseMatrix();
+		double[][] mat = dense.getArray();
+		for (int j=0; j<dense.getColumnDimension(); j++){
+			for (int i=0; i<dense.getRowDimension(); i++) {
 				if (mat[i][j]!=0.0) {
 					cols[0][j]+=mat[i][j];
 				}
@@ -161,62 +574,302 @@ public class MatrixElement implements Element{
 		return new MatrixElement(name, cols, _colNames, rowName);
 	}
 	
+	// The results are new matrices that no one else holds, so unlike the in place versions below they are not pinned
+	
 	public MatrixElement normalizeByRows(MatrixElement rowTotals, String name) {
-		double[][] mat = _matrix.getArrayCopy();
-		double[][] totals = rowTotals.getArray();
-		
-		for (int i=0; i<_matrix.getRowDimension(); i++){
-			for (int j=0; j<_matrix.getColumnDimension(); j++){
-				mat[i][j] = (totals[i][0]==0) ? 0 : mat[i][j] / totals[i][0];
-			}
-		}	
-		return new MatrixElement(name, mat, _colNames, _rowNames);
+		MatrixElement result = copy(name);
+		result.normalizeByRowsInPlace(totalsOfRows(rowTotals));
+		return result;
 	}
 	
 	public MatrixElement normalizeByColumns(MatrixElement colTotals, String name) {
-		double[][] mat = _matrix.getArrayCopy();
-		double[][] totals = colTotals.getArray();
+		MatrixElement result = copy(name);
+		result.normalizeByColumnsInPlace(totalsOfColumns(colTotals));
+		return result;
+	}
+	
+	public MatrixElement normalizeByNumber(double number, String name) {
+		MatrixElement result = copy(name);
+		result.divideByNumber(number);
+		return result;
+	}
+	
+	public MatrixElement convertToBinary(double threshold, String name) {
+		// This method will turn the matrix into a binary matrix (with only 0 & 1).
+		// Any entry (i,j) that is higher than the threshold will be a 1, otherwise it will be a 0
+		MatrixElement result = copy(name);
+		result.applyThreshold(threshold);
+		return result;
+	}
+	
+	// In place versions of the element-wise operations - they change this matrix instead of creating a new one, so that a chain of operations does not
+	// allocate a new matrix at each step.  The values of a dense matrix are overwritten.  The arrays of a sparse matrix can be shared with other matrices
+	// (ex. its transpose), so a sparse matrix gets a new array of values, but its structure is shared and only changes if some entries become zero.
+	// As with getArray, the matrix is pinned, so a blackboard with a memory budget does not evict it.
+	// The totals are read with get and getRow, so the matrix of the totals is neither pinned nor converted to dense storage.
+	
+	public void normalizeByRowsInPlace(MatrixElement rowTotals) {
+		pin();
+		normalizeByRowsInPlace(totalsOfRows(rowTotals));
+	}
+	
+	public void normalizeByColumnsInPlace(MatrixElement colTotals) {
+		pin();
+		normalizeByColumnsInPlace(totalsOfColumns(colTotals));
+	}
+	
+	public void normalizeByNumberInPlace(double number) {
+		pin();
+		divideByNumber(number);
+	}
+	
+	public void convertToBinaryInPlace(double threshold) {
+		pin();
+		applyThreshold(threshold);
+	}
+	
+	// Column 0 of the totals of the rows (see totalsByRow and statisticsByRow)
+	private static double[] totalsOfRows(MatrixElement rowTotals) {
+		double[] totals = new double[rowTotals.getNumRows()];
+		for (int i=0; i<totals.length; i++) {
+			totals[i] = rowTotals.get(i, 0);
+		}
+		return totals;
+	}
+	
+	// Row 0 of the totals of the columns (see totalsByColumn and statisticsByColumn)
+	private static double[] totalsOfColumns(MatrixElement colTotals) {
+		double[] totals = new double[colTotals.getNumCols()];
+		colTotals.getRow(0, totals);
+		return totals;
+	}
+	
+	// The element-wise operations, without pinning the matrix
+	
+	private void normalizeByRowsInPlace(double[] totals) {
+		if (_sparse!=null) {
+			double[] values = new double[_sparse.getNumNonZeros()];
+			for (int i=0; i<_sparse.getNumRows(); i++){
+				for (int k=_sparse._rowPtr[i]; k<_sparse._rowPtr[i+1]; k++){
+					values[k] = (totals[i]==0) ? 0 : _sparse._values[k] / totals[i];
+				}
+			}
+			_sparse = _sparse.withValues(values);
+			return;
+		}
 		
+		double[][] mat = dense().getArray();
 		for (int i=0; i<_matrix.getRowDimension(); i++){
 			for (int j=0; j<_matrix.getColumnDimension(); j++){
-				mat[i][j] = (totals[0][j]==0) ? 0 : mat[i][j] / totals[0][j];
+				mat[i][j] = (totals[i]==0) ? 0 : mat[i][j] / totals[i];
 			}
-		}	
-		return new MatrixElement(name, mat, _colNames, _rowNames);
+		}
 	}
 	
-	public MatrixElement normalizeByNumber(double number, String name) {
-		double[][] mat = _matrix.getArrayCopy();
+	private void divideByNumber(double number) {
+		// When dividing by zero the zero entries would also change (0/0), so in that case the sparse matrix becomes dense
+		if ((_sparse!=null) && (number!=0)) {
+			double[] values = new double[_sparse.getNumNonZeros()];
+			for (int k=0; k<values.length; k++){
+				values[k] = _sparse._values[k] / number;
+			}
+			_sparse = _sparse.withValues(values);
+			return;
+		}
 		
-		for (int i=0; i<_matrix.getRowDimension(); i++){
-			for (int j=0; j<_matrix.getColumnDimension(); j++){
+		double[][] mat = denseArray();
+		for (int i=0; i<getNumRows(); i++){
+			for (int j=0; j<getNumCols(); j++){
 				mat[i][j] = mat[i][j] / number;
 			}
-		}	
-		return new MatrixElement(name, mat, _colNames, _rowNames);
+		}
 	}
 	
-	public MatrixElement convertToBinary(double threshold, String name) {
-		// This method will turn the matrix into a binary matrix (with only 0 & 1).
-		// Any entry (i,j) that is higher than the threshold will be a 1, otherwise it will be a 0
+	private void applyThreshold(double threshold) {
+		// If the threshold is positive the zero entries stay zero, so for sparse matrices only the stored entries need to be converted - otherwise the matrix becomes dense
+		if ((_sparse!=null) && (threshold > 0)) {
+			double[] values = new double[_sparse.getNumNonZeros()];
+			for (int k=0; k<values.length; k++){
+				values[k] = (_sparse._values[k] >= threshold) ? 1 : 0;
+			}
+			_sparse = _sparse.withValues(values);
+			return;
+		}
 		
-		double[][] mat = _matrix.getArrayCopy();
+		double[][] mat = denseArray();
+		for (int i=0; i<getNumRows(); i++){
+			for (int j=0; j<getNumCols(); j++){
+				mat[i][j] = (mat[i][j] >= threshold) ? 1 : 0;
+			}
+		}
+	}
+	
+	// Fused operations - the totals (or the maximum) are calculated and the matrix is normalized by them in place, without building the totals matrix.
+	// The totals are summed in the same order as in totalsByRow and totalsByColumn, so the result is the same as calling them and then normalizing.
+	
+	// Each row is normalized right after its total is calculated, while the row is still in the cache
+	public void normalizeByRowTotalsInPlace() {
+		pin();
+		if (_sparse!=null) {
+			double[] values = new double[_sparse.getNumNonZeros()];
+			for (int i=0; i<_sparse.getNumRows(); i++){
+				double total = 0;
+				for (int k=_sparse._rowPtr[i]; k<_sparse._rowPtr[i+1]; k++){
+					total += _sparse._values[k];
+				}
+				for (int k=_sparse._rowPtr[i]; k<_sparse._rowPtr[i+1]; k++){
+					values[k] = (total==0) ? 0 : _sparse._values[k] / total;
+				}
+			}
+			_sparse = _sparse.withValues(values);
+			return;
+		}
 		
+		double[][] mat = dense().getArray();
 		for (int i=0; i<_matrix.getRowDimension(); i++){
+			double total = 0;
 			for (int j=0; j<_matrix.getColumnDimension(); j++){
-				mat[i][j] = (mat[i][j] >= threshold) ? 1 : 0;
+				if (mat[i][j]!=0.0) {
+					total += mat[i][j];
+				}
 			}
-		}	
-		return new MatrixElement(name, mat, _colNames, _rowNames);
+			for (int j=0; j<_matrix.getColumnDimension(); j++){
+				mat[i][j] = (total==0) ? 0 : mat[i][j] / total;
+			}
+		}
+	}
+	
+	// The totals of all the columns are needed before the first row can be normalized, so the matrix is read twice, but both passes go row by row
+	public void normalizeByColumnTotalsInPlace() {
+		pin();
+		double[] totals = new double[getNumCols()];
+		if (_sparse!=null) {
+			for (int k=0; k<_sparse.getNumNonZeros(); k++){
+				totals[_sparse._colIdx[k]] += _sparse._values[k];
+			}
+		} else {
+			double[][] mat = dense().getArray();
+			for (int i=0; i<_matrix.getRowDimension(); i++){
+				for (int j=0; j<_matrix.getColumnDimension(); j++){
+					if (mat[i][j]!=0.0) {
+						totals[j] += mat[i][j];
+					}
+				}
+			}
+		}
+		normalizeByColumnsInPlace(totals);
+	}
+	
+	public void normalizeByMaxNumberInPlace() {
+		normalizeByNumberInPlace(maxNumber());
+	}
+	
+	// Calculates the totals and the averages of the rows in a single pass - column 0 has the totals (so the result can be used with normalizeByRows)
+	// and column 1 the averages, the same as totalsByRow and averagesByRow
+	public MatrixElement statisticsByRow(String name) {
+		double[][] rows = new double[getNumRows()][2];
+		String[] colNames = {"Row Total", "Row Average"};
+		double[][] mat = (_sparse!=null) ? null : denseMatrix().getArray();
 		
+		for (int i=0; i<getNumRows(); i++){
+			int numOfEntries = 0;
+			double total = 0;
+			if (_sparse!=null) {
+				for (int k=_sparse._rowPtr[i]; k<_sparse._rowPtr[i+1]; k++) {
+					total += _sparse._values[k];
+				}
+				numOfEntries = _sparse._rowPtr[i+1] - _sparse._rowPtr[i];
+			} else {
+				double[] row = mat[i];
+				for (int j=0; j<row.length; j++) {
+					if (row[j]!=0.0) {
+						numOfEntries++;
+						total += row[j];
+					}
+				}
+			}
+			rows[i][0] = total;
+			rows[i][1] = (numOfEntries==0) ? 0 : total / numOfEntries;
+		}
+		return new MatrixElement(name, rows, colNames, _rowNames);
+	}
+	
+	// Calculates the totals and the averages of the columns in a single pass over the rows - row 0 has the totals (so the result can be used with normalizeByColumns)
+	// and row 1 the averages, the same as totalsByColumn and averagesByColumn
+	public MatrixElement statisticsByColumn(String name) {
+		double[][] cols = new double[2][getNumCols()];
+		String[] rowNames = {"Column Total", "Column Average"};
+		int[] entries = new int[getNumCols()];
 		
+		if (_sparse!=null) {
+			for (int k=0; k<_sparse.getNumNonZeros(); k++) {
+				entries[_sparse._colIdx[k]]++;
+				cols[0][_sparse._colIdx[k]] += _sparse._values[k];
+			}
+		} else {
+			Matrix dense = denseMatrix();
+			double[][] mat = dense.getArray();
+			for (int i=0; i<dense.getRowDimension(); i++){
+				for (int j=0; j<dense.getColumnDimension(); j++) {
+					if (mat[i][j]!=0.0) {
+						entries[j]++;
+						cols[0][j] += mat[i][j];
+					}
+				}
+			}
+		}
+		for (int j=0; j<getNumCols(); j++){
+			cols[1][j] = (entries[j]==0) ? 0 : cols[0][j] / entries[j];
+		}
+		return new MatrixElement(name, cols, _colNames, rowNames);
 	}
 	
-	public double maxNumber() {
-		double[][] mat = _matrix.getArray();
-		double result = -1;
+	private void normalizeByColumnsInPlace(double[] totals) {
+		if (_sparse!=null) {
+			double[] values = new double[_sparse.getNumNonZeros()];
+			for (int k=0; k<values.length; k++){
+				int j = _sparse._colIdx[k];
+				values[k] = (totals[j]==0) ? 0 : _sparse._values[k] / totals[j];
+			}
+			_sparse = _sparse.withValues(values);
+			return;
+		}
+		
+		double[][] mat = dense().getArray();
 		for (int i=0; i<_matrix.getRowDimension(); i++){
 			for (int j=0; j<_matrix.getColumnDimension(); j++){
+				mat[i][j] = (totals[j]==0) ? 0 : mat[i][j] / totals[j];
+			}
+		}
+	}
+	
+	// Copy of the matrix that the in place operations are applied to - the sparse storage is shared, since they give a sparse matrix a new array of values
+	private MatrixElement copy(String name) {
+		if (_sparse!=null)
+			return new MatrixElement(name, _sparse, _colNames, _rowNames);
+		if (_symmetric!=null)
+			return new MatrixElement(name, _symmetric.toDense(), _colNames, _rowNames);
+		return new MatrixElement(name, _matrix.getArrayCopy(), _colNames, _rowNames);
+	}
+	
+	public double maxNumber() {
+		double result = -1;
+		
+		if (_sparse!=null) {
+			// If there is at least one entry that is not stored, then zero is also part of the matrix
+			if ((_sparse.getNumNonZeros() < (long)_sparse.getNumRows() * _sparse.getNumCols()) && (0 > result))
+				result = 0;
+			for (int k=0; k<_sparse.getNumNonZeros(); k++){
+				if (_sparse._values[k] > result)
+					result = _sparse._values[k];
+			}
+			return result;
+		}
+		
+		Matrix dense = denseMatrix();
+		double[][] mat = dense.getArray();
+		for (int i=0; i<dense.getRowDimension(); i++){
+			for (int j=0; j<dense.getColumnDimension(); j++){
 				if (mat[i][j] > result)
 					result = mat[i][j];
 			}
@@ -228,41 +881,16 @@ public class MatrixElement implements Element{
 		// This method compresses a matrix using Principal Component Analysis. 
 		// The resulting matrix still preserves a given percentage of the variability of the original data.
 				
-		// Uses a class that using JAMA performs PCA by calculating SVD on the adjusted data matrix
+		// Uses a class that using JAMA performs PCA by decomposing the covariance (or the Gram) matrix of the adjusted data
 		PCA principalComponents = new PCA();
-		principalComponents.setRawData(_matrix);
-		principalComponents.computePCA();
-			    
-	    // Once the PCA analysis is complete, we need to determine how many PC to keep, in order to preserve the desired level of variability.
-	    // This is done by analyzing the Eigenvalues of the covariance matrix
-		Matrix latent = principalComponents.getLatent();
-	    int maxNumOfPC = _matrix.getColumnDimension();
-	    double total = 0.0;
-	    for (int i=0; i<latent.getRowDimension(); i++) {
-	    	total += latent.get(i, 0);
-	    }
-	    double cumulative = 0.0;
-	    int numPC = -1;
-	    while ((cumulative < variability) && (numPC < maxNumOfPC)) {
-	    	numPC++;
-	    	cumulative += latent.get(numPC, 0) / total;
-	    }
-	    // We need to add 1 - since the array is zero based, but the number of principal components is not
-	    numPC++;
+		principalComponents.setRawData(denseMatrix());
+		int numPC = computePCA(principalComponents, variability);
 	    
-	    // A new matrix has to be built that holds only the correct number of PCs
+	    // The ZScores need to be recomputed, but this time using only the first numPC columns of the PCA matrix.
+	    // The product only reads those columns, so the reduced PCA matrix does not need to be copied (see DenseMultiply).
 	    Matrix pca = principalComponents.getPca();
-	    Matrix pcaReduced = new Matrix(pca.getRowDimension(), numPC);
-
-	    for (int i=0; i<pca.getRowDimension(); i++) {
-	    	for (int j=0; j<numPC; j++) {
-	    		pcaReduced.set(i, j, pca.get(i, j));
-	    	}
-	    }
-
-	    // The ZScores need to be recomputed, but this time using the reduced PCA matrix
 	    Matrix centered = principalComponents.getZeroMeanData();
-	    Matrix scores = centered.times(pcaReduced);
+	    Matrix scores = new Matrix(DenseMultiply.times(centered.getArray(), pca.getArray(), getNumRows(), getNumCols(), numPC), getNumRows(), numPC);
 	
 	    // In order to return a MatrixElement, the columns (ie the PCs) need names
 		String[] colNames = new String[numPC];
@@ -292,7 +920,7 @@ public class MatrixElement implements Element{
 	    System.out.println(" ");
 	    
 	    System.out.println("----- Reduced PCA -----");
-	    pcaReduced.print(4, 4);
+	    pca.getMatrix(0, pca.getRowDimension()-1, 0, numPC-1).print(4, 4);
 	    System.out.println(" ");
 	    
 	    System.out.println("----- New Scores - Reduced dimensionality Matrix -----");
@@ -302,4 +930,45 @@ public class MatrixElement implements Element{
 	    
 	    return new MatrixElement(name, scores.getArray(), colNames, _rowNames);
 	}
+	
+	// Fits a PCA model of this matrix, with the PCs needed to preserve the variability.  The model can then follow changes to single entries
+	// of the data without calculating the PCA again (see PCAModel) - its scores are the result of compressByPCA.
+	public PCAModel fitPCA(String name, double variability) {
+		PCA principalComponents = new PCA();
+		principalComponents.setRawData(denseMatrix());
+		int numPC = computePCA(principalComponents, variability);
+		
+		// The model keeps its own copy of the data, since it is changed by the updates
+		double[][] components = principalComponents.getPca().getMatrix(0, getNumCols()-1, 0, numPC-1).getArray();
+		return new PCAModelObj(name, toDense(name).getArray(), getNumRows(), getNumCols(), components, numPC, _rowNames);
+	}
+	
+	// Computes the PCA and returns the number of PCs needed to preserve the variability
+	private int computePCA(PCA principalComponents, double variability) {
+		principalComponents.computePCA();
+		
+	    // Once the PCA analysis is complete, we need to determine how many PC to keep, in order to preserve the desired level of variability.
+	    // This is done by analyzing the Eigenvalues of the covariance matrix
+		Matrix latent = principalComponents.getLatent();
+	    // The PCA can have fewer components than columns (see PCA.computePCA), the rounding of the cumulative variability can't go past them
+	    int maxNumOfPC = principalComponents.getPca().getColumnDimension();
+	    double total = 0.0;
+	    for (int i=0; i<latent.getRowDimension(); i++) {
+	    	total += latent.get(i, 0);
+	    }
+	    double cumulative = 0.0;
+	    int numPC = -1;
+	    while ((cumulative < variability) && (numPC+1 < maxNumOfPC)) {
+	    	numPC++;
+	    	cumulative += latent.get(numPC, 0) / total;
+	    }
+	    // We need to add 1 - since the array is zero based, but the number of principal components is not
+	    return numPC+1;
+	}
+	
+	public enum StorageType{
+		Dense,
+		Sparse,
+		Symmetric
+	}
 }
@@ -10,6 +10,7 @@ package data.matrix;
  */
 public interface MatrixManager {
 	public String getId();
+	public MatrixElement.StorageType getStorageType();
 	
 	public MatrixElement getStakeholdersNeedsMatrix(boolean ForceRefresh);
 	public MatrixElement getStakeholdersForumsMatrix(boolean ForceRefresh);
@@ -19,7 +20,13 @@ public interface MatrixManager {
 	
 	public void storeMatrix(MatrixElement matrix);
 	public MatrixElement getMatrix(String name);
+	// Returns the matrix to be changed in place (ex. a rating held out by the leave one out tests) - the blackboard pins it, so it is never evicted
+	public MatrixElement getMatrixForUpdate(String name);
 	public boolean containsMatrix(String name);
 	public void removeMatrix(String name);
 	
+	// The PCA models are stored in the blackboard as well, so that they are fitted once and shared (see MatrixElement.fitPCA)
+	public void storePCAModel(PCAModel model);
+	public PCAModel getPCAModel(String name);
+	
 }
@@ -1,6 +1,9 @@
 package data.matrix;
 
+import java.util.Arrays;
 import blackboard.Blackboard;
+import blackboard.ElementBuilder;
+import data.Element;
 import data.basic.*;
 
 /**
@@ -9,15 +12,27 @@ import data.basic.*;
  * This class provides an abstraction layer to the blackboard so that it is easy to generate and get 
  * different matrix representations of the relationships between the basic elements.
  * The matrices follow a Lazy Instantiation design pattern.
+ * The matrices are built row by row over the non-zero entries only, and then stored either dense or sparse depending on the storage type of the manager.
+ * Each matrix remembers the versions of the collections of basic elements it was built from, and it is only rebuilt when one of them has changed.
+ * When basic elements are added after a matrix has been built, the change is applied to the matrix in place if possible (see MatrixUpdater).
  */
 final class MatrixManagerObj implements MatrixManager{
 	// Local Variables
 	String _id;		// Identifier of the object.  This is used to name the elements in the blackboard
 	Blackboard _bb;	// Reference to the blackboard object
 	BasicElementManager _elements;	// Reference to the basic element mananger
+	MatrixElement.StorageType _storage;	// Storage used for the matrices built from the basic elements
+	MatrixUpdater _updater;	// Updates the matrices in place when basic elements are added - the basic element manager only keeps a weak reference to it
+	
+	// Collections of basic elements each matrix is built from
+	static final ElementCollection[] SxN_SOURCES = {ElementCollection.Stakeholders, ElementCollection.Needs, ElementCollection.Ratings};
+	static final ElementCollection[] SxF_SOURCES = {ElementCollection.Stakeholders, ElementCollection.Forums, ElementCollection.StakeholdersOfForums};
+	static final ElementCollection[] SxT_SOURCES = {ElementCollection.Stakeholders, ElementCollection.Needs, ElementCollection.Terms};
+	static final ElementCollection[] NxT_SOURCES = {ElementCollection.Needs, ElementCollection.Terms};
+	static final ElementCollection[] NxF_SOURCES = {ElementCollection.Needs, ElementCollection.Forums, ElementCollection.NeedsOfForums};
 
 	// Constructor - Package Private
-	MatrixManagerObj(String id, Blackboard blackboard, BasicElementManager elementManager) {
+	MatrixManagerObj(String id, Blackboard blackboard, BasicElementManager elementManager, MatrixElement.StorageType storage) {
 		// Integrity checks
 		if (id=="")
 			throw new IllegalArgumentException("The string identifier can't be null");
@@ -25,162 +40,242 @@ final class MatrixManagerObj implements MatrixManager{
 			throw new IllegalArgumentException("The blackboard reference has to be a valid object");
 		if (elementManager==null)
 			throw new IllegalArgumentException("The basic elements reference has to be a valid object");
+		if (storage==null)
+			throw new IllegalArgumentException("The storage type has to be a valid object");
+		if (storage==MatrixElement.StorageType.Symmetric)
+			throw new IllegalArgumentException("The matrices built from the basic elements are not symmetric, they can only be stored dense or sparse");
 			
 		// Sets the internal fields;
 		_id = id;
 		_bb = blackboard;
 		_elements = elementManager;
+		_storage = storage;
+		_updater = new MatrixUpdater(this);
+		_elements.addListener(_updater);
 	}
 		 
 	public String getId() {
 		return _id;
 	}
 	
+	public MatrixElement.StorageType getStorageType() {
+		return _storage;
+	}
+	
+	// Creates the matrix element with the storage type of the manager
+	private MatrixElement newMatrixElement(String name, SparseMatrix.RowBuilder builder, String[] colData, String[] rowData, long[] sourceVersions) {
+		SparseMatrix mat = builder.build();
+		MatrixElement matrix;
+		if (_storage==MatrixElement.StorageType.Sparse) {
+			matrix = new MatrixElement(name, mat, colData, rowData);
+		} else {
+			matrix = new MatrixElement(name, mat.toDense(), colData, rowData);
+		}
+		matrix._sourceVersions = sourceVersions;
+		return matrix;
+	}
+	
+	// Current versions of the collections of basic elements
+	private long[] getVersions(ElementCollection[] sources) {
+		long[] versions = new long[sources.length];
+		for (int i=0; i<sources.length; i++) {
+			versions[i] = _elements.getVersion(sources[i]);
+		}
+		return versions;
+	}
+	
+	// Checks if the matrix in the blackboard was built from older versions of the basic elements
+	// A matrix that was not built by the MatrixManager (it has no versions) is never out of date, the same as a matrix that is not in the blackboard yet
+	private boolean isOutOfDate(String name, ElementCollection[] sources) {
+		if (!_bb.contains(name))
+			return false;
+		long[] versions = ((MatrixElement) _bb.get(name))._sourceVersions;
+		return (versions!=null) && !Arrays.equals(versions, getVersions(sources));
+	}
+	
+	// Returns the matrix, building it if it is not in the blackboard.  A matrix that has to be refreshed (or is out of date) is removed first and then built
+	// with getOrBuild as well, so that the blackboard keeps its builder - a blackboard with a memory budget can then still evict it and build it again.
+	private MatrixElement getOrBuild(String name, ElementCollection[] sources, boolean ForceRefresh, ElementBuilder builder) {
+		if ((ForceRefresh || isOutOfDate(name, sources)) && _bb.contains(name)) {
+			_bb.remove(name);
+		}
+		return (MatrixElement) _bb.getOrBuild(name, builder);
+	}
+	
 	public MatrixElement getStakeholdersNeedsMatrix(boolean ForceRefresh){
 		String name = _id+"_SxN";
 		
-		if (ForceRefresh || !_bb.contains(name)) {
-			// Gets the dimension of the matrix
-			int numS = _elements.getStakeholders().size();
-			int numN = _elements.getNeeds().size();
-			
-			// Creates a new matrix
-			double[][] mData = new double[numS][numN];
-			String[] rowData = new String[numS];
-			String[] colData = new String[numN];
-			
-			// Iterates over the collections to fill it
-			for(int i=0; i<numS; i++) {
-				Stakeholder s = _elements.getStakeholder(i);
-				rowData[i]=s.getId();
-				for (Rating r : _elements.getRatingsByStakeholder(s)) {
-					Need n = _elements.getNeedOfRating(r);
-					colData[n.getNumber()]=n.getId();
-					mData[i][n.getNumber()]=r.getValue();
+		ElementBuilder builder = new ElementBuilder() {
+			public Element build(String name) {
+				// The versions are read first, so that if the basic elements change while the matrix is built it is out of date
+				long[] versions = getVersions(SxN_SOURCES);
+				
+				// Gets the dimension of the matrix
+				int numS = _elements.getStakeholders().size();
+				int numN = _elements.getNeeds().size();
+				
+				// Creates a new matrix - it is filled one row at a time
+				SparseMatrix.RowBuilder mData = new SparseMatrix.RowBuilder(numS, numN);
+				String[] rowData = new String[numS];
+				String[] colData = new String[numN];
+				
+				// Iterates over the collections to fill it
+				for(int i=0; i<numS; i++) {
+					Stakeholder s = _elements.getStakeholder(i);
+					rowData[i]=s.getId();
+					for (Rating r : _elements.getRatingsByStakeholder(s)) {
+						Need n = _elements.getNeedOfRating(r);
+						colData[n.getNumber()]=n.getId();
+						mData.set(n.getNumber(), r.getValue());
+					}
+					mData.endRow();
 				}
+				
+				return newMatrixElement(name, mData, colData, rowData, versions);
 			}
-			
-			// Stores the newly created matrix in the blackboard - if it existed it will get overwritten
-			_bb.store(name, new MatrixElement(name, mData, colData, rowData));
-		}
-		return (MatrixElement) _bb.get(name);
+		};
+		
+		return getOrBuild(name, SxN_SOURCES, ForceRefresh, builder);
 	}
 	
 	public MatrixElement getStakeholdersForumsMatrix(boolean ForceRefresh){
 		String name = _id+"_SxF";
 		
-		if (ForceRefresh || !_bb.contains(name)) {
-			// Gets the dimension of the matrix
-			int numS = _elements.getStakeholders().size();
-			int numF = _elements.getForums().size();
-			
-			// Creates a new matrix
-			double[][] mData = new double[numS][numF];
-			String[] rowData = new String[numS];
-			String[] colData = new String[numF];
-			
-			// Iterates over the collections to fill it
-			for(int i=0; i<numS; i++) {
-				Stakeholder s = _elements.getStakeholder(i);
-				rowData[i]=s.getId();
-				for (Forum f : _elements.getForumsOfStakeholder(s)) {
-					colData[f.getNumber()]=f.getId();
-					mData[i][f.getNumber()]=_elements.getScoreOfStakeholderInForum(f, s);
+		ElementBuilder builder = new ElementBuilder() {
+			public Element build(String name) {
+				// The versions are read first, so that if the basic elements change while the matrix is built it is out of date
+				long[] versions = getVersions(SxF_SOURCES);
+				
+				// Gets the dimension of the matrix
+				int numS = _elements.getStakeholders().size();
+				int numF = _elements.getForums().size();
+				
+				// Creates a new matrix - it is filled one row at a time
+				SparseMatrix.RowBuilder mData = new SparseMatrix.RowBuilder(numS, numF);
+				String[] rowData = new String[numS];
+				String[] colData = new String[numF];
+				
+				// Iterates over the collections to fill it
+				for(int i=0; i<numS; i++) {
+					Stakeholder s = _elements.getStakeholder(i);
+					rowData[i]=s.getId();
+					for (Forum f : _elements.getForumsOfStakeholder(s)) {
+						colData[f.getNumber()]=f.getId();
+						mData.set(f.getNumber(), _elements.getScoreOfStakeholderInForum(f, s));
+					}
+					mData.endRow();
 				}
+				
+				return newMatrixElement(name, mData, colData, rowData, versions);
 			}
-			
-			// Stores the newly created matrix in the blackboard - if it existed it will get overwritten
-			_bb.store(name, new MatrixElement(name, mData, colData, rowData));
-		}
-		return (MatrixElement) _bb.get(name);
+		};
+		
+		return getOrBuild(name, SxF_SOURCES, ForceRefresh, builder);
 	}
 	public MatrixElement getStakeholdersTermsMatrix(boolean ForceRefresh){
 		String name = _id+"_SxT";
 		
-		if (ForceRefresh || !_bb.contains(name)) {
-			// Gets the dimension of the matrix
-			int numS = _elements.getStakeholders().size();
-			int numT = _elements.getTerms().size();
-			
-			// Creates a new matrix
-			double[][] mData = new double[numS][numT];
-			String[] rowData = new String[numS];
-			String[] colData = new String[numT];				
-			
-			// Iterates over the collections to fill it
-			for(int i=0; i<numS; i++) {
-				Stakeholder s = _elements.getStakeholder(i);
-				rowData[i]=s.getId();
-				for (Need n : _elements.getNeedsByStakeholder(s)) {
-					for (Term t : _elements.getTermsByNeed(n)) {
-						colData[t.getNumber()]=t.getId();
-						double accumulated = mData[i][t.getNumber()];
-						mData[i][t.getNumber()] = accumulated + _elements.getScoreOfTermInNeed(n, t);
+		ElementBuilder builder = new ElementBuilder() {
+			public Element build(String name) {
+				// The versions are read first, so that if the basic elements change while the matrix is built it is out of date
+				long[] versions = getVersions(SxT_SOURCES);
+				
+				// Gets the dimension of the matrix
+				int numS = _elements.getStakeholders().size();
+				int numT = _elements.getTerms().size();
+				
+				// Creates a new matrix - it is filled one row at a time
+				SparseMatrix.RowBuilder mData = new SparseMatrix.RowBuilder(numS, numT);
+				String[] rowData = new String[numS];
+				String[] colData = new String[numT];				
+				
+				// Iterates over the collections to fill it
+				for(int i=0; i<numS; i++) {
+					Stakeholder s = _elements.getStakeholder(i);
+					rowData[i]=s.getId();
+					for (Need n : _elements.getNeedsByStakeholder(s)) {
+						for (Term t : _elements.getTermsByNeed(n)) {
+							colData[t.getNumber()]=t.getId();
+							mData.add(t.getNumber(), _elements.getScoreOfTermInNeed(n, t));
+						}
 					}
+					mData.endRow();
 				}
+				
+				return newMatrixElement(name, mData, colData, rowData, versions);
 			}
-			
-			// Stores the newly created matrix in the blackboard - if it existed it will get overwritten
-			_bb.store(name, new MatrixElement(name, mData, colData, rowData));
-		}
-		return (MatrixElement) _bb.get(name);
+		};
+		
+		return getOrBuild(name, SxT_SOURCES, ForceRefresh, builder);
 		
 	}
 	public MatrixElement getNeedsTermsMatrix(boolean ForceRefresh){
 		String name = _id+"_NxT";
 		
-		if (ForceRefresh || !_bb.contains(name)) {
-			// Gets the dimension of the matrix
-			int numN = _elements.getNeeds().size();
-			int numT = _elements.getTerms().size();
-			
-			// Creates a new matrix
-			double[][] mData = new double[numN][numT];
-			String[] rowData = new String[numN];
-			String[] colData = new String[numT];				
-			
-			// Iterates over the collections to fill it
-			for(int i=0; i<numN; i++) {
-				Need n = _elements.getNeed(i);
-				rowData[i]=n.getId();
-				for (Term t : _elements.getTermsByNeed(n)) {
-					colData[t.getNumber()]=t.getId();
-					mData[i][t.getNumber()]=_elements.getScoreOfTermInNeed(n, t);
+		ElementBuilder builder = new ElementBuilder() {
+			public Element build(String name) {
+				// The versions are read first, so that if the basic elements change while the matrix is built it is out of date
+				long[] versions = getVersions(NxT_SOURCES);
+				
+				// Gets the dimension of the matrix
+				int numN = _elements.getNeeds().size();
+				int numT = _elements.getTerms().size();
+				
+				// Creates a new matrix - it is filled one row at a time
+				SparseMatrix.RowBuilder mData = new SparseMatrix.RowBuilder(numN, numT);
+				String[] rowData = new String[numN];
+				String[] colData = new String[numT];				
+				
+				// Iterates over the collections to fill it
+				for(int i=0; i<numN; i++) {
+					Need n = _elements.getNeed(i);
+					rowData[i]=n.getId();
+					for (Term t : _elements.getTermsByNeed(n)) {
+						colData[t.getNumber()]=t.getId();
+						mData.set(t.getNumber(), _elements.getScoreOfTermInNeed(n, t));
+					}
+					mData.endRow();
 				}
+				
+				return newMatrixElement(name, mData, colData, rowData, versions);
 			}
-			
-			// Stores the newly created matrix in the blackboard - if it existed it will get overwritten
-			_bb.store(name, new MatrixElement(name, mData, colData, rowData));
-		}
-		return (MatrixElement) _bb.get(name);									
+		};
+		
+		return getOrBuild(name, NxT_SOURCES, ForceRefresh, builder);
 	}
 	public MatrixElement getNeedsForumsMatrix(boolean ForceRefresh){
 		String name = _id+"_NxF";
 		
-		if (ForceRefresh || !_bb.contains(name)) {
-			// Gets the dimension of the matrix
-			int numN = _elements.getNeeds().size();
-			int numF = _elements.getForums().size();
-			
-			// Creates a new matrix
-			double[][] mData = new double[numN][numF];
-			String[] rowData = new String[numN];
-			String[] colData = new String[numF];				
-			
-			// Iterates over the collections to fill it
-			for(int i=0; i<numN; i++) {
-				Need n = _elements.getNeed(i);
-				rowData[i]=n.getId();
-				for (Forum f : _elements.getForumsOfNeed(n)) {
-					colData[f.getNumber()]=f.getId();
-					mData[i][f.getNumber()]=_elements.getScoreOfNeedInForum(f, n);
+		ElementBuilder builder = new ElementBuilder() {
+			public Element build(String name) {
+				// The versions are read first, so that if the basic elements change while the matrix is built it is out of date
+				long[] versions = getVersions(NxF_SOURCES);
+				
+				// Gets the dimension of the matrix
+				int numN = _elements.getNeeds().size();
+				int numF = _elements.getForums().size();
+				
+				// Creates a new matrix - it is filled one row at a time
+				SparseMatrix.RowBuilder mData = new SparseMatrix.RowBuilder(numN, numF);
+				String[] rowData = new String[numN];
+				String[] colData = new String[numF];				
+				
+				// Iterates over the collections to fill it
+				for(int i=0; i<numN; i++) {
+					Need n = _elements.getNeed(i);
+					rowData[i]=n.getId();
+					for (Forum f : _elements.getForumsOfNeed(n)) {
+						colData[f.getNumber()]=f.getId();
+						mData.set(f.getNumber(), _elements.getScoreOfNeedInForum(f, n));
+					}
+					mData.endRow();
 				}
+				
+				return newMatrixElement(name, mData, colData, rowData, versions);
 			}
-			
-			// Stores the newly created matrix in the blackboard - if it existed it will get overwritten
-			_bb.store(name, new MatrixElement(name, mData, colData, rowData));
-		}
-		return (MatrixElement) _bb.get(name);						
+		};
+		
+		return getOrBuild(name, NxF_SOURCES, ForceRefresh, builder);
 	}
 	
 	public void storeMatrix(MatrixElement matrix) {
@@ -189,10 +284,20 @@ final class MatrixManagerObj implements MatrixManager{
 	public MatrixElement getMatrix(String name) {
 		return (MatrixElement) _bb.get(name);
 	}
+	public MatrixElement getMatrixForUpdate(String name) {
+		return (MatrixElement) _bb.getForUpdate(name);
+	}
 	public boolean containsMatrix(String name) {
 		return _bb.contains(name);
 	}
 	public void removeMatrix(String name) {
 		_bb.remove(name);
 	}
+	
+	public void storePCAModel(PCAModel model) {
+		_bb.store(model.getName(), model);
+	}
+	public PCAModel getPCAModel(String name) {
+		return (PCAModel) _bb.get(name);
+	}
 }
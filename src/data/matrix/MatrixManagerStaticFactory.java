@@ -12,6 +12,11 @@ public class MatrixManagerStaticFactory {
 	private MatrixManagerStaticFactory() {}
 	
 	public static MatrixManager newMatrixManager(String id, Blackboard blackboard, BasicElementManager elementManager) {
-		return new MatrixManagerObj(id, blackboard, elementManager);
+		return new MatrixManagerObj(id, blackboard, elementManager, MatrixElement.StorageType.Dense);
+	}	
+	
+	// The matrices built from the basic elements will use the given storage - Sparse is recommended when most of the entries are zero (ex. SxT)
+	public static MatrixManager newMatrixManager(String id, Blackboard blackboard, BasicElementManager elementManager, MatrixElement.StorageType storage) {
+		return new MatrixManagerObj(id, blackboard, elementManager, storage);
 	}	
 }
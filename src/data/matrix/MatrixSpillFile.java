@@ -0,0 +1,240 @@
+package data.matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import data.Element;
+import data.SpilledElement;
+
+/**
+ *
+ * Matrix that has been written to a memory mapped file.
+ *
+ * The file only holds the values of the matrix: the rows of a dense matrix one after the other, the row pointers, column indices and values of a sparse matrix,
+ * or the packed upper triangle of a symmetric matrix (in the precision it is stored with).
+ * The dimensions and the row and column names are kept in this object.
+ * The file is mapped in windows of at most WINDOW bytes, so matrices larger than the 2GB limit of a single mapping can be spilled.
+ *
+ * A packed matrix (ex. the similarities) is not copied back to the heap when it is read: the matrix read back reads its values from the mapped windows,
+ * so the operating system pages in the rows that are read (ex. by getNeighbors) and the heap only holds the names.  The mappings stay valid after
+ * the file is deleted, until they are garbage collected.  The dense and sparse matrices are copied back, since their operations work on arrays.
+ *
+ * Note that the class is package private, it is created by MatrixElement.spill
+ *
+ */
+final class MatrixSpillFile implements SpilledElement {
+	static final int WINDOW = 1 << 27;	// Size of each mapping, in bytes
+
+	// Local Variables
+	String _name;
+	File _file;
+	String[] _colNames;
+	String[] _rowNames;
+	int _numRows;
+	int _numCols;
+	int _numNonZeros;	// -1 if the matrix is dense or packed
+	boolean _symmetric;	// true if the matrix is packed
+	boolean _singlePrecision;	// true if the packed values are floats
+	long[] _sourceVersions;	// Versions of the basic elements the matrix was built from, so the MatrixManager knows if the matrix read back is out of date
+
+	// Constructor - Package Private.  Writes the matrix to the file.
+	MatrixSpillFile(MatrixElement matrix, File file) throws IOException {
+		// Integrity checks
+		if (matrix==null)
+			throw new IllegalArgumentException("The matrix reference has to be a valid object");
+		if (file==null)
+			throw new IllegalArgumentException("The file reference has to be a valid object");
+
+		// Sets the internal fields;
+		_name = matrix.getName();
+		_file = file;
+		_colNames = matrix._colNames;
+		_rowNames = matrix._rowNames;
+		_numRows = matrix.getNumRows();
+		_numCols = matrix.getNumCols();
+		_sourceVersions = matrix._sourceVersions;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (matrix.isSymmetric()) {
+				SymmetricMatrix packed = matrix._symmetric;
+				_numNonZeros = -1;
+				_symmetric = true;
+				_singlePrecision = packed.isSinglePrecision();
+				if (packed.isMapped()) {
+					writeMapped(channel, packed);
+				} else if (_singlePrecision) {
+					writeFloats(channel, 0, packed._floats, packed._floats.length);
+				} else {
+					writeDoubles(channel, 0, packed._values, packed._values.length);
+				}
+			} else if (matrix.isSparse()) {
+				SparseMatrix sparse = matrix._sparse;
+				_numNonZeros = sparse.getNumNonZeros();
+				long pos = 0;
+				pos = writeInts(channel, pos, sparse._rowPtr, _numRows+1);
+				pos = writeInts(channel, pos, sparse._colIdx, _numNonZeros);
+				writeDoubles(channel, pos, sparse._values, _numNonZeros);
+			} else {
+				_numNonZeros = -1;
+				double[][] rows = matrix._matrix.getArray();
+				int rowsPerWindow = Math.max(1, WINDOW / Math.max(1, 8*_numCols));
+				for (int i=0; i<_numRows; i+=rowsPerWindow) {
+					int n = Math.min(rowsPerWindow, _numRows-i);
+					DoubleBuffer buf = channel.map(MapMode.READ_WRITE, 8L*_numCols*i, 8L*_numCols*n).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+					for (int k=0; k<n; k++) {
+						buf.put(rows[i+k], 0, _numCols);
+					}
+				}
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	public Element read() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(_file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (_symmetric) {
+				// The values are read from the mapping, they are not copied
+				int length = SymmetricMatrix.getPackedLength(_numRows);
+				int bytesPerEntry = _singlePrecision ? 4 : 8;
+				int entriesPerWindow = WINDOW / bytesPerEntry;
+				int numWindows = (length + entriesPerWindow - 1) / entriesPerWindow;
+				int windowShift = Integer.numberOfTrailingZeros(entriesPerWindow);
+				SymmetricMatrix packed;
+				if (_singlePrecision) {
+					FloatBuffer[] windows = new FloatBuffer[numWindows];
+					for (int w=0; w<numWindows; w++) {
+						int n = Math.min(entriesPerWindow, length - w*entriesPerWindow);
+						windows[w] = channel.map(MapMode.READ_ONLY, (long) WINDOW*w, 4L*n).order(ByteOrder.nativeOrder()).asFloatBuffer();
+					}
+					packed = new SymmetricMatrix(_numRows, windows, windowShift);
+				} else {
+					DoubleBuffer[] windows = new DoubleBuffer[numWindows];
+					for (int w=0; w<numWindows; w++) {
+						int n = Math.min(entriesPerWindow, length - w*entriesPerWindow);
+						windows[w] = channel.map(MapMode.READ_ONLY, (long) WINDOW*w, 8L*n).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+					}
+					packed = new SymmetricMatrix(_numRows, windows, windowShift);
+				}
+				MatrixElement matrix = new MatrixElement(_name, packed, _rowNames);
+				matrix._sourceVersions = _sourceVersions;
+				return matrix;
+			} else if (_numNonZeros>=0) {
+				int[] rowPtr = new int[_numRows+1];
+				int[] colIdx = new int[_numNonZeros];
+				double[] values = new double[_numNonZeros];
+				long pos = 0;
+				pos = readInts(channel, pos, rowPtr);
+				pos = readInts(channel, pos, colIdx);
+				readDoubles(channel, pos, values);
+				MatrixElement matrix = new MatrixElement(_name, new SparseMatrix(_numRows, _numCols, rowPtr, colIdx, values), _colNames, _rowNames);
+				matrix._sourceVersions = _sourceVersions;
+				return matrix;
+			} else {
+				double[][] rows = new double[_numRows][_numCols];
+				int rowsPerWindow = Math.max(1, WINDOW / Math.max(1, 8*_numCols));
+				for (int i=0; i<_numRows; i+=rowsPerWindow) {
+					int n = Math.min(rowsPerWindow, _numRows-i);
+					DoubleBuffer buf = channel.map(MapMode.READ_ONLY, 8L*_numCols*i, 8L*_numCols*n).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+					for (int k=0; k<n; k++) {
+						buf.get(rows[i+k], 0, _numCols);
+					}
+				}
+				MatrixElement matrix = new MatrixElement(_name, rows, _colNames, _rowNames);
+				matrix._sourceVersions = _sourceVersions;
+				return matrix;
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	public void delete() {
+		// On some platforms a mapped file can not be deleted until the mapping is garbage collected
+		if (!_file.delete())
+			_file.deleteOnExit();
+	}
+
+	// Writes the first len entries of the array at the position of the file, and returns the position after them
+	private static long writeInts(FileChannel channel, long pos, int[] array, int len) throws IOException {
+		for (int done=0; done<len; ) {
+			int n = Math.min(len-done, WINDOW/4);
+			IntBuffer buf = channel.map(MapMode.READ_WRITE, pos+4L*done, 4L*n).order(ByteOrder.nativeOrder()).asIntBuffer();
+			buf.put(array, done, n);
+			done += n;
+		}
+		return pos + 4L*len;
+	}
+	private static long writeDoubles(FileChannel channel, long pos, double[] array, int len) throws IOException {
+		for (int done=0; done<len; ) {
+			int n = Math.min(len-done, WINDOW/8);
+			DoubleBuffer buf = channel.map(MapMode.READ_WRITE, pos+8L*done, 8L*n).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			buf.put(array, done, n);
+			done += n;
+		}
+		return pos + 8L*len;
+	}
+	private static long writeFloats(FileChannel channel, long pos, float[] array, int len) throws IOException {
+		for (int done=0; done<len; ) {
+			int n = Math.min(len-done, WINDOW/4);
+			FloatBuffer buf = channel.map(MapMode.READ_WRITE, pos+4L*done, 4L*n).order(ByteOrder.nativeOrder()).asFloatBuffer();
+			buf.put(array, done, n);
+			done += n;
+		}
+		return pos + 4L*len;
+	}
+
+	// Writes a packed matrix that was itself read from a mapped file, entry by entry
+	private static void writeMapped(FileChannel channel, SymmetricMatrix packed) throws IOException {
+		int length = SymmetricMatrix.getPackedLength(packed.getSize());
+		if (packed.isSinglePrecision()) {
+			for (int done=0; done<length; ) {
+				int n = Math.min(length-done, WINDOW/4);
+				FloatBuffer buf = channel.map(MapMode.READ_WRITE, 4L*done, 4L*n).order(ByteOrder.nativeOrder()).asFloatBuffer();
+				for (int k=0; k<n; k++) {
+					buf.put((float) packed.value(done+k));
+				}
+				done += n;
+			}
+		} else {
+			for (int done=0; done<length; ) {
+				int n = Math.min(length-done, WINDOW/8);
+				DoubleBuffer buf = channel.map(MapMode.READ_WRITE, 8L*done, 8L*n).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+				for (int k=0; k<n; k++) {
+					buf.put(packed.value(done+k));
+				}
+				done += n;
+			}
+		}
+	}
+
+	// Fills the array from the position of the file, and returns the position after it
+	private static long readInts(FileChannel channel, long pos, int[] array) throws IOException {
+		for (int done=0; done<array.length; ) {
+			int n = Math.min(array.length-done, WINDOW/4);
+			IntBuffer buf = channel.map(MapMode.READ_ONLY, pos+4L*done, 4L*n).order(ByteOrder.nativeOrder()).asIntBuffer();
+			buf.get(array, done, n);
+			done += n;
+		}
+		return pos + 4L*array.length;
+	}
+	private static long readDoubles(FileChannel channel, long pos, double[] array) throws IOException {
+		for (int done=0; done<array.length; ) {
+			int n = Math.min(array.length-done, WINDOW/8);
+			DoubleBuffer buf = channel.map(MapMode.READ_ONLY, pos+8L*done, 8L*n).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			buf.get(array, done, n);
+			done += n;
+		}
+		return pos + 8L*array.length;
+	}
+}
@@ -0,0 +1,167 @@
+package data.matrix;
+
+import data.basic.*;
+
+/**
+ *
+ * Keeps the matrices built by the MatrixManager up to date when basic elements are added, instead of building them again.
+ * Each change is applied in place to the matrices that depend on it: a new stakeholder or need adds a row, a new need, term or forum adds a column,
+ * and a new rating, membership or term frequency (or a removed membership) changes a single entry.
+ *
+ * A matrix is only updated if it was up to date before the change (its versions are the ones before the change), otherwise it has already missed
+ * a change and it is left for the MatrixManager to build it again.  The same happens when a change can not be done in place (ex. adding a column
+ * to a dense matrix): the matrix is not updated and it becomes out of date.
+ *
+ * Note that the class is package private, it is created by the MatrixManagerObj.
+ *
+ */
+final class MatrixUpdater implements BasicElementListener {
+	// Local Variables
+	MatrixManagerObj _manager;
+
+	// Constructor - Package Private
+	MatrixUpdater(MatrixManagerObj manager) {
+		_manager = manager;
+	}
+
+	public void stakeholderAdded(Stakeholder s) {
+		for (String m : new String[] {"_SxN", "_SxF", "_SxT"}) {
+			ElementCollection[] sources = getSources(m);
+			MatrixElement matrix = getMatrixToUpdate(m, sources, ElementCollection.Stakeholders);
+			if (matrix!=null) {
+				matrix.appendRow(s.getId());
+				updated(matrix, sources);
+			}
+		}
+	}
+
+	public void needAdded(Need n, Stakeholder s) {
+		// The need is a new row of the NxT and NxF matrices
+		for (String m : new String[] {"_NxT", "_NxF"}) {
+			ElementCollection[] sources = getSources(m);
+			MatrixElement matrix = getMatrixToUpdate(m, sources, ElementCollection.Needs);
+			if (matrix!=null) {
+				matrix.appendRow(n.getId());
+				updated(matrix, sources);
+			}
+		}
+		// and a new column of the SxN matrix - the column has no name until it has an entry, the same as when the matrix is built
+		MatrixElement matrix = getMatrixToUpdate("_SxN", MatrixManagerObj.SxN_SOURCES, ElementCollection.Needs);
+		if ((matrix!=null) && matrix.appendColumn(null)) {
+			updated(matrix, MatrixManagerObj.SxN_SOURCES);
+		}
+		// The SxT matrix only changes when the terms of the need are added
+		matrix = getMatrixToUpdate("_SxT", MatrixManagerObj.SxT_SOURCES, ElementCollection.Needs);
+		if (matrix!=null) {
+			updated(matrix, MatrixManagerObj.SxT_SOURCES);
+		}
+	}
+
+	public void termAddedToNeed(Need n, Term t, double frequency, double previousFrequency) {
+		// The frequency of the term is the entry of the NxT matrix, and it is added to the entry of the stakeholder of the need in the SxT matrix
+		MatrixElement matrix = getMatrixToUpdate("_NxT", MatrixManagerObj.NxT_SOURCES, ElementCollection.Terms);
+		if ((matrix!=null) && addColumnIfNew(matrix, t.getNumber())) {
+			matrix.setEntry(n.getNumber(), t.getNumber(), frequency, t.getId());
+			updated(matrix, MatrixManagerObj.NxT_SOURCES);
+		}
+		matrix = getMatrixToUpdate("_SxT", MatrixManagerObj.SxT_SOURCES, ElementCollection.Terms);
+		if ((matrix!=null) && addColumnIfNew(matrix, t.getNumber())) {
+			int s = _manager._elements.getStakeholderOfNeed(n).getNumber();
+			matrix.setEntry(s, t.getNumber(), matrix.get(s, t.getNumber()) + frequency - previousFrequency, t.getId());
+			updated(matrix, MatrixManagerObj.SxT_SOURCES);
+		}
+	}
+
+	public void forumAdded(Forum f) {
+		for (String m : new String[] {"_SxF", "_NxF"}) {
+			ElementCollection[] sources = getSources(m);
+			MatrixElement matrix = getMatrixToUpdate(m, sources, ElementCollection.Forums);
+			if ((matrix!=null) && matrix.appendColumn(null)) {
+				updated(matrix, sources);
+			}
+		}
+	}
+
+	public void ratingAdded(Rating r, Stakeholder s, Need n) {
+		// The last rating of the stakeholder for the need is the one in the matrix, the same as when the matrix is built
+		MatrixElement matrix = getMatrixToUpdate("_SxN", MatrixManagerObj.SxN_SOURCES, ElementCollection.Ratings);
+		if (matrix!=null) {
+			matrix.setEntry(s.getNumber(), n.getNumber(), r.getValue(), n.getId());
+			updated(matrix, MatrixManagerObj.SxN_SOURCES);
+		}
+	}
+
+	public void needAddedToForum(Forum f, Need n, double score) {
+		MatrixElement matrix = getMatrixToUpdate("_NxF", MatrixManagerObj.NxF_SOURCES, ElementCollection.NeedsOfForums);
+		if (matrix!=null) {
+			matrix.setEntry(n.getNumber(), f.getNumber(), score, f.getId());
+			updated(matrix, MatrixManagerObj.NxF_SOURCES);
+		}
+	}
+
+	public void stakeholderAddedToForum(Forum f, Stakeholder s, double score) {
+		MatrixElement matrix = getMatrixToUpdate("_SxF", MatrixManagerObj.SxF_SOURCES, ElementCollection.StakeholdersOfForums);
+		if (matrix!=null) {
+			matrix.setEntry(s.getNumber(), f.getNumber(), score, f.getId());
+			updated(matrix, MatrixManagerObj.SxF_SOURCES);
+		}
+	}
+
+	public void stakeholderRemovedFromForum(Forum f, Stakeholder s) {
+		// A stakeholder that is not in a forum has a zero entry, the same as when the matrix is built
+		MatrixElement matrix = getMatrixToUpdate("_SxF", MatrixManagerObj.SxF_SOURCES, ElementCollection.StakeholdersOfForums);
+		if (matrix!=null) {
+			matrix.setEntry(s.getNumber(), f.getNumber(), 0, f.getId());
+			updated(matrix, MatrixManagerObj.SxF_SOURCES);
+		}
+	}
+
+	private ElementCollection[] getSources(String matrix) {
+		if (matrix.equals("_SxN")) {
+			return MatrixManagerObj.SxN_SOURCES;
+		} else if (matrix.equals("_SxF")) {
+			return MatrixManagerObj.SxF_SOURCES;
+		} else if (matrix.equals("_SxT")) {
+			return MatrixManagerObj.SxT_SOURCES;
+		} else if (matrix.equals("_NxT")) {
+			return MatrixManagerObj.NxT_SOURCES;
+		} else {
+			return MatrixManagerObj.NxF_SOURCES;
+		}
+	}
+
+	// Returns the matrix if it is in the blackboard and it was up to date before the change, otherwise null
+	private MatrixElement getMatrixToUpdate(String matrix, ElementCollection[] sources, ElementCollection changed) {
+		String name = _manager._id + matrix;
+		if (!_manager._bb.contains(name))
+			return null;
+		MatrixElement element = (MatrixElement) _manager._bb.get(name);
+		long[] versions = element._sourceVersions;
+		if (versions==null)
+			return null;
+
+		// The version of the collection that changed has just been increased by one
+		for (int i=0; i<sources.length; i++) {
+			long before = _manager._elements.getVersion(sources[i]) - ((sources[i]==changed) ? 1 : 0);
+			if (versions[i]!=before)
+				return null;
+		}
+		return element;
+	}
+
+	// A new term is always the last column - if it can not be added the matrix can not be updated
+	private boolean addColumnIfNew(MatrixElement matrix, int column) {
+		if (column<matrix.getNumCols())
+			return true;
+		return matrix.appendColumn(null);
+	}
+
+	// The matrix now includes the change, so it has the current versions
+	private void updated(MatrixElement matrix, ElementCollection[] sources) {
+		long[] versions = new long[sources.length];
+		for (int i=0; i<sources.length; i++) {
+			versions[i] = _manager._elements.getVersion(sources[i]);
+		}
+		matrix._sourceVersions = versions;
+	}
+}
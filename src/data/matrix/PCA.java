@@ -135,6 +135,14 @@ class PCA {
    }
 
   /**
+   * Computes the principal components from the singular value decomposition of the centered data Xc/sqrt(m-1):
+   * the right singular vectors are the components and the squares of the singular values are the eigenvalues of
+   * the covariance matrix (latent).  The signs of the components are the ones this decomposition gives, which the
+   * scores, and the similarities computed from them, depend on.  Only the min(n,m+1) columns of V that the
+   * decomposition rotates are generated (the other columns of a full V are unit vectors that carry no variance),
+   * so with many more columns than rows (ex. stakeholders x terms) V is n x (m+1) instead of n x n.
+   * After this call getLatent has n rows (the ones after the rank of the centered data are zero); getPca and
+   * getZScores have min(n,m+1) columns, and the z-scores after the rank are zero.
    */
   public void computePCA(){
     Matrix X = rawData;
@@ -150,102 +158,52 @@ class PCA {
     if(m<2)
       throw new IllegalArgumentException("pca - there must be at least 2 observations (2 rows) in the data :");
 
-    Matrix average = mean(X);
-    //center the data by first removing the mean (average)
-    zeroMeanData = X.minus(tile(average,m,1));
+    //center the data by removing the mean of each column
+    double[][] centered = center(X);
+    zeroMeanData = new Matrix(centered,m,n);
 
-    SingularValueDecomposition2 svd = new SingularValueDecomposition2(zeroMeanData.arrayRightDivide(new Matrix(m,n,Math.sqrt((double)m - 1.0))));
-    
-    pca = svd.getV(); // PCA
-    zScores  = zeroMeanData.times(pca); //Z-Scores
-    Matrix temp = diag(svd.getS());
-    latent    = temp.arrayTimes(temp); //Eigenvalues of the covariance matrix of X
-
-    if(rank<n){
-      latent = mergeV(latent.getMatrix(0,rank-1,0,0) , new Matrix(n-rank,1));
-      zScores.setMatrix(0,m-1,rank,n-1,new Matrix(m,n-rank,0.0D));
-     }
-
-    Matrix temp2 = latent.getMatrix(0,rank-1,0,0);
-    Matrix ones  = new Matrix(temp2.getRowDimension(), temp2.getColumnDimension(),1.0D);
-
-    temp = sqrt(ones.arrayRightDivide(temp2)).transpose().times(zScores.getMatrix(0,m-1,0,rank-1).transpose());
-    hotellingTSquared = sum(temp.arrayTimes(temp)).transpose(); 
-    //Hotelling's T-squared statistic
-  }
-
-
-
-  /**
- * This method sums the elements of matrix 'S' along the column
- * @param S Matrix
- * @return Matrix
- */
-private  Matrix sum(Matrix S){
- double[][] internal = S.getArray();
- double[][] summing = null;
- double temp = 0.0;
-
- int row = S.getRowDimension();
- int col = S.getColumnDimension();
-
- summing = new double[1][col];
- for(int j=0 ; j<col ; j++){
-    for(int i=0 ; i<row ; i++){ temp += internal[i][j] ; }
-    summing[0][j] = temp;
-    temp = 0.0;
-  }
-  return new Matrix(summing);
-}
-
-
-  /**
-   * Taking the square-roots of each entry of matrix X
-   * @param X Matrix
-   * @return Matrix
-   */
-  private Matrix sqrt(Matrix X){
-    int m = X.getRowDimension();
-    int n = X.getColumnDimension();
-    double[][] xArray = X.getArray();
-    Matrix R = new Matrix(m,n);
-    double[][] C = R.getArray();
+    //only V and the singular values are used, so U is not generated
+    double divisor = Math.sqrt((double)m - 1.0);
+    double[][] scaled = new double[m][n];
     for(int i=0; i<m; i++){
       for(int j=0; j<n; j++){
-        C[i][j] = Math.sqrt(xArray[i][j]);
+        scaled[i][j] = centered[i][j] / divisor;
       }
     }
-    return R;
-  }
+    SingularValueDecomposition2 svd = new SingularValueDecomposition2(new Matrix(scaled,m,n),true,false,true);
+    double[] singularValues = svd.getSingularValues();
+    Matrix V = svd.getV();
+    double[][] components = V.getArray();
+    int numOfComponents = V.getColumnDimension();
+    double[] eigenvalues = new double[rank];
+    for(int i=0; i<rank; i++){
+      eigenvalues[i] = singularValues[i] * singularValues[i];
+    }
 
-  /**
-   * Merge two matrices vertically. If the 2 matrices have different 
-column numbers,
-   * an exception is thrown. Merging 'A' and 'B' lead to a larger matrix of:
-   *      /   \
-   *      | A |
-   *  C = |   |
-   *      | B |
-   *      \   /
-   *
-   * @param A Matrix
-   * @param B Matrix
-   * @return Matrix
-   */
-  private Matrix mergeV(Matrix A, Matrix B){
-    int m   = A.getRowDimension();
-    int n   = A.getColumnDimension();
-    int b_m = B.getRowDimension();
-    int b_n = B.getColumnDimension();
+    pca = new Matrix(components,n,numOfComponents); // PCA
+    zScores = new Matrix(DenseMultiply.times(centered,components,m,n,numOfComponents),m,numOfComponents); //Z-Scores
+    latent = new Matrix(n,1); //Eigenvalues of the covariance matrix of X
+    for(int i=0; i<rank; i++){
+      latent.set(i,0,eigenvalues[i]);
+    }
 
-    if(n!=b_n){
-      throw new IllegalArgumentException(" mergeV : Matrix column dimensions must agree (same).");
+    if(rank<numOfComponents){
+      zScores.setMatrix(0,m-1,rank,numOfComponents-1,new Matrix(m,numOfComponents-rank,0.0D));
      }
-    int newRow = m+b_m;
-    Matrix R = new Matrix(newRow,n);
-    R.setMatrix(0,m-1,0,n-1,A);
-    R.setMatrix(m,m+b_m-1,0,n-1,B);
-    return R;
+
+    //Hotelling's T-squared statistic - the sum of the squares of the z-scores, each divided by the variance of its component
+    //(the squares are summed one by one, so the result does not depend on the signs the decomposition gives the components)
+    hotellingTSquared = new Matrix(m,1);
+    double[][] scores = zScores.getArray();
+    for(int i=0; i<m; i++){
+      double tSquared = 0.0;
+      for(int c=0; c<rank; c++){
+        if(eigenvalues[c]>0.0){
+          tSquared += scores[i][c]*scores[i][c]/eigenvalues[c];
+        }
+      }
+      hotellingTSquared.set(i,0,tSquared);
+    }
   }
 
   /**
@@ -271,67 +229,21 @@ column numbers,
   }
 
   /**
-   * Tiling of matrix X in [rowWise by colWise] dimension. Tiling creates a larger
-   * matrix than the original data X. Example, if X is to be tiled in a 
-[3 x 4] manner, then
-   *     /            \
-   *     | X  X  X  X |
-   * C = | X  X  X  X |
-   *     | X  X  X  X |
-   *     \           /
+   * Subtracts the mean of each column of X, without building a matrix of the means
    * @param X Matrix
-   * @param rowWise int
-   * @param colWise int
-   * @return Matrix
+   * @return the centered data, a new m x n array
    */
-  private Matrix tile(Matrix X, int rowWise, int colWise){
-     double[][] xArray = X.getArray() ;
-     int countRow = 0, countColumn = 0;
-     int m = X.getRowDimension();
-     int n = X.getColumnDimension();
-
-     if( rowWise<1 || colWise<1 ){
-       throw new ArrayIndexOutOfBoundsException("tile : Array index is out-of-bound.");
-      }
-
-     int newRowDim = m*rowWise;
-     int newColDim = n*colWise;
-     double[][] result = new double[newRowDim][];
-
-     for(int i=0 ; i<newRowDim ; i++){
-       double[] holder = new double[newColDim];
-       for(int j=0 ; j<newColDim ; j++){
-          holder[j] = xArray[countRow][countColumn++];
-          //reset the column-index to zero to avoid reference to out-of-bound index in xArray[][]
-          if(countColumn == n){ countColumn = 0; }
-         }//end for
-       countRow++;
-       //reset the row-index to zero to avoid reference to out-of-bound index in xArray[][]
-       if(countRow == m){ countRow = 0; }
-       result[i] = holder;
-     }//end for
-
-      return new Matrix(result);
-   }
-
-   /**
-    * Return a column vector matrix where its elements are the main diagonals of X
-    * @param X Matrix
-    * @return Matrix
-    */
-   private Matrix diag(Matrix X){
-    int rows = X.getRowDimension();
-    int cols = X.getColumnDimension();
-
+  private double[][] center(Matrix X){
+    int m = X.getRowDimension();
+    int n = X.getColumnDimension();
+    double[][] average = mean(X).getArray();
     double[][] xArray = X.getArray();
-    int minDim = Math.min(rows,cols);
-
-    Matrix R = new Matrix(minDim,1);
-    double[][] C = R.getArray();
-
-    for(int i=0; i<minDim; i++){
-      C[i][0] = xArray[i][i];
+    double[][] centered = new double[m][n];
+    for(int i=0; i<m; i++){
+      for(int j=0; j<n; j++){
+        centered[i][j] = xArray[i][j] - average[0][j];
+      }
     }
-    return R;
+    return centered;
   }
-}
\ No newline at end of file
+}
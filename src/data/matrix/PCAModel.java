@@ -0,0 +1,40 @@
+package data.matrix;
+
+import data.SizedElement;
+
+/**
+ *
+ * Principal components of a matrix, fitted once (see MatrixElement.fitPCA) and then kept up to date when single entries of the data change.
+ * It is meant for the leave one out tests, where the PCA would otherwise be recalculated for every rating that is held out.
+ *
+ * The model keeps its own copy of the data, the mean of each column, the components and the projection of each row on them.
+ * When an entry changes only the mean of its column and the projection of its row are recalculated, and the scores of all the rows follow
+ * from them, so an update costs about as much as projecting one row.  The components are kept, since a change to one entry barely moves them,
+ * and they can be brought up to date with refine.
+ * The state of the model only depends on the data and the components, so putting back the original value of an entry gives the same scores as before
+ * (after resetComponents, if the components were refined).
+ *
+ * The components keep the orientation (the sign of each one) of the PCA the model was fitted with, and the scores and the similarities computed from
+ * them depend on it.  The exact PCA of the changed data can give some of its components the other sign (the SVD fixes it, not the data), so the scores
+ * of the model approximate the exact ones after each exact component is turned to the side of the component of the model.
+ *
+ * The model can be stored in the blackboard with the MatrixManager, like the matrices.
+ *
+ */
+public interface PCAModel extends SizedElement {
+	public int getNumOfComponents();
+	public int getNumOfRows();
+	public int getNumOfColumns();
+
+	// Changes the entry (row, col) of the data - the mean and the scores are updated, the components are kept
+	public void update(int row, int col, double value);
+	// One step of subspace iteration started from the current components, so that they follow the changes of the data - it costs about a product of the data by the components
+	public void refine();
+	// Puts back the components the model was fitted with, undoing refine
+	public void resetComponents();
+
+	// Scores of a row of data (with the same columns as the data of the model) on the components, after removing the mean of the data
+	public double[] project(double[] row);
+	// Scores of all the rows of the data - when the model was just fitted they are the same as the result of compressByPCA, up to rounding
+	public MatrixElement getScores(String name);
+}
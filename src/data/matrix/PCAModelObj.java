@@ -0,0 +1,205 @@
+package data.matrix;
+
+import Jama.Matrix;
+
+/**
+ *
+ * Implementation of the PCAModel.
+ *
+ * The scores of row r are (x_r - mean) V, which is kept as x_r V - mean V: the projection of each row (x_r V) and the projection of the mean (mean V)
+ * are stored, so when the entry (i,j) changes only the mean of column j, the projection of the mean and the projection of row i are recalculated.
+ * They are recalculated from the data, not corrected by the difference, so no rounding errors accumulate after many updates.
+ * The scores are those of the exact PCA of the current data up to the approximation of the components and up to the sign of each component (see PCAModel):
+ * the components of the fit keep their sign after the updates, and refine turns each new component to the side of the one it replaces.
+ *
+ * Note that the class is package private, it is created by MatrixElement.fitPCA
+ *
+ */
+final class PCAModelObj implements PCAModel {
+	// Local Variables
+	String _name;
+	double[][] _data;			// m x n - copy of the data the model was fitted with, with the updates
+	double[] _mean;				// Mean of each column of the data
+	double[][] _v;				// n x k - the components are the columns
+	double[][] _fittedV;		// Components the model was fitted with - refine replaces _v, it does not change its arrays
+	double[][] _projections;	// m x k - projection of each row of the data on the components
+	double[] _meanProjection;	// Projection of the mean on the components
+	String[] _rowNames;
+	String[] _componentNames;
+	int _m, _n, _k;
+
+	// Constructor - Package Private.  The model keeps the arrays, the caller hands over their ownership.
+	PCAModelObj(String name, double[][] data, int m, int n, double[][] components, int k, String[] rowNames) {
+		// Integrity checks
+		if (name=="")
+			throw new IllegalArgumentException("The name can't be null");
+		if ((data==null) || (components==null))
+			throw new IllegalArgumentException("The data and the components have to be valid objects");
+		if ((m<2) || (k<1) || (k>n))
+			throw new IllegalArgumentException("The model needs at least 2 rows and between 1 and " + n + " components");
+
+		// Sets the internal fields;
+		_name = name;
+		_data = data;
+		_v = components;
+		_fittedV = components;
+		_rowNames = rowNames;
+		_m = m;
+		_n = n;
+		_k = k;
+		_componentNames = new String[k];
+		for (int c=0; c<k; c++) {
+			_componentNames[c] = "PrincipalComponent" + (c+1);
+		}
+
+		_mean = new double[n];
+		for (int j=0; j<n; j++) {
+			updateMean(j);
+		}
+		_projections = new double[m][];
+		project();
+	}
+
+	public String getName() {return _name;}
+	public int getNumOfComponents() {return _k;}
+	public int getNumOfRows() {return _m;}
+	public int getNumOfColumns() {return _n;}
+
+	// The refined components are counted as well, the ones of the fit are kept
+	public long getSizeInBytes() {
+		return 8L * ((long) _m * _n + 2L * _n * _k + (long) _m * _k + _n + _k);
+	}
+
+	// The model is changed in place by update, so it is never evicted
+	public boolean isPinned() {return true;}
+	// It is always pinned
+	public void pin() {}
+
+	public void update(int row, int col, double value) {
+		if ((row<0) || (row>=_m) || (col<0) || (col>=_n))
+			throw new IllegalArgumentException("The entry (" + row + "," + col + ") is not in the data of the model");
+
+		_data[row][col] = value;
+		updateMean(col);
+		_meanProjection = multiply(_mean);
+		_projections[row] = multiply(_data[row]);
+	}
+
+	public void refine() {
+		// Basis of the scores of the centered data (Xc V = projections - mean projection)
+		double[][] qt = new double[_k][_m];
+		for (int i=0; i<_m; i++) {
+			for (int c=0; c<_k; c++) {
+				qt[c][i] = _projections[i][c] - _meanProjection[c];
+			}
+		}
+		DenseMultiply.orthonormalize(qt, _k, _m);
+
+		// New components from Xc'Q = X'Q - mean (1'Q), without building the centered data
+		double[][] zt = DenseMultiply.times(qt, _data, _k, _m, _n);
+		for (int c=0; c<_k; c++) {
+			double sum = 0;
+			for (int i=0; i<_m; i++) {
+				sum += qt[c][i];
+			}
+			for (int j=0; j<_n; j++) {
+				zt[c][j] -= sum * _mean[j];
+			}
+		}
+		DenseMultiply.orthonormalize(zt, _k, _n);
+
+		// The components are rotated inside the new space so that they are ordered by variance (the right singular vectors of Xc Z)
+		double[][] z = DenseMultiply.transpose(zt, _k, _n);
+		double[][] b = DenseMultiply.times(_data, z, _m, _n, _k);
+		double[] meanZ = new double[_k];
+		for (int c=0; c<_k; c++) {
+			for (int j=0; j<_n; j++) {
+				meanZ[c] += _mean[j] * z[j][c];
+			}
+		}
+		for (int i=0; i<_m; i++) {
+			for (int c=0; c<_k; c++) {
+				b[i][c] -= meanZ[c];
+			}
+		}
+		SingularValueDecomposition2 svd = new SingularValueDecomposition2(new Matrix(b, _m, _k), true, false, true);
+		double[][] v = DenseMultiply.times(z, svd.getV().getArray(), _n, _k, _k);
+
+		// The decomposition gives each component an arbitrary sign, and the similarities of the scores depend on it: each one is turned
+		// to the side of the component it replaces, so the components keep the orientation of the PCA the model was fitted with
+		for (int c=0; c<_k; c++) {
+			double dot = 0;
+			for (int j=0; j<_n; j++) {
+				dot += v[j][c] * _v[j][c];
+			}
+			if (dot < 0) {
+				for (int j=0; j<_n; j++) {
+					v[j][c] = -v[j][c];
+				}
+			}
+		}
+		_v = v;
+		project();
+	}
+
+	public void resetComponents() {
+		if (_v!=_fittedV) {
+			_v = _fittedV;
+			project();
+		}
+	}
+
+	public double[] project(double[] row) {
+		if ((row==null) || (row.length!=_n))
+			throw new IllegalArgumentException("The row has to have " + _n + " columns");
+
+		double[] scores = multiply(row);
+		for (int c=0; c<_k; c++) {
+			scores[c] -= _meanProjection[c];
+		}
+		return scores;
+	}
+
+	public MatrixElement getScores(String name) {
+		double[][] scores = new double[_m][_k];
+		for (int i=0; i<_m; i++) {
+			for (int c=0; c<_k; c++) {
+				scores[i][c] = _projections[i][c] - _meanProjection[c];
+			}
+		}
+		return new MatrixElement(name, scores, _componentNames, _rowNames);
+	}
+
+	// Recalculates the mean of the column from the data, in the same order as the PCA
+	private void updateMean(int col) {
+		double sum = 0;
+		for (int i=0; i<_m; i++) {
+			sum += _data[i][col];
+		}
+		_mean[col] = sum / _m;
+	}
+
+	// Recalculates the projections of all the rows and of the mean, after the components changed
+	private void project() {
+		double[][] projections = DenseMultiply.times(_data, _v, _m, _n, _k);
+		for (int i=0; i<_m; i++) {
+			_projections[i] = projections[i];
+		}
+		_meanProjection = multiply(_mean);
+	}
+
+	// Projection of a vector of n entries on the components
+	private double[] multiply(double[] x) {
+		double[] result = new double[_k];
+		for (int j=0; j<_n; j++) {
+			double xj = x[j];
+			if (xj!=0.0) {
+				double[] vj = _v[j];
+				for (int c=0; c<_k; c++) {
+					result[c] += xj * vj[c];
+				}
+			}
+		}
+		return result;
+	}
+}
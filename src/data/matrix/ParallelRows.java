@@ -0,0 +1,133 @@
+package data.matrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Splits a loop over the rows (or columns) of a matrix in ranges that are run by a pool of threads.
+ *
+ * Each range is run by a single thread and the ranges do not overlap, so as long as each range only writes its own rows the result
+ * does not depend on the number of threads.  Small loops (less work than the threshold) are run in the calling thread.
+ *
+ * All the loops share one pool with a thread per processor, which is created the first time it is needed.  When several threads run loops at the same time
+ * (ex. the experiments of the ExperimentRunner, each one calculating its own PCA) their ranges are queued in the same pool, so the machine is not
+ * oversubscribed with a pool per loop.  The calling thread runs the last range itself while it waits for the others.
+ * The threads of the pool are daemon threads, so the pool does not keep the program running.
+ * Note that a range must not start another parallel loop, since it could wait for ranges that are queued behind it.
+ *
+ * The loops are used by the DenseMultiply and the SingularValueDecomposition2.  The code outside of this package that splits its own work
+ * (ex. the similarities and the predictions of the recommender) runs its tasks in the same pool with runAll.
+ *
+ */
+public final class ParallelRows {
+	// Part of a loop that runs the rows fromRow (inclusive) to toRow (exclusive)
+	interface RowRange {
+		public void run(int fromRow, int toRow);
+	}
+
+	// Pool shared by all the loops
+	static final int NUM_OF_THREADS = Runtime.getRuntime().availableProcessors();
+	static ExecutorService _pool;
+
+	// Local Variables
+	long _threshold;		// Amount of work (ex. multiply-adds) from which a loop is split between the threads
+	int _minRows;			// Minimum number of rows of each range
+
+	// Constructor - Package Private
+	ParallelRows(long threshold, int minRows) {
+		_threshold = threshold;
+		_minRows = Math.max(1, minRows);
+	}
+
+	// Runs the loop over the rows fromRow (inclusive) to toRow (exclusive), split between the threads if the work is large enough
+	void run(final RowRange range, int fromRow, int toRow, long work) {
+		int rows = toRow - fromRow;
+		int numOfThreads = Math.min(NUM_OF_THREADS, (rows + _minRows - 1) / _minRows);
+		if ((work < _threshold) || (numOfThreads<=1)) {
+			range.run(fromRow, toRow);
+			return;
+		}
+
+		// The ranges are handed out in order, a few per thread so that the threads finish at about the same time
+		int rowsPerTask = Math.max(_minRows, (rows + 4*numOfThreads - 1) / (4*numOfThreads));
+		int lastRange = fromRow + ((rows - 1) / rowsPerTask) * rowsPerTask;
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int from=fromRow; from<lastRange; from+=rowsPerTask) {
+				final int first = from;
+				final int last = from+rowsPerTask;
+				results.add(getPool().submit(new Runnable() {
+					public void run() {
+						range.run(first, last);
+					}
+				}));
+			}
+			range.run(lastRange, toRow);
+			// Waits for all the ranges to be finished
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("The matrix computation was interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException("The matrix computation failed", e.getCause());
+		}
+	}
+
+	// Runs the tasks on at most numOfThreads threads of the shared pool, the calling thread being one of them, and waits until all of them are finished.
+	// Each thread takes the next task that has not been started, so the tasks can have different costs.  A worker that has not started when the
+	// tasks are finished is cancelled instead of waited for.  As with the loops, a task must not start another parallel loop.
+	public static void runAll(final List<Runnable> tasks, int numOfThreads) {
+		int numOfWorkers = Math.min(Math.min(numOfThreads, NUM_OF_THREADS), tasks.size());
+		final AtomicInteger next = new AtomicInteger();
+		Runnable worker = new Runnable() {
+			public void run() {
+				for (int t=next.getAndIncrement(); t<tasks.size(); t=next.getAndIncrement()) {
+					tasks.get(t).run();
+				}
+			}
+		};
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int w=1; w<numOfWorkers; w++) {
+				results.add(getPool().submit(worker));
+			}
+			worker.run();
+			// Waits for the workers that took a task to finish it
+			for (Future<?> result : results) {
+				if (!result.cancel(false))
+					result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("The parallel computation was interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException("The parallel computation failed", e.getCause());
+		}
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (_pool==null) {
+			_pool = Executors.newFixedThreadPool(NUM_OF_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "matrix");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return _pool;
+	}
+}
@@ -40,14 +40,19 @@ class SingularValueDecomposition2 {
    @serial row dimension.
    @serial column dimension.
    @serial U column dimension.
+   @serial V column dimension.
    */
-   private int m, n, ncu;
+   private int m, n, ncu, ncv;
    
    /** Column specification of matrix U
    @serial U column dimension toggle
    */
    
    private boolean thin;
+
+   /** Amount of work (multiply-adds) of a step from which it is split between the processors.
+   */
+   private static final long PARALLEL_THRESHOLD = 1L << 18;
    
 /* ------------------------
    Old Constructor
@@ -67,7 +72,8 @@ class SingularValueDecomposition2 {
 
    /** Construct the singular value decomposition
    @param Arg   Rectangular matrix
-   @param thin  If true U is economy sized
+   @param thin  If true U and V are economy sized (V only keeps the min(n,m+1) columns
+                that the iterations rotate, the other columns are unit vectors)
    @param wantu If true generate the U matrix
    @param wantv If true generate the V matrix
    @return      Structure to access U, S and V.
@@ -84,11 +90,16 @@ class SingularValueDecomposition2 {
       this.thin = thin;
       
       ncu = thin?Math.min(m,n):m;
+      ncv = thin?Math.min(n,m+1):n;
       s = new double [Math.min(m+1,n)];
       if (wantu) U = new double [m][ncu];
-      if (wantv) V = new double [n][n];
+      if (wantv) V = new double [n][ncv];
       double[] e = new double [n];
-      double[] work = new double [m];
+      
+      // The reflections of the large matrices are applied by the threads of the shared pool (see reflectColumns and reflectRows).
+      // The threads are only used until U and V are generated, the iterations for the singular values are sequential.
+      // Their rotations of V are recorded and applied by the threads in batches (see ColumnOperations).
+      ParallelRows parallel = new ParallelRows(PARALLEL_THRESHOLD, 8);
       
       // Reduce A to bidiagonal form, storing the diagonal elements
       // in s and the super-diagonal elements in e.
@@ -117,20 +128,13 @@ class SingularValueDecomposition2 {
             }
             s[k] = -s[k];
          }
-         for (int j = k+1; j < n; j++) {
-            if ((k < nct) & (s[k] != 0.0))  {
+         if ((k < nct) & (s[k] != 0.0))  {
 
             // Apply the transformation.
 
-               double t = 0;
-               for (int i = k; i < m; i++) {
-                  t += A[i][k]*A[i][j];
-               }
-               t = -t/A[k][k];
-               for (int i = k; i < m; i++) {
-                  A[i][j] += t*A[i][k];
-               }
-            }
+            reflectColumns(A, k, k, m, n, parallel);
+         }
+         for (int j = k+1; j < n; j++) {
 
             // Place the k-th row of A into e for the
             // subsequent calculation of the row transformation.
@@ -169,20 +173,7 @@ class SingularValueDecomposition2 {
 
             // Apply the transformation.
 
-               for (int i = k+1; i < m; i++) {
-                  work[i] = 0.0;
-               }
-               for (int j = k+1; j < n; j++) {
-                  for (int i = k+1; i < m; i++) {
-                     work[i] += e[j]*A[i][j];
-                  }
-               }
-               for (int j = k+1; j < n; j++) {
-                  double t = -e[j]/e[k+1];
-                  for (int i = k+1; i < m; i++) {
-                     A[i][j] += t*work[i];
-                  }
-               }
+               reflectRows(A, e, k, m, n, parallel);
             }
             if (wantv) {
 
@@ -219,16 +210,7 @@ class SingularValueDecomposition2 {
          }
          for (int k = nct-1; k >= 0; k--) {
             if (s[k] != 0.0) {
-               for (int j = k+1; j < ncu; j++) {
-                  double t = 0;
-                  for (int i = k; i < m; i++) {
-                     t += U[i][k]*U[i][j];
-                  }
-                  t = -t/U[k][k];
-                  for (int i = k; i < m; i++) {
-                     U[i][j] += t*U[i][k];
-                  }
-               }
+               reflectColumns(U, k, k, m, ncu, parallel);
                for (int i = k; i < m; i++ ) {
                   U[i][k] = -U[i][k];
                }
@@ -247,18 +229,9 @@ class SingularValueDecomposition2 {
 
       // If required, generate V.
       if (wantv) {
-         for (int k = n-1; k >= 0; k--) {
+         for (int k = ncv-1; k >= 0; k--) {
             if ((k < nrt) & (e[k] != 0.0)) {
-               for (int j = k+1; j < n; j++) {
-                  double t = 0;
-                  for (int i = k+1; i < n; i++) {
-                     t += V[i][k]*V[i][j];
-                  }
-                  t = -t/V[k+1][k];
-                  for (int i = k+1; i < n; i++) {
-                     V[i][j] += t*V[i][k];
-                  }
-               }
+               reflectColumns(V, k, k+1, n, ncv, parallel);
             }
             for (int i = 0; i < n; i++) {
                V[i][k] = 0.0;
@@ -269,6 +242,7 @@ class SingularValueDecomposition2 {
       
       // Main iteration loop for the singular values.
 
+      ColumnOperations columnsOfV = wantv ? new ColumnOperations(V, n, parallel) : null;
       int pp = p-1;
       int iter = 0;
       double eps = Math.pow(2.0,-52.0);
@@ -343,11 +317,7 @@ class SingularValueDecomposition2 {
                      e[j-1] = cs*e[j-1];
                   }
                   if (wantv) {
-                     for (int i = 0; i < n; i++) {
-                        t = cs*V[i][j] + sn*V[i][p-1];
-                        V[i][p-1] = -sn*V[i][j] + cs*V[i][p-1];
-                        V[i][j] = t;
-                     }
+                     columnsOfV.rotate(j, p-1, cs, sn);
                   }
                }
             }
@@ -417,11 +387,7 @@ class SingularValueDecomposition2 {
                   g = sn*s[j+1];
                   s[j+1] = cs*s[j+1];
                   if (wantv) {
-                     for (int i = 0; i < n; i++) {
-                        t = cs*V[i][j] + sn*V[i][j+1];
-                        V[i][j+1] = -sn*V[i][j] + cs*V[i][j+1];
-                        V[i][j] = t;
-                     }
+                     columnsOfV.rotate(j, j+1, cs, sn);
                   }
                   t = Maths.hypot(f,g);
                   cs = f/t;
@@ -453,9 +419,7 @@ class SingularValueDecomposition2 {
                if (s[k] <= 0.0) {
                   s[k] = (s[k] < 0.0 ? -s[k] : 0.0);
                   if (wantv) {
-                     for (int i = 0; i < n; i++) {
-                        V[i][k] = -V[i][k];
-                     }
+                     columnsOfV.negate(k);
                   }
                }
    
@@ -469,9 +433,7 @@ class SingularValueDecomposition2 {
                   s[k] = s[k+1];
                   s[k+1] = t;
                   if (wantv && (k < n-1)) {
-                     for (int i = 0; i < n; i++) {
-                        t = V[i][k+1]; V[i][k+1] = V[i][k]; V[i][k] = t;
-                     }
+                     columnsOfV.swap(k, k+1);
                   }
                   if (wantu && (k < m-1)) {
                      for (int i = 0; i < m; i++) {
@@ -486,6 +448,9 @@ class SingularValueDecomposition2 {
             break;
          }
       }
+      if (wantv) {
+         columnsOfV.apply();
+      }
       A = null;
    }
    
@@ -506,7 +471,7 @@ class SingularValueDecomposition2 {
    */
 
    public Matrix getV () {
-      return V==null?null:new Matrix(V,n,n);
+      return V==null?null:new Matrix(V,n,ncv);
    }
 
    /** Return the one-dimensional array of singular values
@@ -598,4 +563,165 @@ class SingularValueDecomposition2 {
       }
       return r;
    }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Apply the Householder reflection stored in column k of X (rows r0 to rows-1)
+   to the columns k+1 to cols-1: column j gets t*X[i][k] added, with
+   t = -(sum of X[i][k]*X[i][j]) / X[r0][k].
+   The matrix is read row by row instead of column by column, which follows the
+   storage of the rows.  Each sum is still accumulated from row r0 down, so the
+   result is exactly the same as the column by column loops of JAMA.
+   The sums are split by columns and the updates by rows between the threads.
+   */
+
+   private static void reflectColumns (final double[][] X, final int k, final int r0,
+         final int rows, final int cols, ParallelRows parallel) {
+      if (k+1 >= cols) {
+         return;
+      }
+      final double[] t = new double [cols];
+      long work = (long)(rows-r0)*(cols-k-1);
+      parallel.run(new ParallelRows.RowRange() {
+         public void run(int fromCol, int toCol) {
+            for (int i = r0; i < rows; i++) {
+               double[] row = X[i];
+               double xik = row[k];
+               for (int j = fromCol; j < toCol; j++) {
+                  t[j] += xik*row[j];
+               }
+            }
+         }
+      }, k+1, cols, work);
+      double pivot = X[r0][k];
+      for (int j = k+1; j < cols; j++) {
+         t[j] = -t[j]/pivot;
+      }
+      parallel.run(new ParallelRows.RowRange() {
+         public void run(int fromRow, int toRow) {
+            for (int i = fromRow; i < toRow; i++) {
+               double[] row = X[i];
+               double xik = row[k];
+               for (int j = k+1; j < cols; j++) {
+                  row[j] += t[j]*xik;
+               }
+            }
+         }
+      }, r0, rows, work);
+   }
+
+   /** Apply the k-th row transformation (stored in e[k+1] to e[n-1]) to the rows
+   k+1 to m-1 of A.  Each row is transformed independently, so the rows are split
+   between the threads.  The result is exactly the same as the loops of JAMA.
+   */
+
+   private static void reflectRows (final double[][] A, final double[] e, final int k,
+         final int m, final int n, ParallelRows parallel) {
+      final double[] t = new double [n];
+      for (int j = k+1; j < n; j++) {
+         t[j] = -e[j]/e[k+1];
+      }
+      parallel.run(new ParallelRows.RowRange() {
+         public void run(int fromRow, int toRow) {
+            for (int i = fromRow; i < toRow; i++) {
+               double[] row = A[i];
+               double work = 0.0;
+               for (int j = k+1; j < n; j++) {
+                  work += e[j]*row[j];
+               }
+               for (int j = k+1; j < n; j++) {
+                  row[j] += t[j]*work;
+               }
+            }
+         }
+      }, k+1, m, (long)(m-k-1)*(n-k-1));
+   }
+
+   /** The rotations, sign changes and swaps of the columns of V made by the iterations for
+   the singular values.  Going over all the rows of V for each of them reads a column of
+   the rows, so they are recorded, and applied in batches row by row: each row is kept in
+   the cache while it receives the whole batch, and the rows are split between the threads.
+   Each row receives the operations in the order in which they were made, so the result is
+   exactly the same as the loops of JAMA.
+   */
+
+   private static final class ColumnOperations {
+      private static final int CAPACITY = 4096;
+      private static final int ROTATE = 0, NEGATE = 1, SWAP = 2;
+      private final double[][] X;
+      private final int rows;
+      private final ParallelRows parallel;
+      private final int[] kind = new int [CAPACITY];
+      private final int[] first = new int [CAPACITY];
+      private final int[] second = new int [CAPACITY];
+      private final double[] cos = new double [CAPACITY];
+      private final double[] sin = new double [CAPACITY];
+      private int count;
+
+      ColumnOperations (double[][] X, int rows, ParallelRows parallel) {
+         this.X = X;
+         this.rows = rows;
+         this.parallel = parallel;
+      }
+
+      /** Column j becomes cs*(column j) + sn*(column k), and column k becomes -sn*(column j) + cs*(column k) */
+      void rotate (int j, int k, double cs, double sn) {
+         add(ROTATE, j, k, cs, sn);
+      }
+
+      void negate (int k) {
+         add(NEGATE, k, k, 0.0, 0.0);
+      }
+
+      void swap (int j, int k) {
+         add(SWAP, j, k, 0.0, 0.0);
+      }
+
+      private void add (int operation, int j, int k, double cs, double sn) {
+         if (count == CAPACITY) {
+            apply();
+         }
+         kind[count] = operation;
+         first[count] = j;
+         second[count] = k;
+         cos[count] = cs;
+         sin[count] = sn;
+         count++;
+      }
+
+      /** Apply the recorded operations to X and clear them */
+      void apply () {
+         final int operations = count;
+         if (operations == 0) {
+            return;
+         }
+         parallel.run(new ParallelRows.RowRange() {
+            public void run(int fromRow, int toRow) {
+               for (int i = fromRow; i < toRow; i++) {
+                  double[] row = X[i];
+                  for (int o = 0; o < operations; o++) {
+                     int j = first[o];
+                     int k = second[o];
+                     double t;
+                     switch (kind[o]) {
+                        case ROTATE:
+                           t = cos[o]*row[j] + sin[o]*row[k];
+                           row[k] = -sin[o]*row[j] + cos[o]*row[k];
+                           row[j] = t;
+                           break;
+                        case NEGATE:
+                           row[k] = -row[k];
+                           break;
+                        default:
+                           t = row[k]; row[k] = row[j]; row[j] = t;
+                     }
+                  }
+               }
+            }
+         }, 0, rows, (long)rows*operations);
+         count = 0;
+      }
+   }
 }
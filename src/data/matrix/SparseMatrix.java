@@ -0,0 +1,462 @@
+package data.matrix;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Compressed sparse storage used by the MatrixElement when most of the entries of a matrix are zero (ex. the SxT matrix).
+ * The non-zero entries are kept in compressed-row (CSR) form: for row i, the entries are at positions rowPtr[i] .. rowPtr[i+1]-1
+ * of the colIdx and values arrays, and the column indices of each row are sorted in ascending order.
+ * The compressed-column (CSC) form is built lazily, the first time a column oriented operation needs it.
+ *
+ * Note that the class is package private, all access from outside of the package is done via the MatrixElement
+ *
+ */
+final class SparseMatrix {
+	// Dimensions of the matrix
+	int _numRows;
+	int _numCols;
+
+	// Compressed row storage
+	int[] _rowPtr;
+	int[] _colIdx;
+	double[] _values;
+	boolean _sharedValues;	// true if the values are shared with another matrix (ex. a transpose or a view) - they are copied before an entry is changed in place
+
+	// Compressed column storage - built on demand.  The three arrays are published together through a volatile reference, so a thread that
+	// finds the storage built also sees all of its arrays filled, even if it was built by another thread.
+	volatile ColumnStorage _columns;
+
+	static final class ColumnStorage {
+		final int[] _colPtr;
+		final int[] _rowIdx;
+		final double[] _colValues;
+
+		ColumnStorage(int[] colPtr, int[] rowIdx, double[] colValues) {
+			_colPtr = colPtr;
+			_rowIdx = rowIdx;
+			_colValues = colValues;
+		}
+	}
+
+	// Constructor - Package Private.  The arrays are not copied, the caller hands over their ownership.
+	SparseMatrix(int numRows, int numCols, int[] rowPtr, int[] colIdx, double[] values) {
+		// Integrity checks
+		if ((numRows<0) || (numCols<0))
+			throw new IllegalArgumentException("The dimensions of the matrix have to be >= 0");
+		if ((rowPtr==null) || (rowPtr.length!=numRows+1))
+			throw new IllegalArgumentException("The row pointers vector has to be one larger than the number of rows");
+		if ((colIdx==null) || (values==null) || (colIdx.length < rowPtr[numRows]) || (values.length < rowPtr[numRows]))
+			throw new IllegalArgumentException("The column indices and values vectors have to hold all the non-zero entries");
+
+		// Sets the internal fields;
+		_numRows = numRows;
+		_numCols = numCols;
+		_rowPtr = rowPtr;
+		_colIdx = colIdx;
+		_values = values;
+	}
+
+	// Memory used by the arrays of the matrix, including the compressed column storage if it has been built
+	long getSizeInBytes() {
+		long size = 4L*_rowPtr.length + 4L*_colIdx.length + 8L*_values.length;
+		ColumnStorage columns = _columns;
+		if (columns!=null)
+			size += 4L*columns._colPtr.length + 4L*columns._rowIdx.length + 8L*columns._colValues.length;
+		return size;
+	}
+
+	// Builds the sparse representation of a dense array - only the non-zero entries are kept
+	static SparseMatrix fromDense(double[][] matrix, int numCols) {
+		int numRows = matrix.length;
+		int[] rowPtr = new int[numRows+1];
+
+		// First pass counts the non-zeros so the arrays can be allocated with the exact size
+		for (int i=0; i<numRows; i++) {
+			int count = 0;
+			for (int j=0; j<numCols; j++) {
+				if (matrix[i][j]!=0.0)
+					count++;
+			}
+			rowPtr[i+1] = rowPtr[i] + count;
+		}
+
+		// Second pass copies the non-zero entries
+		int[] colIdx = new int[rowPtr[numRows]];
+		double[] values = new double[rowPtr[numRows]];
+		int k = 0;
+		for (int i=0; i<numRows; i++) {
+			for (int j=0; j<numCols; j++) {
+				if (matrix[i][j]!=0.0) {
+					colIdx[k] = j;
+					values[k] = matrix[i][j];
+					k++;
+				}
+			}
+		}
+		return new SparseMatrix(numRows, numCols, rowPtr, colIdx, values);
+	}
+
+	int getNumRows() {return _numRows;}
+	int getNumCols() {return _numCols;}
+	int getNumNonZeros() {return _rowPtr[_numRows];}
+
+	// Returns the entry (i,j) - a binary search is done over the sorted column indices of the row
+	double get(int i, int j) {
+		int k = Arrays.binarySearch(_colIdx, _rowPtr[i], _rowPtr[i+1], j);
+		return (k<0) ? 0.0 : _values[k];
+	}
+
+	// In place updates - used to keep the matrices built from the basic elements up to date.
+	// Other matrices can share the row pointers and column indices of this one (ex. the ones created by withValues), so when the
+	// structure of the matrix changes new arrays are created instead of modifying the shared ones.  Changing the value of an existing entry is done in place,
+	// unless the values are shared as well (ex. with a transpose or a view), then they are copied first.
+
+	// Sets the entry (i,j) - a zero removes the entry, so the matrix only keeps the non-zero entries
+	void set(int i, int j, double value) {
+		int k = Arrays.binarySearch(_colIdx, _rowPtr[i], _rowPtr[i+1], j);
+		if (k>=0) {
+			if (value!=0.0) {
+				if (_sharedValues) {
+					_values = Arrays.copyOf(_values, getNumNonZeros());
+					_sharedValues = false;
+				}
+				_values[k] = value;
+			} else {
+				changeStructure(i, k, -1, j, 0.0);
+			}
+		} else if (value!=0.0) {
+			changeStructure(i, -(k+1), 1, j, value);
+		}
+		_columns = null;
+	}
+
+	// Adds an empty row at the end of the matrix
+	void appendRow() {
+		int[] rowPtr = Arrays.copyOf(_rowPtr, _numRows+2);
+		rowPtr[_numRows+1] = rowPtr[_numRows];
+		_rowPtr = rowPtr;
+		_numRows++;
+		_columns = null;
+	}
+
+	// Adds an empty column at the end of the matrix - the compressed rows do not change
+	void appendColumn() {
+		_numCols++;
+		_columns = null;
+	}
+
+	// Inserts (delta=1) or removes (delta=-1) the entry at position k, which belongs to row i
+	private void changeStructure(int i, int k, int delta, int j, double value) {
+		int nnz = getNumNonZeros();
+		int[] rowPtr = new int[_numRows+1];
+		int[] colIdx = new int[nnz+delta];
+		double[] values = new double[nnz+delta];
+		System.arraycopy(_rowPtr, 0, rowPtr, 0, i+1);
+		for (int r=i+1; r<=_numRows; r++) {
+			rowPtr[r] = _rowPtr[r] + delta;
+		}
+		System.arraycopy(_colIdx, 0, colIdx, 0, k);
+		System.arraycopy(_values, 0, values, 0, k);
+		if (delta>0) {
+			colIdx[k] = j;
+			values[k] = value;
+			System.arraycopy(_colIdx, k, colIdx, k+1, nnz-k);
+			System.arraycopy(_values, k, values, k+1, nnz-k);
+		} else {
+			System.arraycopy(_colIdx, k+1, colIdx, k, nnz-k-1);
+			System.arraycopy(_values, k+1, values, k, nnz-k-1);
+		}
+		_rowPtr = rowPtr;
+		_colIdx = colIdx;
+		_values = values;
+		_sharedValues = false;
+	}
+
+	// Creates the dense representation of the matrix
+	double[][] toDense() {
+		double[][] matrix = new double[_numRows][_numCols];
+		for (int i=0; i<_numRows; i++) {
+			for (int k=_rowPtr[i]; k<_rowPtr[i+1]; k++) {
+				matrix[i][_colIdx[k]] = _values[k];
+			}
+		}
+		return matrix;
+	}
+
+	// Returns the compressed column storage, building it from the compressed row storage the first time.
+	// Since the rows are visited in ascending order, the row indices of each column end up sorted as well.
+	// Two threads can build it at the same time, then both build the same arrays and either one is kept.
+	ColumnStorage getColumnStorage() {
+		ColumnStorage columns = _columns;
+		if (columns!=null)
+			return columns;
+
+		int nnz = getNumNonZeros();
+		int[] colPtr = new int[_numCols+1];
+		int[] rowIdx = new int[nnz];
+		double[] colValues = new double[nnz];
+
+		// Counts the entries of each column
+		for (int k=0; k<nnz; k++) {
+			colPtr[_colIdx[k]+1]++;
+		}
+		for (int j=0; j<_numCols; j++) {
+			colPtr[j+1] += colPtr[j];
+		}
+
+		// Scatters the entries into their columns
+		int[] next = Arrays.copyOf(colPtr, _numCols);
+		for (int i=0; i<_numRows; i++) {
+			for (int k=_rowPtr[i]; k<_rowPtr[i+1]; k++) {
+				int pos = next[_colIdx[k]]++;
+				rowIdx[pos] = i;
+				colValues[pos] = _values[k];
+			}
+		}
+
+		columns = new ColumnStorage(colPtr, rowIdx, colValues);
+		_columns = columns;
+		return columns;
+	}
+
+	// The compressed column storage of a matrix is the compressed row storage of its transpose
+	SparseMatrix transpose() {
+		ColumnStorage columns = getColumnStorage();
+		SparseMatrix result = new SparseMatrix(_numCols, _numRows, columns._colPtr, columns._rowIdx, columns._colValues);
+
+		// The row storage of this matrix is also the column storage of the transpose, so it is shared as well.
+		// Both matrices copy their values before changing them, so that the row and column storage of the other one still match.
+		result._columns = new ColumnStorage(_rowPtr, _colIdx, _values);
+		result._sharedValues = true;
+		_sharedValues = true;
+		return result;
+	}
+
+	// Rows fromRow (inclusive) to toRow (exclusive), with the row pointers rebased to start at zero.
+	// If the rows start at the first one the column indices and values are shared (the arrays can be longer than the entries), otherwise only the entries of the rows are copied.
+	SparseMatrix getRows(int fromRow, int toRow) {
+		int start = _rowPtr[fromRow];
+		int end = _rowPtr[toRow];
+		int[] rowPtr = new int[toRow-fromRow+1];
+		for (int i=fromRow; i<=toRow; i++) {
+			rowPtr[i-fromRow] = _rowPtr[i] - start;
+		}
+		if (start==0) {
+			SparseMatrix result = new SparseMatrix(toRow-fromRow, _numCols, rowPtr, _colIdx, _values);
+			result._sharedValues = true;
+			_sharedValues = true;
+			return result;
+		}
+		return new SparseMatrix(toRow-fromRow, _numCols, rowPtr, Arrays.copyOfRange(_colIdx, start, end), Arrays.copyOfRange(_values, start, end));
+	}
+
+	// Gathers the entries of the selected columns - position[j] is the column of the result for the column j of this matrix, or -1 if it is not selected
+	SparseMatrix getColumns(int[] position, int numCols) {
+		RowBuilder builder = new RowBuilder(_numRows, numCols);
+		for (int i=0; i<_numRows; i++) {
+			for (int k=_rowPtr[i]; k<_rowPtr[i+1]; k++) {
+				int c = position[_colIdx[k]];
+				if (c>=0)
+					builder.set(c, _values[k]);
+			}
+			builder.endRow();
+		}
+		return builder.build();
+	}
+
+	// Multiplies every entry by a scalar - the structure is shared, only the values are copied
+	SparseMatrix times(double s) {
+		int nnz = getNumNonZeros();
+		double[] values = new double[nnz];
+		for (int k=0; k<nnz; k++) {
+			values[k] = _values[k] * s;
+		}
+		return new SparseMatrix(_numRows, _numCols, _rowPtr, _colIdx, values);
+	}
+
+	// Sparse x Sparse multiplication (Gustavson's algorithm): each row of the result is accumulated in a dense work row,
+	// but only the columns that were touched are visited when the row is compressed.
+	SparseMatrix times(SparseMatrix m) {
+		if (_numCols!=m._numRows)
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+
+		int[] rowPtr = new int[_numRows+1];
+		int[] colIdx = new int[Math.max(16, getNumNonZeros())];
+		double[] values = new double[colIdx.length];
+
+		double[] work = new double[m._numCols];
+		boolean[] used = new boolean[m._numCols];
+		int[] touched = new int[m._numCols];
+
+		int nnz = 0;
+		for (int i=0; i<_numRows; i++) {
+			int numTouched = 0;
+			for (int ka=_rowPtr[i]; ka<_rowPtr[i+1]; ka++) {
+				double a = _values[ka];
+				int k = _colIdx[ka];
+				for (int kb=m._rowPtr[k]; kb<m._rowPtr[k+1]; kb++) {
+					int j = m._colIdx[kb];
+					if (!used[j]) {
+						used[j] = true;
+						touched[numTouched++] = j;
+					}
+					work[j] += a * m._values[kb];
+				}
+			}
+
+			// The columns have to be sorted in the compressed row
+			Arrays.sort(touched, 0, numTouched);
+			if (nnz + numTouched > colIdx.length) {
+				int size = Math.max(colIdx.length * 2, nnz + numTouched);
+				colIdx = Arrays.copyOf(colIdx, size);
+				values = Arrays.copyOf(values, size);
+			}
+			for (int t=0; t<numTouched; t++) {
+				int j = touched[t];
+				if (work[j]!=0.0) {
+					colIdx[nnz] = j;
+					values[nnz] = work[j];
+					nnz++;
+				}
+				work[j] = 0.0;
+				used[j] = false;
+			}
+			rowPtr[i+1] = nnz;
+		}
+		return new SparseMatrix(_numRows, m._numCols, rowPtr, colIdx, values);
+	}
+
+	// Sparse x Dense multiplication - only the non-zeros of this matrix are visited
+	double[][] times(double[][] m, int mCols) {
+		if (_numCols!=m.length)
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+
+		double[][] result = new double[_numRows][mCols];
+		for (int i=0; i<_numRows; i++) {
+			double[] row = result[i];
+			for (int ka=_rowPtr[i]; ka<_rowPtr[i+1]; ka++) {
+				double a = _values[ka];
+				double[] mRow = m[_colIdx[ka]];
+				for (int j=0; j<mCols; j++) {
+					row[j] += a * mRow[j];
+				}
+			}
+		}
+		return result;
+	}
+
+	// Creates a new matrix with the same structure, where each stored entry has been replaced by the given values.
+	// Entries that became zero are dropped from the structure.
+	SparseMatrix withValues(double[] values) {
+		int nnz = getNumNonZeros();
+		int count = 0;
+		for (int k=0; k<nnz; k++) {
+			if (values[k]!=0.0)
+				count++;
+		}
+		if (count==nnz) {
+			return new SparseMatrix(_numRows, _numCols, _rowPtr, _colIdx, values);
+		}
+
+		int[] rowPtr = new int[_numRows+1];
+		int[] colIdx = new int[count];
+		double[] newValues = new double[count];
+		int pos = 0;
+		for (int i=0; i<_numRows; i++) {
+			for (int k=_rowPtr[i]; k<_rowPtr[i+1]; k++) {
+				if (values[k]!=0.0) {
+					colIdx[pos] = _colIdx[k];
+					newValues[pos] = values[k];
+					pos++;
+				}
+			}
+			rowPtr[i+1] = pos;
+		}
+		return new SparseMatrix(_numRows, _numCols, rowPtr, colIdx, newValues);
+	}
+
+	/**
+	 *
+	 * Helper that builds a sparse matrix one row at a time.
+	 * The entries of the current row are accumulated in a dense work row, and compressed (sorted by column) when the row is finished.
+	 * 
+	 */
+	static final class RowBuilder {
+		int _numRows;
+		int _numCols;
+		int _currentRow = 0;
+		int _nnz = 0;
+		int[] _rowPtr;
+		int[] _colIdx;
+		double[] _values;
+		
+		// Work row
+		double[] _work;
+		boolean[] _used;
+		int[] _touched;
+		int _numTouched = 0;
+		
+		RowBuilder(int numRows, int numCols) {
+			_numRows = numRows;
+			_numCols = numCols;
+			_rowPtr = new int[numRows+1];
+			_colIdx = new int[16];
+			_values = new double[16];
+			_work = new double[numCols];
+			_used = new boolean[numCols];
+			_touched = new int[numCols];
+		}
+		
+		// Adds the value to the entry j of the current row
+		void add(int j, double value) {
+			touch(j);
+			_work[j] += value;
+		}
+		
+		// Overwrites the entry j of the current row
+		void set(int j, double value) {
+			touch(j);
+			_work[j] = value;
+		}
+		
+		private void touch(int j) {
+			if (!_used[j]) {
+				_used[j] = true;
+				_touched[_numTouched++] = j;
+			}
+		}
+		
+		// Compresses the current row and moves on to the next one
+		void endRow() {
+			if (_currentRow>=_numRows)
+				throw new IllegalArgumentException("All the rows of the matrix have already been built");
+			
+			Arrays.sort(_touched, 0, _numTouched);
+			if (_nnz + _numTouched > _colIdx.length) {
+				int size = Math.max(_colIdx.length * 2, _nnz + _numTouched);
+				_colIdx = Arrays.copyOf(_colIdx, size);
+				_values = Arrays.copyOf(_values, size);
+			}
+			for (int t=0; t<_numTouched; t++) {
+				int j = _touched[t];
+				if (_work[j]!=0.0) {
+					_colIdx[_nnz] = j;
+					_values[_nnz] = _work[j];
+					_nnz++;
+				}
+				_work[j] = 0.0;
+				_used[j] = false;
+			}
+			_numTouched = 0;
+			_currentRow++;
+			_rowPtr[_currentRow] = _nnz;
+		}
+		
+		SparseMatrix build() {
+			if (_currentRow!=_numRows)
+				throw new IllegalArgumentException("Not all the rows of the matrix have been built");
+			return new SparseMatrix(_numRows, _numCols, _rowPtr, Arrays.copyOf(_colIdx, _nnz), Arrays.copyOf(_values, _nnz));
+		}
+	}
+}
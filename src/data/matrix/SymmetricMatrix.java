@@ -0,0 +1,133 @@
+package data.matrix;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ *
+ * Packed storage for symmetric square matrices (ex. the similarities between the stakeholders).
+ * Only the upper triangle, including the diagonal, is stored: row i holds the entries (i,i) .. (i,size-1) one after the other,
+ * starting at position getOffset(size, i).  The entry (j,i) below the diagonal is read from (i,j).
+ *
+ * The values are kept either in double precision or, to use half of the memory again, in single precision (float).
+ * A matrix read back from a spill file (see MatrixSpillFile) keeps its values in the file instead: they are read from the mapped windows of the file,
+ * so they do not use the heap, and only the rows that are read are paged in.
+ *
+ * Note that the class is package private, all access from outside of the package is done via the MatrixElement
+ *
+ */
+final class SymmetricMatrix {
+	// Local Variables
+	int _size;
+	double[] _values;	// null if the matrix is stored in single precision or mapped
+	float[] _floats;	// null if the matrix is stored in double precision or mapped
+	DoubleBuffer[] _mappedValues;	// Windows of the file when the values are mapped in double precision - null otherwise
+	FloatBuffer[] _mappedFloats;	// Same, in single precision
+	int _windowShift;	// Each window has 1<<_windowShift entries
+
+	// Constructors - Package Private.  The arrays are not copied, the caller hands over their ownership.
+	SymmetricMatrix(int size, double[] values) {
+		checkLength(size, (values==null) ? -1 : values.length);
+		_size = size;
+		_values = values;
+	}
+	SymmetricMatrix(int size, float[] floats) {
+		checkLength(size, (floats==null) ? -1 : floats.length);
+		_size = size;
+		_floats = floats;
+	}
+	// The windows hold the packed entries in order, all of them with 1<<windowShift entries except the last one
+	SymmetricMatrix(int size, DoubleBuffer[] windows, int windowShift) {
+		getPackedLength(size);
+		_size = size;
+		_mappedValues = windows;
+		_windowShift = windowShift;
+	}
+	SymmetricMatrix(int size, FloatBuffer[] windows, int windowShift) {
+		getPackedLength(size);
+		_size = size;
+		_mappedFloats = windows;
+		_windowShift = windowShift;
+	}
+
+	// Number of entries stored for a matrix of the given size - it has to fit in an array (see fitsInArray)
+	static int getPackedLength(int size) {
+		if (!fitsInArray(size))
+			throw new IllegalArgumentException("A symmetric matrix of size " + size + " can not be packed in an array");
+		return (int) ((long) size * (size+1) / 2);
+	}
+
+	// True if the packed entries of a matrix of the given size fit in an array, which is up to a size of 65,535.
+	// The larger matrices have to be kept in dense (or sparse) storage.
+	static boolean fitsInArray(int size) {
+		return (size>=0) && ((long) size * (size+1) / 2 <= Integer.MAX_VALUE);
+	}
+
+	// Position of the entry (i,i), the first entry of row i
+	static int getOffset(int size, int i) {
+		return (int) ((long) i * size - (long) i * (i-1) / 2);
+	}
+
+	int getSize() {return _size;}
+	boolean isSinglePrecision() {return (_floats!=null) || (_mappedFloats!=null);}
+	boolean isMapped() {return (_mappedValues!=null) || (_mappedFloats!=null);}
+
+	double get(int i, int j) {
+		int pos = (i<=j) ? getOffset(_size, i) + (j-i) : getOffset(_size, j) + (i-j);
+		return value(pos);
+	}
+
+	// Entry at the position of the packed array
+	double value(int pos) {
+		if (_values!=null)
+			return _values[pos];
+		if (_floats!=null)
+			return _floats[pos];
+		int index = pos & ((1 << _windowShift) - 1);
+		return (_mappedValues!=null) ? _mappedValues[pos >>> _windowShift].get(index) : _mappedFloats[pos >>> _windowShift].get(index);
+	}
+
+	// Copies row i into the array - the entries before the diagonal are read from the rows above, the rest are contiguous
+	void getRow(int i, double[] row) {
+		for (int j=0; j<i; j++) {
+			row[j] = value(getOffset(_size, j) + (i-j));
+		}
+		int offset = getOffset(_size, i) - i;
+		if (_values!=null) {
+			System.arraycopy(_values, offset+i, row, i, _size-i);
+		} else if (_floats!=null) {
+			for (int j=i; j<_size; j++) {
+				row[j] = _floats[offset+j];
+			}
+		} else {
+			for (int j=i; j<_size; j++) {
+				row[j] = value(offset+j);
+			}
+		}
+	}
+
+	double[][] toDense() {
+		double[][] matrix = new double[_size][_size];
+		for (int i=0; i<_size; i++) {
+			int offset = getOffset(_size, i) - i;
+			for (int j=i; j<_size; j++) {
+				double value = value(offset+j);
+				matrix[i][j] = value;
+				matrix[j][i] = value;
+			}
+		}
+		return matrix;
+	}
+
+	// Heap used by the values - the values of a mapped matrix are in the file, not in the heap
+	long getSizeInBytes() {
+		if (isMapped())
+			return 0;
+		return (_values!=null) ? 8L*_values.length : 4L*_floats.length;
+	}
+
+	private static void checkLength(int size, int length) {
+		if (length!=getPackedLength(size))
+			throw new IllegalArgumentException("The packed array of a symmetric matrix of size " + size + " has to have size*(size+1)/2 entries");
+	}
+}
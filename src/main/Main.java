@@ -1,5 +1,6 @@
 package main;
 
+import java.io.File;
 import java.util.GregorianCalendar;
 import agents.*;
 import agents.AgentStaticFactory;
@@ -20,8 +21,17 @@ public class Main {
 		try{
 			System.out.println("Start Time: " + (new GregorianCalendar()).getTime().toString() );		
 			
-			// Creates the common repository
-			Blackboard blackboard = BlackboardStaticFactory.newBlackboard();
+			// Creates the common repository - the agents can run several experiments on it at the same time
+			// If a memory budget (in MB) is given, the matrices that can be rebuilt are evicted when the budget is exceeded
+			// If a spill directory is also given, the evicted matrices are written to it instead of being rebuilt
+			Blackboard blackboard;
+			if (args.length>2) {
+				blackboard = BlackboardStaticFactory.newBoundedBlackboard(Long.parseLong(args[1]) * 1024 * 1024, new File(args[2]));
+			} else if (args.length>1) {
+				blackboard = BlackboardStaticFactory.newBoundedBlackboard(Long.parseLong(args[1]) * 1024 * 1024);
+			} else {
+				blackboard = BlackboardStaticFactory.newConcurrentBlackboard();
+			}
 			
 			// Instantiates an agent based on the commandline parameter
 			Agent a = AgentStaticFactory.getAgent(args[0], blackboard);
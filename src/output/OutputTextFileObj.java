@@ -164,11 +164,11 @@ final class OutputTextFileObj implements Output{
 	}
 	
 	public void writeMatrices() throws IOException {
-		writeMatrix(_matrixManager.getStakeholdersNeedsMatrix(true));
-		writeMatrix(_matrixManager.getNeedsTermsMatrix(true));
-		writeMatrix(_matrixManager.getStakeholdersTermsMatrix(true));
-		writeMatrix(_matrixManager.getStakeholdersForumsMatrix(true));
-		writeMatrix(_matrixManager.getNeedsForumsMatrix(true));
+		writeMatrix(_matrixManager.getStakeholdersNeedsMatrix(false));
+		writeMatrix(_matrixManager.getNeedsTermsMatrix(false));
+		writeMatrix(_matrixManager.getStakeholdersTermsMatrix(false));
+		writeMatrix(_matrixManager.getStakeholdersForumsMatrix(false));
+		writeMatrix(_matrixManager.getNeedsForumsMatrix(false));
 	}
 	
 	public void writeMatrix(MatrixElement matrix) throws IOException{
@@ -183,7 +183,8 @@ final class OutputTextFileObj implements Output{
 		
 		int rows = matrix.getNumRows();
 		int cols = matrix.getNumCols();
-		double[][] matrixData = matrix.getArray();
+		// The matrix is read one row at a time, so a sparse or packed matrix is not converted to dense storage (and is not pinned)
+		double[] row = new double[cols];
 		
 		// Writes the headers
 		buffer = new StringBuffer();
@@ -196,8 +197,9 @@ final class OutputTextFileObj implements Output{
 			buffer = new StringBuffer();
 			buffer.append(matrix.getRowName(i));
 			
+			matrix.getRow(i, row);
 			for (int j=0; j<cols; j++) {
-				buffer.append("," + matrixData[i][j]);
+				buffer.append("," + row[j]);
 			}
 			output.println(buffer.toString());
 		}		
@@ -0,0 +1,22 @@
+package recommender;
+
+/**
+ *
+ * This interface provides the functions used to run a leave one out evaluation of the recommender.
+ *
+ * A rating is held out (removed from the ratings matrix), the prediction for it is calculated using getNeighbors and the
+ * prediction functions of the recommender, and then the rating is restored.  Instead of recalculating all the averages, similarities and neighbors
+ * for every rating that is held out, the engine only updates the ones that depend on the held out rating.
+ *
+ * The engine works directly on the ratings and supporting matrices stored in the blackboard, so while a rating is held out
+ * the prediction functions of the recommender see the matrices without it.
+ *
+ */
+public interface LeaveOneOutEngine {
+	// Removes the rating of the stakeholder in the forum and updates the model - only one rating can be held out at a time
+	public void holdOut(int stakeholderNum, int forumNum);
+	// Puts back the rating that was held out
+	public void restore();
+	// Neighbors of the stakeholder whose rating is held out.  The lists of the other stakeholders are not kept up to date and should not be used.
+	public NeighborTable getNeighbors();
+}
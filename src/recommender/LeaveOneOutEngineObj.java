@@ -0,0 +1,227 @@
+package recommender;
+
+import java.util.Arrays;
+import data.matrix.MatrixElement;
+import data.matrix.MatrixManager;
+
+/**
+ *
+ * Leave one out engine.  When a rating of stakeholder s is held out, only these parts of the model change:
+ *  - the entry of s in the supporting matrix (its average or total rating)
+ *  - the similarities between s and the other stakeholders (row and column s of the similarity matrix), if the similarities are calculated on the ratings matrix
+ *  - the neighbors of s, which are the only ones used to predict the ratings of s
+ *
+ * If the similarities are calculated on a different matrix (ex. the SxT matrix), they do not depend on the ratings at all,
+ * and the neighbors are calculated only once.
+ *
+ * The engine keeps its own compressed copy of the ratings, where the held out rating is removed from (and put back in) the row of s,
+ * so that the similarity kernel of the recommender can be reused as is.
+ *
+ * The matrices are looked up in the blackboard again every time a rating is held out or restored.  If the supporting matrix was stored again
+ * (ex. calculateSupportingMatrix was called on the ratings matrix), the engine changes the new one.  The compressed copy of the ratings can not follow
+ * a ratings matrix that was stored again, so then the engine can not be used anymore and a new one has to be created.
+ *
+ */
+final class LeaveOneOutEngineObj implements LeaveOneOutEngine {
+	// Local Variables
+	RecommenderFunctionsObj _recommender;
+	MatrixManager _matrixManager;
+	String _ratingsMatrixName;
+	String _supportingMatrixName;
+	MatrixElement _ratingsMatrix;
+	MatrixElement _supportingMatrix;
+	double[][] _ratings;		// Ratings matrix as stored in the blackboard
+	double[][] _supporting;		// Supporting matrix (averages or totals per user) as stored in the blackboard
+	int _numOfUsers;
+	int _numOfNeighbors;
+
+	// Compressed copy of the ratings - only used when the similarities are calculated on the ratings matrix
+	boolean _incremental;
+	int[] _rowPtr;
+	int[] _items;
+	double[] _values;
+	SimilarityKernel _kernel;
+	int _penalize;
+	boolean _singlePrecision;	// true if the similarities are rounded to float, as in the similarity matrices of the recommender
+
+	// Neighbors of the held out stakeholder (or of all the stakeholders, if the similarities do not depend on the ratings)
+	NeighborTable _neighbors;
+
+	// Rating that is held out
+	int _heldOutStakeholder = -1;
+	int _heldOutForum;
+	int _heldOutPosition;
+	double _heldOutRating;
+	double _heldOutSupporting;
+
+	// Constructor - Package Private
+	LeaveOneOutEngineObj(RecommenderFunctionsObj recommender, MatrixManager matrixManager, String ratingsMatrixName, String supportingMatrixName, String similarityMatrixName, String similaritySupportingMatrixName, int penalize, int numOfNeighbors) {
+		// Integrity checks
+		if (recommender==null)
+			throw new IllegalArgumentException("The recommender has to be a valid object");
+		if (matrixManager==null)
+			throw new IllegalArgumentException("The matrix manager has to be a valid object");
+
+		// Sets the internal fields;
+		_recommender = recommender;
+		_matrixManager = matrixManager;
+		_ratingsMatrixName = ratingsMatrixName;
+		_supportingMatrixName = supportingMatrixName;
+		// The ratings and the supporting matrix are changed in place when a rating is held out, so they are read for update (pinned by the blackboard)
+		MatrixElement ratings = matrixManager.getMatrixForUpdate(ratingsMatrixName);
+		_ratingsMatrix = ratings;
+		_ratings = ratings.getArray();
+		_numOfUsers = ratings.getNumRows();
+		_numOfNeighbors = Math.max(0, Math.min(numOfNeighbors, _numOfUsers-1));
+
+		// Calculates the supporting matrix of the ratings (it is stored in the blackboard, so that the prediction functions can use it)
+		recommender.calculateSupportingMatrix(ratingsMatrixName, supportingMatrixName);
+		_supportingMatrix = matrixManager.getMatrixForUpdate(supportingMatrixName);
+		_supporting = _supportingMatrix.getArray();
+
+		_incremental = similarityMatrixName.equals(ratingsMatrixName);
+		if (_incremental) {
+			// Builds the compressed copy of the ratings
+			int numOfForums = ratings.getNumCols();
+			int nnz = 0;
+			for (int i=0; i<_numOfUsers; i++) {
+				for (int j=0; j<numOfForums; j++) {
+					if (_ratings[i][j]!=0.0)
+						nnz++;
+				}
+			}
+			_rowPtr = new int[_numOfUsers+1];
+			_items = new int[nnz];
+			_values = new double[nnz];
+			int k = 0;
+			for (int i=0; i<_numOfUsers; i++) {
+				for (int j=0; j<numOfForums; j++) {
+					if (_ratings[i][j]!=0.0) {
+						_items[k] = j;
+						_values[k] = _ratings[i][j];
+						k++;
+					}
+				}
+				_rowPtr[i+1] = k;
+			}
+			_penalize = penalize;
+			_kernel = recommender.createSimilarityKernel(_rowPtr, _items, _values, _supporting, penalize);
+			_singlePrecision = recommender.isSinglePrecisionSimilarities();
+		} else {
+			// The similarities do not change when a rating is held out, so the neighbors are calculated only once
+			recommender.calculateSupportingMatrix(similarityMatrixName, similaritySupportingMatrixName);
+			_neighbors = recommender.calculateNeighbors(similarityMatrixName, similaritySupportingMatrixName, penalize, numOfNeighbors);
+		}
+	}
+
+	public void holdOut(int stakeholderNum, int forumNum) {
+		// Integrity checks
+		if (_heldOutStakeholder!=-1)
+			throw new IllegalArgumentException("A rating is already held out, it has to be restored first");
+		resolveMatrices();
+
+		_heldOutStakeholder = stakeholderNum;
+		_heldOutForum = forumNum;
+		_heldOutRating = _ratings[stakeholderNum][forumNum];
+		_heldOutSupporting = _supporting[stakeholderNum][0];
+
+		// Removes the rating and updates the supporting value of the stakeholder
+		_ratings[stakeholderNum][forumNum] = 0.0;
+		_supporting[stakeholderNum][0] = _recommender.calculateSupportingValue(_ratings[stakeholderNum]);
+
+		if (_incremental) {
+			// Removes the rating from the compressed copy - the entries after it are moved one position back
+			// If the stakeholder had not rated the forum there is nothing to remove (the position is negative)
+			int nnz = _rowPtr[_numOfUsers];
+			_heldOutPosition = Arrays.binarySearch(_items, _rowPtr[stakeholderNum], _rowPtr[stakeholderNum+1], forumNum);
+			if (_heldOutPosition>=0) {
+				System.arraycopy(_items, _heldOutPosition+1, _items, _heldOutPosition, nnz-_heldOutPosition-1);
+				System.arraycopy(_values, _heldOutPosition+1, _values, _heldOutPosition, nnz-_heldOutPosition-1);
+				for (int i=stakeholderNum+1; i<=_numOfUsers; i++) {
+					_rowPtr[i]--;
+				}
+			}
+
+			// Only the neighbors of the stakeholder are needed to predict his ratings
+			_neighbors = calculateNeighbors(stakeholderNum);
+		}
+	}
+
+	public void restore() {
+		// Integrity checks
+		if (_heldOutStakeholder==-1)
+			throw new IllegalArgumentException("There is no rating held out");
+		resolveMatrices();
+
+		int stakeholderNum = _heldOutStakeholder;
+		_ratings[stakeholderNum][_heldOutForum] = _heldOutRating;
+		_supporting[stakeholderNum][0] = _heldOutSupporting;
+
+		if (_incremental) {
+			// Puts the rating back in the compressed copy - the entries after it are moved one position forward
+			if (_heldOutPosition>=0) {
+				int nnz = _rowPtr[_numOfUsers];
+				System.arraycopy(_items, _heldOutPosition, _items, _heldOutPosition+1, nnz-_heldOutPosition);
+				System.arraycopy(_values, _heldOutPosition, _values, _heldOutPosition+1, nnz-_heldOutPosition);
+				_items[_heldOutPosition] = _heldOutForum;
+				_values[_heldOutPosition] = _heldOutRating;
+				for (int i=stakeholderNum+1; i<=_numOfUsers; i++) {
+					_rowPtr[i]++;
+				}
+			}
+			_neighbors = null;
+		}
+		_heldOutStakeholder = -1;
+	}
+
+	public NeighborTable getNeighbors() {
+		if (_neighbors==null)
+			throw new IllegalArgumentException("There is no rating held out");
+		return _neighbors;
+	}
+
+	// Looks up the ratings and supporting matrices in the blackboard.  If the supporting matrix was stored again its array is taken again,
+	// and the similarity kernel, which reads the supporting values from that array, is created again.
+	private void resolveMatrices() {
+		if (_matrixManager.getMatrixForUpdate(_ratingsMatrixName)!=_ratingsMatrix)
+			throw new IllegalArgumentException("The matrix:" + _ratingsMatrixName + " was stored again after the leave one out engine was created, a new engine has to be created");
+		MatrixElement supporting = _matrixManager.getMatrixForUpdate(_supportingMatrixName);
+		if (supporting!=_supportingMatrix) {
+			if (supporting.getNumRows()!=_numOfUsers)
+				throw new IllegalArgumentException("The matrix:" + _supportingMatrixName + " does not have a row for every stakeholder");
+			_supportingMatrix = supporting;
+			_supporting = supporting.getArray();
+			if (_incremental)
+				_kernel = _recommender.createSimilarityKernel(_rowPtr, _items, _values, _supporting, _penalize);
+		}
+	}
+
+	// Calculates the neighbors of a single stakeholder, in the same way as RecommenderFunctionsObj.calculateNeighbors (including the rounding to float
+	// in single precision, so the result matches calculateSimilarities and getNeighbors in both precisions)
+	private NeighborTable calculateNeighbors(int stakeholderNum) {
+		NeighborHeap heap = new NeighborHeap(_numOfNeighbors);
+		for (int j=0; j<_numOfUsers; j++) {
+			if (j!=stakeholderNum) {
+				// The kernel is always called with the lower number first, as when the similarity matrix is built
+				double similarity = (stakeholderNum<j) ? _kernel.similarity(stakeholderNum, j) : _kernel.similarity(j, stakeholderNum);
+				if (_singlePrecision)
+					similarity = (float) similarity;
+				// Negative correlations will not be included - studies have shown that they are not effective.
+				if (similarity>0) {
+					heap.offer(j, similarity);
+				}
+			}
+		}
+
+		// The table only has neighbors for the held out stakeholder
+		int count = heap.size();
+		int[] ids = new int[count];
+		double[] values = new double[count];
+		heap.drainSorted(ids, values, 0);
+		int[] offsets = new int[_numOfUsers+1];
+		for (int i=stakeholderNum+1; i<=_numOfUsers; i++) {
+			offsets[i] = count;
+		}
+		return new NeighborTable(_numOfUsers, offsets, ids, values);
+	}
+}
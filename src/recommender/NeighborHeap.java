@@ -0,0 +1,104 @@
+package recommender;
+
+/**
+ * 
+ * Bounded heap that keeps the K most similar neighbors of a user while the similarities are computed one at a time.
+ * The neighbors are ordered in the same way as the sorted list of Nodes: decreasing similarity, and for equal similarities
+ * the neighbor that was offered first (the lower user number) goes first.
+ * 
+ * The root of the heap is the worst neighbor kept so far, so a new candidate only needs to be compared against it.
+ * 
+ */
+final class NeighborHeap {
+	int _capacity;
+	int _size;
+	int[] _ids;
+	double[] _values;
+	
+	// Constructor - Package Private
+	NeighborHeap(int capacity) {
+		if (capacity<0)
+			throw new IllegalArgumentException("The number of neighbors has to be >= 0");
+		
+		_capacity = capacity;
+		_size = 0;
+		_ids = new int[capacity];
+		_values = new double[capacity];
+	}
+	
+	// Empties the heap so that it can be reused for another user
+	void clear() {
+		_size = 0;
+	}
+	
+	int size() {
+		return _size;
+	}
+	
+	// Offers a candidate neighbor - it is kept only if it is better than the worst neighbor in the heap
+	void offer(int id, double value) {
+		if (_size < _capacity) {
+			_ids[_size] = id;
+			_values[_size] = value;
+			siftUp(_size);
+			_size++;
+		} else if ((_capacity > 0) && isBetter(id, value, _ids[0], _values[0])) {
+			_ids[0] = id;
+			_values[0] = value;
+			siftDown(0);
+		}
+	}
+	
+	// Removes all the neighbors from the heap and writes them, from best to worst, in the given arrays starting at offset
+	void drainSorted(int[] ids, double[] values, int offset) {
+		// Removing the root repeatedly gives the neighbors from worst to best, so they are written from the end
+		for (int pos = offset + _size - 1; _size > 0; pos--) {
+			ids[pos] = _ids[0];
+			values[pos] = _values[0];
+			_size--;
+			_ids[0] = _ids[_size];
+			_values[0] = _values[_size];
+			siftDown(0);
+		}
+	}
+	
+	// A neighbor is better than another one if it is more similar, or equally similar and with a lower number
+	private static boolean isBetter(int idA, double valueA, int idB, double valueB) {
+		return (valueA > valueB) || ((valueA == valueB) && (idA < idB));
+	}
+	
+	private void siftUp(int pos) {
+		while (pos > 0) {
+			int parent = (pos - 1) / 2;
+			if (!isBetter(_ids[parent], _values[parent], _ids[pos], _values[pos]))
+				break;
+			swap(pos, parent);
+			pos = parent;
+		}
+	}
+	
+	private void siftDown(int pos) {
+		while (true) {
+			int worst = pos;
+			int left = 2 * pos + 1;
+			int right = left + 1;
+			if ((left < _size) && isBetter(_ids[worst], _values[worst], _ids[left], _values[left]))
+				worst = left;
+			if ((right < _size) && isBetter(_ids[worst], _values[worst], _ids[right], _values[right]))
+				worst = right;
+			if (worst == pos)
+				break;
+			swap(pos, worst);
+			pos = worst;
+		}
+	}
+	
+	private void swap(int a, int b) {
+		int id = _ids[a];
+		_ids[a] = _ids[b];
+		_ids[b] = id;
+		double value = _values[a];
+		_values[a] = _values[b];
+		_values[b] = value;
+	}
+}
@@ -0,0 +1,62 @@
+package recommender;
+
+import java.util.ArrayList;
+import java.util.List;
+import data.Node;
+
+/**
+ *
+ * The NeighborTable holds the K nearest neighbors of every stakeholder, as calculated by the recommender.
+ *
+ * All the neighbors are kept in two flat parallel arrays (ids and similarities), the neighbors of stakeholder i
+ * are in the positions getStart(i) .. getEnd(i)-1, ordered by decreasing similarity.
+ * This avoids allocating one object per neighbor and boxing the stakeholder numbers when looking up the neighbors in the prediction loop.
+ *
+ * The table is read only once it has been built.
+ *
+ */
+public final class NeighborTable {
+	int _numOfStakeholders;
+	int[] _offsets;
+	int[] _ids;
+	double[] _similarities;
+
+	// Constructor - Package Private.  The arrays are not copied, the caller hands over their ownership.
+	NeighborTable(int numOfStakeholders, int[] offsets, int[] ids, double[] similarities) {
+		// Integrity checks
+		if (numOfStakeholders<0)
+			throw new IllegalArgumentException("The number of stakeholders has to be >= 0");
+		if ((offsets==null) || (offsets.length!=numOfStakeholders+1))
+			throw new IllegalArgumentException("The offsets vector has to be one larger than the number of stakeholders");
+		if ((ids==null) || (similarities==null) || (ids.length < offsets[numOfStakeholders]) || (similarities.length < offsets[numOfStakeholders]))
+			throw new IllegalArgumentException("The ids and similarities vectors have to hold all the neighbors");
+
+		// Sets the internal fields;
+		_numOfStakeholders = numOfStakeholders;
+		_offsets = offsets;
+		_ids = ids;
+		_similarities = similarities;
+	}
+
+	public int getNumOfStakeholders() {return _numOfStakeholders;}
+
+	// Number of neighbors of a stakeholder
+	public int getNumOfNeighbors(int stakeholderNum) {return _offsets[stakeholderNum+1] - _offsets[stakeholderNum];}
+
+	// First and last (exclusive) positions of the neighbors of a stakeholder in the ids and similarities arrays
+	public int getStart(int stakeholderNum) {return _offsets[stakeholderNum];}
+	public int getEnd(int stakeholderNum) {return _offsets[stakeholderNum+1];}
+
+	// Access to a single position of the table
+	public int getId(int pos) {return _ids[pos];}
+	public double getSimilarity(int pos) {return _similarities[pos];}
+
+	// Returns the neighbors of a stakeholder as a list of nodes - used when the neighbors need to be reported, not in the prediction loop
+	public List<Node> getNeighbors(int stakeholderNum) {
+		List<Node> neighbors = new ArrayList<Node>(getNumOfNeighbors(stakeholderNum));
+		for (int k=_offsets[stakeholderNum]; k<_offsets[stakeholderNum+1]; k++) {
+			neighbors.add(new Node(_ids[k], _similarities[k]));
+		}
+		return neighbors;
+	}
+}
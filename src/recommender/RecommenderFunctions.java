@@ -1,7 +1,6 @@
 package recommender;
 
 import java.util.List;
-import java.util.Map;
 import data.Node;
 import data.basic.*;
 
@@ -18,14 +17,17 @@ public interface RecommenderFunctions {
 	public void cluster(String matrixName, String resultMatrixName);
 	public void calculateStakeholdersAverageRating(String matrix, String resultMatrixAverages);
 	public void calculateStakeholdersTotalRatings(String matrix, String resultMatrixTotals);	
-	public Map<Integer, List<Node>> getNeighbors(String similarityMatrixName, int numOfNeighbors);
+	public NeighborTable getNeighbors(String similarityMatrixName, int numOfNeighbors);
+	public NeighborTable calculateNeighbors(String matrixName, String supportingMatrix, int penalize, int numOfNeighbors);
 
 	
 	//Abstract Functions that depend on the kind of membership scores that are being used (ranges or binary)
 	public void addStakeholdersToForums(NormalizationMethod method);
 	public void calculateSimilarities(String matrixName, String resultMatrixName, String supportingMatrix, int penalize);
-	public double getPredictionScore(Stakeholder s, Forum f, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, Map<Integer, List<Node>> neighbors);
-	public List<Node> getPredictionScores(Stakeholder s, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, Map<Integer, List<Node>> neighbors);
+	public double getPredictionScore(Stakeholder s, Forum f, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors);
+	public List<Node> getPredictionScores(Stakeholder s, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors);
+	public void calculatePredictionScores(PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors, String resultMatrixName);
+	public LeaveOneOutEngine newLeaveOneOutEngine(String ratingsMatrixName, String supportingMatrixName, String similarityMatrixName, String similaritySupportingMatrixName, int penalize, int numOfNeighbors);
 	
 	// Functions that are not yet coded
 	public void generateForumsFromClusters(String clustersMatrixName);	
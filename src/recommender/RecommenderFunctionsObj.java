@@ -1,7 +1,7 @@
 package recommender;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,8 +10,11 @@ import data.Node;
 import utils.Utilities;
 import data.basic.BasicElementManager;
 import data.basic.Forum;
+import data.basic.Need;
+import data.basic.Rating;
 import data.basic.Stakeholder;
 import data.matrix.*;
+import data.parameters.ParameterManager;
 
 /**
  * 
@@ -20,14 +23,19 @@ import data.matrix.*;
  * 
  * In general, these functions will take their input from the blackboard.  A name parameter will indicate which matrix they need.
  * 
+ * If a parameter manager is given, the parameter 'numberofthreads' sets how many threads are used to compute the similarity matrices.
+ * When it is not set the computation is sequential.  The threads are taken from the pool that is shared with the matrix operations (see ParallelRows),
+ * so no threads are created for each calculation.
+ * 
  */
 abstract class RecommenderFunctionsObj implements RecommenderFunctions{
 	// Local Variables
 	BasicElementManager _elementManager; // Basic Element Manager
 	MatrixManager _matrixManager;	// Matrix Manager
+	ParameterManager _parameters;	// Parameter Manager - optional, it can be null
 
 	// Constructor - Package Private
-	RecommenderFunctionsObj(BasicElementManager elementManager, MatrixManager matrixManager) {
+	RecommenderFunctionsObj(BasicElementManager elementManager, MatrixManager matrixManager, ParameterManager parameters) {
 		// Integrity checks
 		if (elementManager==null)
 			throw new IllegalArgumentException("The element manager has to be a valid object");
@@ -37,6 +45,7 @@ abstract class RecommenderFunctionsObj implements RecommenderFunctions{
 		// Sets the internal fields;
 		_elementManager =  elementManager;
 		_matrixManager = matrixManager;
+		_parameters = parameters;
 	
 	}
 	
@@ -102,46 +111,438 @@ abstract class RecommenderFunctionsObj implements RecommenderFunctions{
 		_matrixManager.storeMatrix(results);
 	}
 	
-	public Map<Integer, List<Node>> getNeighbors(String similarityMatrixName, int numOfNeighbors) {
-		// To calculate the neighbors we iterate over the similarity matrix and for each stakeholder record all the other similar
-		// stakeholders in an list that will be ordered by the similarity score.
+	public NeighborTable getNeighbors(String similarityMatrixName, int numOfNeighbors) {
+		// To calculate the neighbors we iterate over the similarity matrix and for each stakeholder keep the most similar
+		// stakeholders, ordered by the similarity score.
 		
 		MatrixElement similarityMatrix = _matrixManager.getMatrix(similarityMatrixName);
 		
-		Map<Integer, List<Node>> stakeholderNeighbors = new HashMap<Integer, List<Node>>();
-		
 		int numOfUsers = similarityMatrix.getNumRows(); 
+		int maxNeighbors = Math.max(0, Math.min(numOfNeighbors, numOfUsers-1));
 		
-		double[][] similarities = similarityMatrix.getArray();
+		// The matrix is read row by row, so a packed (or sparse) matrix is not converted to dense storage
+		double[] similarities = new double[numOfUsers];
 		
-		int i, j, k;
+		// The neighbors of stakeholder i are stored in positions i*maxNeighbors .. i*maxNeighbors+counts[i]-1
+		int[] ids = new int[numOfUsers * maxNeighbors];
+		double[] values = new double[numOfUsers * maxNeighbors];
+		int[] counts = new int[numOfUsers];
+		
+		// Since the algorithm is only for K neighbors, only the best K are kept
+		NeighborHeap heap = new NeighborHeap(maxNeighbors);
+		int i, j;
 		for (i=0; i<numOfUsers; i++) {
-			// Initializes the list of neighbors for this stakeholder
-			stakeholderNeighbors.put(i, new ArrayList<Node>());
+			heap.clear();
+			similarityMatrix.getRow(i, similarities);
 			for (j=0; j<numOfUsers; j++) {
 				// If it is not himself and the similarity scores are different than zero, then we add this stakeholder to the set
 				// Negative correlations will not be included - studies have shown that they are not effective.
-				if ((i!=j) && (similarities[i][j]>0)) {
-					stakeholderNeighbors.get(i).add(new Node(j, similarities[i][j]));
-					
+				if ((i!=j) && (similarities[j]>0)) {
+					heap.offer(j, similarities[j]);
+				}
+			}
+			// Writes the neighbors in descending order
+			counts[i] = heap.size();
+			heap.drainSorted(ids, values, i*maxNeighbors);
+		}	
+		return newNeighborTable(numOfUsers, maxNeighbors, ids, values, counts);
+	}
+	
+	public NeighborTable calculateNeighbors(String matrixName, String supportingMatrix, int penalize, int numOfNeighbors) {
+		// Calculates the neighbors directly from the ratings, without building the similarity matrix.
+		// The similarities of each stakeholder are computed one row at a time, and only the best numOfNeighbors are kept (in a bounded heap),
+		// so the memory used is proportional to numOfUsers x numOfNeighbors instead of numOfUsers x numOfUsers.
+		// The result is the same as calling calculateSimilarities and then getNeighbors with the same parameters.  When the similarities are stored in
+		// single precision (parameter 'similarityprecision') they are rounded to float here as well, so the weights and the order of the ties are the same.
+		// Each pair of stakeholders is computed twice (once for each of them), which is the price of not storing the similarities.
+		
+		MatrixElement matrix = _matrixManager.getMatrix(matrixName);
+		MatrixElement supporting = _matrixManager.getMatrix(supportingMatrix);
+		final SimilarityKernel kernel = createSimilarityKernel(matrix, supporting, penalize);
+		final boolean singlePrecision = isSinglePrecisionSimilarities();
+		
+		final int numOfUsers = matrix.getNumRows();
+		final int maxNeighbors = Math.max(0, Math.min(numOfNeighbors, numOfUsers-1));
+		
+		// The neighbors of stakeholder i are stored in positions i*maxNeighbors .. i*maxNeighbors+counts[i]-1
+		final int[] ids = new int[numOfUsers * maxNeighbors];
+		final double[] values = new double[numOfUsers * maxNeighbors];
+		final int[] counts = new int[numOfUsers];
+		
+		runByRowBlocks(numOfUsers, new RowBlockTask() {
+			public void run(int fromRow, int toRow) {
+				NeighborHeap heap = new NeighborHeap(maxNeighbors);
+				for (int i=fromRow; i<toRow; i++) {
+					heap.clear();
+					for (int j=0; j<numOfUsers; j++) {
+						if (i!=j) {
+							// The kernel is always called with the lower number first, as when the similarity matrix is built
+							double similarity = (i<j) ? kernel.similarity(i, j) : kernel.similarity(j, i);
+							if (singlePrecision)
+								similarity = (float) similarity;
+							// Negative correlations will not be included - studies have shown that they are not effective.
+							if (similarity>0) {
+								heap.offer(j, similarity);
+							}
+						}
+					}
+					counts[i] = heap.size();
+					heap.drainSorted(ids, values, i*maxNeighbors);
+				}
+			}
+		});
+		
+		return newNeighborTable(numOfUsers, maxNeighbors, ids, values, counts);
+	}
+	
+	// Builds the table of neighbors from the arrays where the neighbors of stakeholder i are in positions i*maxNeighbors .. i*maxNeighbors+counts[i]-1.
+	// The neighbors are moved to the front of the arrays so that there are no gaps between stakeholders.
+	static NeighborTable newNeighborTable(int numOfUsers, int maxNeighbors, int[] ids, double[] values, int[] counts) {
+		int[] offsets = new int[numOfUsers+1];
+		for (int i=0; i<numOfUsers; i++) {
+			offsets[i+1] = offsets[i] + counts[i];
+			// Since offsets[i] <= i*maxNeighbors, the rows are only moved backwards and never overwrite a row that has not been moved yet
+			System.arraycopy(ids, i*maxNeighbors, ids, offsets[i], counts[i]);
+			System.arraycopy(values, i*maxNeighbors, values, offsets[i], counts[i]);
+		}
+		if (offsets[numOfUsers] < ids.length) {
+			ids = Arrays.copyOf(ids, offsets[numOfUsers]);
+			values = Arrays.copyOf(values, offsets[numOfUsers]);
+		}
+		return new NeighborTable(numOfUsers, offsets, ids, values);
+	}
+
+	
+	public void calculatePredictionScores(PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors, String resultMatrixName) {
+		// Calculates the prediction scores of all the forums for all the stakeholders in one pass, and stores them in a matrix of stakeholders x forums.
+		// The matrices are read from the blackboard only once, and the neighbors of each stakeholder are visited once for all the forums.
+		// Each score is the same as the one returned by getPredictionScore.  The forums already rated by a stakeholder get a score as well, it is up to the caller to skip them.
+		// The stakeholders are processed in parallel if the parameter 'numberofthreads' is set.
+		// The supportingMatrixName can be empty if the recommender does not use it.
+		
+		MatrixElement ratingMatrix = _matrixManager.getMatrix(ratingsMatrixName);
+		final double[][] ratings = ratingMatrix.getArray();
+		final double[][] supporting = ((supportingMatrixName==null) || (supportingMatrixName.length()==0)) ? null : readSupportingMatrix(_matrixManager.getMatrix(supportingMatrixName));
+		final PredictionFormula predictionFormula = formula;
+		final NeighborTable stakeholderNeighbors = neighbors;
+		
+		int numOfUsers = ratingMatrix.getNumRows();
+		int numOfForums = ratingMatrix.getNumCols();
+		if (neighbors.getNumOfStakeholders()!=numOfUsers)
+			throw new IllegalArgumentException("The table of neighbors has to have the same number of stakeholders as the ratings matrix");
+		
+		final double[][] predictions = new double[numOfUsers][numOfForums];
+		runByRowBlocks(numOfUsers, new RowBlockTask() {
+			public void run(int fromRow, int toRow) {
+				for (int i=fromRow; i<toRow; i++) {
+					fillPredictionScores(i, predictionFormula, ratings, supporting, stakeholderNeighbors, predictions[i]);
 				}
 			}
+		});
+		
+		// Stores the names for the resulting matrix
+		String[] userNames = new String[numOfUsers];
+		for (int i=0; i<numOfUsers; i++) {
+			userNames[i] = ratingMatrix.getRowName(i);
+		}
+		String[] forumNames = new String[numOfForums];
+		for (int j=0; j<numOfForums; j++) {
+			forumNames[j] = ratingMatrix.getColumnName(j);
+		}
+		
+		MatrixElement result = new MatrixElement(resultMatrixName, predictions, forumNames, userNames);
+		_matrixManager.storeMatrix(result);
+	}
+	
+	public LeaveOneOutEngine newLeaveOneOutEngine(String ratingsMatrixName, String supportingMatrixName, String similarityMatrixName, String similaritySupportingMatrixName, int penalize, int numOfNeighbors) {
+		// Creates the engine used for leave one out evaluations.  The supporting matrix of the ratings is calculated and stored with the name supportingMatrixName.
+		// If the similarities are calculated on the ratings matrix itself (similarityMatrixName is the same as ratingsMatrixName) they are updated incrementally,
+		// otherwise they are calculated once on the similarity matrix and its supporting matrix (stored with the name similaritySupportingMatrixName).
+		// The supporting matrix is updated in place by the engine - if it is recalculated, the engine updates the new one.
+		// The ratings matrix can not be stored again while the engine is in use.
+		return new LeaveOneOutEngineObj(this, _matrixManager, ratingsMatrixName, supportingMatrixName, similarityMatrixName, similaritySupportingMatrixName, penalize, numOfNeighbors);
+	}
+	
+	// Work done over a block of consecutive rows
+	interface RowBlockTask {
+		void run(int fromRow, int toRow);
+	}
+	
+	// Runs the task over all the rows.  All the rows are expected to cost the same, so they are split in blocks of the same size.
+	void runByRowBlocks(int numOfRows, final RowBlockTask task) {
+		int numOfThreads = getNumberOfThreads();
+		if ((numOfThreads == 1) || (numOfRows < 2)) {
+			task.run(0, numOfRows);
+			return;
+		}
+		
+		int numOfBlocks = Math.min(numOfRows, numOfThreads * 4);
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int b=0; b<numOfBlocks; b++) {
+			final int fromRow = (int)((long)numOfRows * b / numOfBlocks);
+			final int toRow = (int)((long)numOfRows * (b+1) / numOfBlocks);
+			tasks.add(new Runnable() {
+				public void run() {
+					task.run(fromRow, toRow);
+				}
+			});
+		}
+		ParallelRows.runAll(tasks, numOfThreads);
+	}
+	
+	/*******************************
+	 * Similarity Matrix Functions *
+	 *******************************/
+	
+	// Creates the similarity kernel of this recommender over the given matrix.
+	// If the matrix is stored dense, a compressed copy is made - this is linear in the size of the matrix, and the original matrix is not changed
+	SimilarityKernel createSimilarityKernel(MatrixElement matrix, MatrixElement supportingMatrix, int penalize) {
+		if (matrix==null)
+			throw new IllegalArgumentException("The ratings matrix has to be a valid object");
+		if (supportingMatrix==null)
+			throw new IllegalArgumentException("The supporting matrix has to be a valid object");
+		
+		MatrixElement sparse = matrix.isSparse() ? matrix : matrix.toSparse(matrix.getName());
+		return createSimilarityKernel(sparse.getRowPointers(), sparse.getColumnIndices(), sparse.getValues(), readSupportingMatrix(supportingMatrix), penalize);
+	}
+	
+	// Copies the supporting matrix (one value per user) into a new array.  Its own array is not used, since getArray would pin the matrix
+	// and a blackboard with a memory budget could not evict it anymore.  The matrix is only read, and it has a single column, so the copy is cheap.
+	static double[][] readSupportingMatrix(MatrixElement supportingMatrix) {
+		int numOfUsers = supportingMatrix.getNumRows();
+		double[][] supporting = new double[numOfUsers][1];
+		for (int i=0; i<numOfUsers; i++) {
+			supporting[i][0] = supportingMatrix.get(i, 0);
+		}
+		return supporting;
+	}
+	
+	// Returns the number of threads used to compute the similarities
+	int getNumberOfThreads() {
+		if ((_parameters==null) || !_parameters.containsParameter("numberofthreads")) {
+			return 1;
+		}
+		int numOfThreads = Integer.parseInt(_parameters.readParameter("numberofthreads"));
+		if (numOfThreads < 1)
+			throw new IllegalArgumentException("The parameter 'numberofthreads' has to be >= 1");
+		return numOfThreads;
+	}
+	
+	// Returns true if the similarities are stored in single precision, which is set with the parameter 'similarityprecision' (double by default)
+	boolean isSinglePrecisionSimilarities() {
+		if ((_parameters==null) || !_parameters.containsParameter("similarityprecision")) {
+			return false;
+		}
+		String precision = _parameters.readParameter("similarityprecision");
+		if (!precision.equals("double") && !precision.equals("float"))
+			throw new IllegalArgumentException("The parameter 'similarityprecision' has to be double or float");
+		return precision.equals("float");
+	}
+	
+	// Builds the similarity matrix of the users, using the kernel for every pair of users.
+	// Since the matrix is symmetrical it is stored packed (see MatrixElement), and only the upper triangle is computed and stored, which uses half of the memory
+	// of a full matrix - or a quarter of it in single precision.
+	// With more than 65,535 users the packed array would not fit in an array, so the matrix is stored dense: the upper triangle is still the only part
+	// computed, and it is copied to the lower one.  In single precision its values are rounded to float, so they are the same as the packed ones.
+	MatrixElement newSimilarityMatrix(String name, SimilarityKernel kernel, String[] userNames) {
+		int numOfUsers = userNames.length;
+		if (!MatrixElement.canBePacked(numOfUsers)) {
+			double[][] similarities = new double[numOfUsers][numOfUsers];
+			fillSimilarityMatrix(kernel, numOfUsers, null, null, similarities);
+			boolean singlePrecision = isSinglePrecisionSimilarities();
+			for (int i=0; i<numOfUsers; i++) {
+				for (int j=i+1; j<numOfUsers; j++) {
+					if (singlePrecision) {
+						similarities[i][j] = (float) similarities[i][j];
+					}
+					similarities[j][i] = similarities[i][j];
+				}
+			}
+			return new MatrixElement(name, similarities, userNames, userNames);
+		}
+		if (isSinglePrecisionSimilarities()) {
+			float[] similarities = new float[MatrixElement.getPackedLength(numOfUsers)];
+			fillSimilarityMatrix(kernel, numOfUsers, null, similarities, null);
+			return new MatrixElement(name, similarities, userNames);
+		}
+		double[] similarities = new double[MatrixElement.getPackedLength(numOfUsers)];
+		fillSimilarityMatrix(kernel, numOfUsers, similarities, null, null);
+		return new MatrixElement(name, similarities, userNames);
+	}
+	
+	// Fills the upper triangle of the similarity matrix: packed in double or in single precision, or in the rows of a dense matrix (the other arrays are null).
+	// The rows are split in blocks that have about the same number of pairs, and the blocks are computed in parallel.
+	// Each pair is always computed by the same kernel call, so the result does not depend on the number of threads.
+	void fillSimilarityMatrix(final SimilarityKernel kernel, final int numOfUsers, final double[] similarities, final float[] floatSimilarities, final double[][] denseSimilarities) {
+		int numOfThreads = getNumberOfThreads();
+		if ((numOfThreads == 1) || (numOfUsers < 3)) {
+			fillSimilarityRows(kernel, numOfUsers, similarities, floatSimilarities, denseSimilarities, 0, numOfUsers);
+			return;
+		}
+		
+		// More blocks than threads are used, so that a thread that finishes early can take another block
+		int[] blocks = getTriangularBlocks(numOfUsers, numOfThreads * 4);
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int b=0; b<blocks.length-1; b++) {
+			final int fromRow = blocks[b];
+			final int toRow = blocks[b+1];
+			tasks.add(new Runnable() {
+				public void run() {
+					fillSimilarityRows(kernel, numOfUsers, similarities, floatSimilarities, denseSimilarities, fromRow, toRow);
+				}
+			});
+		}
+		ParallelRows.runAll(tasks, numOfThreads);
+	}
+	
+	// Computes the similarities of the rows fromRow (inclusive) to toRow (exclusive) with all the users that come after them.
+	// In the packed storage each row is contiguous, so every thread writes its own part of the array.
+	private static void fillSimilarityRows(SimilarityKernel kernel, int numOfUsers, double[] similarities, float[] floatSimilarities, double[][] denseSimilarities, int fromRow, int toRow) {
+		double similarityIJ;
+		for (int i=fromRow; i<toRow; i++) {
+			if (denseSimilarities!=null) {
+				double[] row = denseSimilarities[i];
+				row[i] = 1;
+				for (int j=i+1; j<numOfUsers; j++) {
+					row[j] = kernel.similarity(i, j);
+				}
+				continue;
+			}
 			
-			// Orders the list of neighbors in descending order
-			Collections.sort(stakeholderNeighbors.get(i));
+			// Position of the entry (i,0), so that the entry (i,j) is at offset+j
+			int offset = MatrixElement.getPackedOffset(numOfUsers, i) - i;
 			
-			// Since the algorithm is only for K neighbors, we remove any additional neighbors
-			int numToRemove = stakeholderNeighbors.get(i).size() - numOfNeighbors;
-			if (numToRemove > 0) {
-				for (k=0; k<numToRemove; k++) {
-					// Removes numToRemove times the last neighbor
-					stakeholderNeighbors.get(i).remove(stakeholderNeighbors.get(i).size()-1);
+			// The similarity of a user with himself is always 1
+			if (similarities!=null) {
+				similarities[offset+i] = 1;
+			} else {
+				floatSimilarities[offset+i] = 1;
+			}
+			for (int j=i+1; j<numOfUsers; j++) {
+				similarityIJ = kernel.similarity(i, j);
+				if (similarities!=null) {
+					similarities[offset+j] = similarityIJ;
+				} else {
+					floatSimilarities[offset+j] = (float) similarityIJ;
 				}
 			}
-		}	
-		return stakeholderNeighbors;
+		}
+	}
+	
+	// Splits the rows of the upper triangle in blocks with about the same number of pairs.
+	// Row i has (numOfUsers-1-i) pairs, so the first blocks have fewer rows than the last ones.
+	// The result holds the first row of each block, plus numOfUsers at the end.
+	static int[] getTriangularBlocks(int numOfUsers, int numOfBlocks) {
+		long totalPairs = (long)numOfUsers * (numOfUsers-1) / 2;
+		List<Integer> bounds = new ArrayList<Integer>();
+		bounds.add(0);
+		
+		long accumulated = 0;
+		int block = 1;
+		for (int i=0; i<numOfUsers; i++) {
+			accumulated += numOfUsers-1-i;
+			if ((block < numOfBlocks) && (accumulated * numOfBlocks >= totalPairs * block) && (i+1 < numOfUsers)) {
+				bounds.add(i+1);
+				// Skips the block boundaries that are already covered by this row
+				while ((block < numOfBlocks) && (accumulated * numOfBlocks >= totalPairs * block)) {
+					block++;
+				}
+			}
+		}
+		bounds.add(numOfUsers);
+		
+		int[] result = new int[bounds.size()];
+		for (int b=0; b<result.length; b++) {
+			result[b] = bounds.get(b);
+		}
+		return result;
+	}
+	
+	// Calculates the memberships of the stakeholders in the forums (the SxF = SxN * NxF matrix) directly from the basic elements, without building any matrix.
+	// For each stakeholder only the forums of the needs it rated are visited: its last rating of the need (the entry of the SxN matrix) times the score of the need in the forum.
+	// The needs are visited in the order of their numbers, so each membership is summed in the same order as the matrix product.
+	// Row i of the result has the forums with a membership that is not zero in ascending order in forums[i], and the memberships in memberships[i].
+	void calculateMemberships(int[][] forums, double[][] memberships) {
+		int numN = _elementManager.getNeeds().size();
+		int numF = _elementManager.getForums().size();
+		
+		// Work arrays for one stakeholder, they are cleared after each one using the lists of touched needs and forums
+		double[] ratingOfNeed = new double[numN];
+		boolean[] rated = new boolean[numN];
+		int[] ratedNeeds = new int[numN];
+		double[] membershipInForum = new double[numF];
+		boolean[] touched = new boolean[numF];
+		int[] touchedForums = new int[numF];
+		
+		for (int i=0; i<forums.length; i++) {
+			Stakeholder s = _elementManager.getStakeholder(i);
+			
+			// The last rating of each need is the one that counts, the same as in the SxN matrix
+			int numRated = 0;
+			for (Rating r : _elementManager.getRatingsByStakeholder(s)) {
+				int n = _elementManager.getNeedOfRating(r).getNumber();
+				if (!rated[n]) {
+					rated[n] = true;
+					ratedNeeds[numRated++] = n;
+				}
+				ratingOfNeed[n] = r.getValue();
+			}
+			Arrays.sort(ratedNeeds, 0, numRated);
+			
+			// Adds the rating of each need to the forums of the need
+			int numTouched = 0;
+			for (int k=0; k<numRated; k++) {
+				int n = ratedNeeds[k];
+				Need need = _elementManager.getNeed(n);
+				for (Forum f : _elementManager.getForumsOfNeed(need)) {
+					int j = f.getNumber();
+					if (!touched[j]) {
+						touched[j] = true;
+						touchedForums[numTouched++] = j;
+					}
+					membershipInForum[j] += ratingOfNeed[n] * _elementManager.getScoreOfNeedInForum(f, need);
+				}
+				rated[n] = false;
+			}
+			Arrays.sort(touchedForums, 0, numTouched);
+			
+			// Keeps the memberships that are not zero and clears the work arrays
+			int count = 0;
+			for (int k=0; k<numTouched; k++) {
+				if (membershipInForum[touchedForums[k]]!=0)
+					count++;
+			}
+			forums[i] = new int[count];
+			memberships[i] = new double[count];
+			count = 0;
+			for (int k=0; k<numTouched; k++) {
+				int j = touchedForums[k];
+				if (membershipInForum[j]!=0) {
+					forums[i][count] = j;
+					memberships[i][count] = membershipInForum[j];
+					count++;
+				}
+				membershipInForum[j] = 0;
+				touched[j] = false;
+			}
+		}
+	}
+	
+	// Adds the stakeholders to the forums by number, row i has the forums and the memberships of stakeholder i
+	// The memberships that are zero (ex. after being normalized) are not added
+	void addMemberships(int[][] forums, double[][] memberships) {
+		for (int i=0; i<forums.length; i++) {
+			int count = 0;
+			for (int k=0; k<forums[i].length; k++) {
+				if (memberships[i][k]!=0) {
+					forums[i][count] = forums[i][k];
+					memberships[i][count] = memberships[i][k];
+					count++;
+				}
+			}
+			_elementManager.addStakeholderToForums(i, forums[i], memberships[i], count);
+		}
 	}
-
 	
 	/********************
 	 * Abstract Methods *
@@ -152,10 +553,18 @@ abstract class RecommenderFunctionsObj implements RecommenderFunctions{
 	
 	// The computation of the similarities is also dependant on the type of membership scores.
 	public abstract void calculateSimilarities(String matrixName, String resultMatrixName, String supportingMatrix, int penalize);
+	// Creates the kernel over the compressed rows of the matrix - for row i the values are in positions rowPtr[i] .. rowPtr[i+1]-1, sorted by column
+	abstract SimilarityKernel createSimilarityKernel(int[] rowPtr, int[] items, double[] values, double[][] supporting, int penalize);
+	// Calculates the matrix (averages or totals per user) that the similarities of this recommender are based on
+	abstract void calculateSupportingMatrix(String matrix, String resultMatrix);
+	// Calculates the entry of the supporting matrix for a single row of ratings
+	abstract double calculateSupportingValue(double[] row);
 	
 	// The generation of predictions is also dependant on the type of membership scores.
-	public abstract double getPredictionScore(Stakeholder s, Forum f, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, Map<Integer, List<Node>> neighbors);
-	public abstract List<Node> getPredictionScores(Stakeholder s, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, Map<Integer, List<Node>> neighbors);
+	public abstract double getPredictionScore(Stakeholder s, Forum f, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors);
+	public abstract List<Node> getPredictionScores(Stakeholder s, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors);
+	// Calculates the prediction scores of all the forums for one stakeholder - the supporting array can be null if the recommender does not use it
+	abstract void fillPredictionScores(int stakeholderNum, PredictionFormula formula, double[][] ratings, double[][] supporting, NeighborTable neighbors, double[] predictions);
 
 	
 	/***********************
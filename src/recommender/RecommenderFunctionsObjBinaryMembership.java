@@ -3,13 +3,13 @@ package recommender;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import data.Node;
 import data.basic.BasicElementManager;
 import data.basic.Forum;
 import data.basic.Stakeholder;
 import data.matrix.MatrixElement;
 import data.matrix.MatrixManager;
+import data.parameters.ParameterManager;
 
 /**
  * 
@@ -20,13 +20,13 @@ import data.matrix.MatrixManager;
 class RecommenderFunctionsObjBinaryMembership extends RecommenderFunctionsObj {
 
 	// Constructor - Package Private
-	RecommenderFunctionsObjBinaryMembership(BasicElementManager elementManager, MatrixManager matrixManager) {
-		super(elementManager, matrixManager);
+	RecommenderFunctionsObjBinaryMembership(BasicElementManager elementManager, MatrixManager matrixManager, ParameterManager parameters) {
+		super(elementManager, matrixManager, parameters);
 	}
 
 	public void addStakeholdersToForums(NormalizationMethod method) {
-		/* Multiplies the SxN * NxF matrix to get the SxF one.
-		 * This matrix is then converted into a binary matrix
+		/* Calculates the SxF memberships (the SxN * NxF product) directly from the ratings and the needs of the forums.
+		 * The memberships are then converted into binary ones
 		 * 
 		 * The only 'method' parameter accepted is the None.
 		 */
@@ -40,27 +40,21 @@ class RecommenderFunctionsObjBinaryMembership extends RecommenderFunctionsObj {
 			break;
 		}
 
-		MatrixElement SxN = _matrixManager.getStakeholdersNeedsMatrix(true);
-		MatrixElement NxF = _matrixManager.getNeedsForumsMatrix(true);
-		MatrixElement SxF = SxN.times(NxF, "SxF");
+		int numS = _elementManager.getStakeholders().size();
+		int[][] forums = new int[numS][];
+		double[][] memberships = new double[numS][];
+		calculateMemberships(forums, memberships);
 		
-		// The matrix is converted to binary
+		// The memberships are converted to binary, the same as MatrixElement.convertToBinary
 		// TODO The threshold to convert a matrix to binary should be a parameter stored in the blackboard
-		MatrixElement SxF_Bin = SxF.convertToBinary(0.00001, "SxF_bin");
-		
-		double[][] mat = SxF_Bin.getArray();
-		int rows = SxF_Bin.getNumRows();
-		int cols = SxF_Bin.getNumCols();
-		
-		for (int i=0; i<rows; i++) {
-			Stakeholder s = _elementManager.getStakeholder(i);
-			for (int j=0; j<cols; j++) {
-				if (mat[i][j]!=0) {
-					Forum f = _elementManager.getForum(j);
-					_elementManager.addStakeholderToForum(f.getId(), s.getId(), mat[i][j]);
-				}
+		double threshold = 0.00001;
+		for (int i=0; i<numS; i++) {
+			for (int k=0; k<memberships[i].length; k++) {
+				memberships[i][k] = (memberships[i][k] >= threshold) ? 1 : 0;
 			}
 		}
+		
+		addMemberships(forums, memberships);
 	}
 	
 	public void calculateSimilarities(String matrixName, String resultMatrixName, String supportingMatrix, int penalize) {
@@ -74,68 +68,53 @@ class RecommenderFunctionsObjBinaryMembership extends RecommenderFunctionsObj {
 		
 		MatrixElement matrix = _matrixManager.getMatrix(matrixName);
 		
-		// Number of users and of the properties being examined to compute the similarities
-		int numOfProperties = matrix.getNumCols();
+		// Number of users
 		int numOfUsers = matrix.getNumRows(); 
-		
-		// The resulting matrix is a square matrix of size numOfUsers x numOfUsers
-		double[][] similarities = new double[numOfUsers][numOfUsers]; 
 
 		// Totals per user (per row)
 		MatrixElement totalsPerUser = _matrixManager.getMatrix(supportingMatrix);
-		double[][] totals = totalsPerUser.getArray();
 		
 		// String Ids of the users
 		String[] userNames = new String[numOfUsers];
 		
-		// Ratings that server as input
-		double[][] ratings = matrix.getArray();
-		
-		double ratingUserIItemN;
-		double ratingUserJItemN;
-		double similarityIJ;
-		
-		int numCorratedItems;
+		// Kernel that computes the similarity of each pair of users - it only visits the items that are in the profile of the users
+		SimilarityKernel kernel = createSimilarityKernel(matrix, totalsPerUser, penalize);
 		
-		// Initializes the first value of the similarity matrix
-		similarities[0][0] = 1;
-		
-		// Iterates over all the stakeholders, it keeps two stakeholders' references to compare i and j
-		// Note that since the similarity matriz is symmetrical, we can safely start j at one more than i on every iteration
-		for (int i=0; i<numOfUsers-1; i++) {
-			userNames[i]=matrix.getRowName(i);	// Stores the names for the resulting matrix
-			for (int j=i+1; j<numOfUsers; j++) {
-				numCorratedItems = 0;
-				
-				for (int n=0; n<numOfProperties; n++) {
-					ratingUserIItemN = ratings[i][n];
-					ratingUserJItemN =ratings[j][n];
-					
-					if ((ratingUserIItemN != 0) && (ratingUserJItemN != 0)) {
-						numCorratedItems++;
-					}
-				}
-				// If any of the users have no ratings (his total=0) then the formula for the similarity is undefined and hence the similarity will be 0
-				if ((totals[i][0]==0) || (totals[j][0]==0)) {
-					similarityIJ = 0;
-				} else {
-					similarityIJ = numCorratedItems / (Math.sqrt(totals[i][0] * totals[j][0]));
-				}
-				
-				// Records the similarities in the matrix - since it is symmetric then it is recorded in both i,j and j,i
-				similarities[i][j] = similarityIJ;
-				similarities[j][i] = similarityIJ;
-				similarities[j][j] = 1;
-			}
+		// Stores the names for the resulting matrix
+		for (int i=0; i<numOfUsers; i++) {
+			userNames[i]=matrix.getRowName(i);
 		}
-		userNames[numOfUsers-1]=matrix.getRowName(numOfUsers-1);	// The last name needs to be stored, as it was excluded from the cycle.
+		
+		// Computes the similarities of all the pairs of users - in parallel if the parameter 'numberofthreads' is set.
+		// The resulting matrix is a square matrix of size numOfUsers x numOfUsers, stored packed since it is symmetric (dense above 65,535 users)
+		MatrixElement result = newSimilarityMatrix(resultMatrixName, kernel, userNames);
 			
 		// The Matrix with the similarities gets stored
-		MatrixElement result = new MatrixElement(resultMatrixName, similarities, userNames, userNames);	
 		_matrixManager.storeMatrix(result);		
 	}
 	
-	public double getPredictionScore(Stakeholder s, Forum f, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, Map<Integer, List<Node>> neighbors) {
+	SimilarityKernel createSimilarityKernel(int[] rowPtr, int[] items, double[] values, double[][] supporting, int penalize) {
+		// The supporting array holds the totals per user, the values and the parameter penalize are not used
+		return new SimilarityKernelBinary(rowPtr, items, supporting);
+	}
+	
+	void calculateSupportingMatrix(String matrix, String resultMatrix) {
+		// The similarities of this recommender are based on the totals per user
+		calculateStakeholdersTotalRatings(matrix, resultMatrix);
+	}
+	
+	double calculateSupportingValue(double[] row) {
+		// Total of the ratings of the row - computed in the same way as in MatrixElement.totalsByRow
+		double total = 0.0;
+		for (int j=0; j<row.length; j++) {
+			if (row[j]!=0.0) {
+				total+=row[j];
+			}
+		}
+		return total;
+	}
+	
+	public double getPredictionScore(Stakeholder s, Forum f, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors) {
 		// Calculates the prediction score of a particular forum for a particular stakeholder
 		// Only the binary prediction formulas are supported for the 'formula' paramenter
 		// The supportingMatrixName is not used 
@@ -160,17 +139,19 @@ class RecommenderFunctionsObjBinaryMembership extends RecommenderFunctionsObj {
 		double sumRatings = 0.0;
 		double sumWeightedRating = 0.0;
 		double sumOfSimilaries = 0.0;
-		int numOfNeighbors = neighbors.get(stakeholderNum).size();
+		int numOfNeighbors = neighbors.getNumOfNeighbors(stakeholderNum);
 		int numOfNeighborsThatRatedItem = 0;
 		
 		// Iterates over all the neighbors of this user
-		for (Node j : neighbors.get(stakeholderNum)) {
-			sumRatings += ratings[j.getId()][forumNum];								// Adds a 1 if the stakeholder rated the item (stakeholder is in the forum)
-			sumWeightedRating += (ratings[j.getId()][forumNum] * j.getValue());		// Rating of the stakeholder X the similarity
-			sumOfSimilaries += j.getValue();										// Acumulation of the stakeholder similarities
+		int end = neighbors.getEnd(stakeholderNum);
+		for (int k=neighbors.getStart(stakeholderNum); k<end; k++) {
+			int j = neighbors.getId(k);
+			sumRatings += ratings[j][forumNum];										// Adds a 1 if the stakeholder rated the item (stakeholder is in the forum)
+			sumWeightedRating += (ratings[j][forumNum] * neighbors.getSimilarity(k));	// Rating of the stakeholder X the similarity
+			sumOfSimilaries += neighbors.getSimilarity(k);							// Acumulation of the stakeholder similarities
 			
 			// if the neighbor has rated this item (is in the forum) then we add it to the numOfNeighborsThatRatedItem 
-			if (ratings[j.getId()][forumNum] != 0) {
+			if (ratings[j][forumNum] != 0) {
 				numOfNeighborsThatRatedItem++;
 			}
 		}
@@ -192,7 +173,60 @@ class RecommenderFunctionsObjBinaryMembership extends RecommenderFunctionsObj {
 		return predictionScore;
 	}
 
-	public List<Node> getPredictionScores(Stakeholder s, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, Map<Integer, List<Node>> neighbors) {
+	void fillPredictionScores(int stakeholderNum, PredictionFormula formula, double[][] ratings, double[][] supporting, NeighborTable neighbors, double[] predictions) {
+		// Same formulas as getPredictionScore, but the neighbors are visited once and their ratings are accumulated for all the forums at the same time
+		// The supporting array is not used 
+		switch (formula) {
+		case Typical:
+			throw new IllegalArgumentException("Since the recommender being used is for binary membership scores, the only acceptable 'method' parameter is 'None'."); 
+		default :
+			break;
+		}
+		
+		int numOfForums = predictions.length;
+		double[] sumRatings = new double[numOfForums];
+		double[] sumWeightedRating = new double[numOfForums];
+		int[] numOfNeighborsThatRatedItem = new int[numOfForums];
+		double sumOfSimilaries = 0.0;
+		int numOfNeighbors = neighbors.getNumOfNeighbors(stakeholderNum);
+		
+		// Iterates over all the neighbors of this user
+		int end = neighbors.getEnd(stakeholderNum);
+		for (int k=neighbors.getStart(stakeholderNum); k<end; k++) {
+			int j = neighbors.getId(k);
+			double similarity = neighbors.getSimilarity(k);
+			double[] neighborRatings = ratings[j];
+			for (int f=0; f<numOfForums; f++) {
+				sumRatings[f] += neighborRatings[f];
+				sumWeightedRating[f] += (neighborRatings[f] * similarity);
+				if (neighborRatings[f] != 0) {
+					numOfNeighborsThatRatedItem[f]++;
+				}
+			}
+			// The sum of the similarities does not depend on the forum
+			sumOfSimilaries += similarity;
+		}
+		
+		// Calculates the prediction scores
+		for (int f=0; f<numOfForums; f++) {
+			switch (formula) {
+			case Bin_I:
+				predictions[f] = (numOfNeighbors==0) ? 0.0 : (sumRatings[f]/numOfNeighbors); 
+				break;
+			case Bin_II:
+				predictions[f] = (sumOfSimilaries==0) ? 0.0 : (sumWeightedRating[f]/sumOfSimilaries); 
+				break;
+			case Bin_III:
+				predictions[f] = (numOfNeighbors==0) ? 0.0 : (sumWeightedRating[f]/numOfNeighbors); 
+				break;
+			case Bin_IV:
+				predictions[f] = (numOfNeighborsThatRatedItem[f]==0) ? 0.0 : (sumWeightedRating[f]/numOfNeighborsThatRatedItem[f]); 
+				break;
+			}
+		}
+	}
+
+	public List<Node> getPredictionScores(Stakeholder s, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors) {
 		// Calculates the prediction score for all the forums particular for a particular stakeholder
 		// Only the binary prediction formulas are supported for the 'formula' paramenter
 		// The supportingMatrixName is not used 
@@ -3,13 +3,13 @@ package recommender;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import data.Node;
 import data.basic.BasicElementManager;
 import data.basic.Forum;
 import data.basic.Stakeholder;
 import data.matrix.MatrixElement;
 import data.matrix.MatrixManager;
+import data.parameters.ParameterManager;
 
 /**
  * 
@@ -20,61 +20,81 @@ import data.matrix.MatrixManager;
 class RecommenderFunctionsObjRangeMemberships extends RecommenderFunctionsObj {
 
 	// Constructor - Package Private
-	RecommenderFunctionsObjRangeMemberships(BasicElementManager elementManager, MatrixManager matrixManager) {
-		super(elementManager, matrixManager);
+	RecommenderFunctionsObjRangeMemberships(BasicElementManager elementManager, MatrixManager matrixManager, ParameterManager parameters) {
+		super(elementManager, matrixManager, parameters);
 	}	
 	
 	public void addStakeholdersToForums(NormalizationMethod method) {
-		/* Multiplies the SxN * NxF matrix to get the SxF one.
-		 * This matrix can the be processed - normalized, or mean centered in several ways
+		/* Calculates the SxF memberships (the SxN * NxF product) directly from the ratings and the needs of the forums.
+		 * The memberships can then be processed - normalized, or mean centered in several ways
 		 * And then the Stakholders are added into the Forums
 		 */
-		MatrixElement SxN = _matrixManager.getStakeholdersNeedsMatrix(true);
-		MatrixElement NxF = _matrixManager.getNeedsForumsMatrix(true);
-		MatrixElement SxF = SxN.times(NxF, "SxF");
+		int numS = _elementManager.getStakeholders().size();
+		int numF = _elementManager.getForums().size();
+		int[][] forums = new int[numS][];
+		double[][] memberships = new double[numS][];
+		calculateMemberships(forums, memberships);
 		
-		// At this point the SxF matrix has 'ratings' that were created by the matrix multiplication
+		// At this point the memberships are 'ratings' that were created by the product of the ratings and the scores of the needs
 		// These ratings are not normalized, so it may be useful to normalize them either by: 
 		// * Column: What % of the forum the stakeholder owns
 		// * Row:  What % of the stakeholder's interest is in the forum
 		// * Max number: reduces to 1 the maximum number in the matrix, and everything else is a fraction of that
+		// The normalization is done in place, with the same totals (and division by a zero total) as the MatrixElement normalizations
 		// TODO decide on the appropriate normalization for the SxF matrix
-		
-		MatrixElement SxF_Norm = SxF;  // This assignment is unnecesary - as it will be replaced, however it is needed for the compilation
 		switch(method) {
 		case Norm_Row:
 			// Normalization by Row
-			MatrixElement rowTotals = SxF.totalsByRow("Totals_Row");
-			SxF_Norm = SxF.normalizeByRows(rowTotals, "SxF_Norm");			
+			for (int i=0; i<numS; i++) {
+				double total = 0;
+				for (int k=0; k<memberships[i].length; k++) {
+					total += memberships[i][k];
+				}
+				for (int k=0; k<memberships[i].length; k++) {
+					memberships[i][k] = (total==0) ? 0 : memberships[i][k] / total;
+				}
+			}
 			break;
 		case Norm_Col:
 			// Normalization by Column
-			MatrixElement colTotals = SxF.totalsByColumn("Totals_Column");
-			SxF_Norm = SxF.normalizeByColumns(colTotals, "SxF_Norm");
+			double[] totals = new double[numF];
+			for (int i=0; i<numS; i++) {
+				for (int k=0; k<memberships[i].length; k++) {
+					totals[forums[i][k]] += memberships[i][k];
+				}
+			}
+			for (int i=0; i<numS; i++) {
+				for (int k=0; k<memberships[i].length; k++) {
+					double total = totals[forums[i][k]];
+					memberships[i][k] = (total==0) ? 0 : memberships[i][k] / total;
+				}
+			}
 			break;
 		case Norm_MaxNum:
-			// Normalization by Number
-			Double normNumber = SxF.maxNumber();
-			SxF_Norm = SxF.normalizeByNumber(normNumber, "SxF_Norm");
+			// Normalization by Number - if at least one stakeholder is not in a forum, then zero is also part of the matrix
+			double normNumber = -1;
+			long numMemberships = 0;
+			for (int i=0; i<numS; i++) {
+				for (int k=0; k<memberships[i].length; k++) {
+					if (memberships[i][k] > normNumber)
+						normNumber = memberships[i][k];
+				}
+				numMemberships += memberships[i].length;
+			}
+			if ((numMemberships < (long)numS * numF) && (0 > normNumber))
+				normNumber = 0;
+			for (int i=0; i<numS; i++) {
+				for (int k=0; k<memberships[i].length; k++) {
+					memberships[i][k] = memberships[i][k] / normNumber;
+				}
+			}
 			break;
 		case None:
 			// No normalization is done
 			break;
 		}
 		
-		double[][] mat = SxF_Norm.getArray();
-		int rows = SxF_Norm.getNumRows();
-		int cols = SxF_Norm.getNumCols();
-		
-		for (int i=0; i<rows; i++) {
-			Stakeholder s = _elementManager.getStakeholder(i);
-			for (int j=0; j<cols; j++) {
-				if (mat[i][j]!=0) {
-					Forum f = _elementManager.getForum(j);
-					_elementManager.addStakeholderToForum(f.getId(), s.getId(), mat[i][j]);
-				}
-			}
-		}
+		addMemberships(forums, memberships);
 	}	
 	
 	public void calculateSimilarities(String matrixName, String resultMatrixName, String supportingMatrix, int penalize){
@@ -82,84 +102,60 @@ class RecommenderFunctionsObjRangeMemberships extends RecommenderFunctionsObj {
 		// This is done by using the Pearson Correlation formula, which is calculated by comparing ratings for all items that were rated by both users.
 		// Similarities range between 1.0 (perfect agreement) and -1.0 (perfect disagreement).
 		// For this method the supportingMatrix is the matrix of the averages per user
-		// Parameter penalize is not used.
+		// Parameter penalize is the number of co-rated items under which the similarity is penalized (1 means no penalty).
+		// The co-rated items of each pair are found by the kernel, which only visits the non-zero ratings of the two users.
 		
 		MatrixElement matrix = _matrixManager.getMatrix(matrixName);
 		
-		// Number of users and of the properties being examined to compute the similarities
-		int numOfProperties = matrix.getNumCols();
+		// Number of users
 		int numOfUsers = matrix.getNumRows(); 
-		
-		// The resulting matrix is a square matrix of size numOfUsers x numOfUsers
-		double[][] similarities = new double[numOfUsers][numOfUsers]; 
 
 		// Averages per user
 		MatrixElement averagesPerUser = _matrixManager.getMatrix(supportingMatrix);
-		double[][] averages = averagesPerUser.getArray();
 		
 		// String Ids of the users
 		String[] userNames = new String[numOfUsers];
 		
-		// Ratings that server as input
-		double[][] ratings = matrix.getArray();
-		
-		double covarianceUsers;
-		double varianceUserI;
-		double varianceUserJ;
-
-		double ratingUserIItemN;
-		double ratingUserJItemN;
-		double similarityIJ;
-		
-		int numCorratedItems;
-		
-		// Initializes the first value of the similarity matrix
-		similarities[0][0] = 1;
+		// Kernel that computes the similarity of each pair of users
+		SimilarityKernel kernel = createSimilarityKernel(matrix, averagesPerUser, penalize);
 		
-		// Iterates over all the stakeholders, it keeps two stakeholders' references to compare i and j
-		// Note that since the similarity matriz is symmetrical, we can safely start j at one more than i on every iteration
-		for (int i=0; i<numOfUsers-1; i++) {
-			userNames[i]=matrix.getRowName(i);	// Stores the names for the resulting matrix
-			for (int j=i+1; j<numOfUsers; j++) {
-				covarianceUsers = 0;
-				varianceUserI = 0;
-				varianceUserJ = 0;
-				numCorratedItems = 0;
-				
-				for (int n=0; n<numOfProperties; n++) {
-					ratingUserIItemN = ratings[i][n];
-					ratingUserJItemN =ratings[j][n];
-					
-					if ((ratingUserIItemN != 0) && (ratingUserJItemN != 0)) {
-						numCorratedItems++;
-						covarianceUsers += (ratingUserIItemN - averages[i][0]) * (ratingUserJItemN - averages[j][0]);
-						varianceUserI += Math.pow((ratingUserIItemN - averages[i][0]), 2);
-						varianceUserJ += Math.pow((ratingUserJItemN - averages[j][0]), 2);
-					}
-				}
-				// If any of the standard deviations is equal to 0 then the formula for the correlation is undefined and hence the similarity will be 0
-				if ((varianceUserI==0) || (varianceUserJ==0)) {
-					similarityIJ = 0;
-				} else {
-					similarityIJ = covarianceUsers / (Math.sqrt(varianceUserI) * Math.sqrt(varianceUserJ));
-					// If the number of corrated items between these two users is small then we cannot be very confident about the score, and as such we need to penalize the computed similarity
-					similarityIJ = similarityIJ * (Math.min((double)numCorratedItems, (double)penalize) / (double)penalize );
-				}
-				
-				// Records the similarities in the matrix - since it is symmetric then it is recorded in both i,j and j,i
-				similarities[i][j] = similarityIJ;
-				similarities[j][i] = similarityIJ;
-				similarities[j][j] = 1;
-			}
+		// Stores the names for the resulting matrix
+		for (int i=0; i<numOfUsers; i++) {
+			userNames[i]=matrix.getRowName(i);
 		}
-		userNames[numOfUsers-1]=matrix.getRowName(numOfUsers-1);	// The last name needs to be stored, as it was excluded from the cycle.
+		
+		// Computes the similarities of all the pairs of users - in parallel if the parameter 'numberofthreads' is set.
+		// The resulting matrix is a square matrix of size numOfUsers x numOfUsers, stored packed since it is symmetric (dense above 65,535 users)
+		MatrixElement result = newSimilarityMatrix(resultMatrixName, kernel, userNames);
 			
 		// The Matrix with the similarities gets stored
-		MatrixElement result = new MatrixElement(resultMatrixName, similarities, userNames, userNames);	
 		_matrixManager.storeMatrix(result);
 	}
 	
-	public double getPredictionScore(Stakeholder s, Forum f, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, Map<Integer, List<Node>> neighbors) {
+	SimilarityKernel createSimilarityKernel(int[] rowPtr, int[] items, double[] values, double[][] supporting, int penalize) {
+		// The supporting array holds the averages per user
+		return new SimilarityKernelPearson(rowPtr, items, values, supporting, penalize);
+	}
+	
+	void calculateSupportingMatrix(String matrix, String resultMatrix) {
+		// The similarities and predictions of this recommender are based on the averages per user
+		calculateStakeholdersAverageRating(matrix, resultMatrix);
+	}
+	
+	double calculateSupportingValue(double[] row) {
+		// Average of the ratings of the row - computed in the same way as in MatrixElement.averagesByRow
+		double sum = 0.0;
+		int numOfEntries = 0;
+		for (int j=0; j<row.length; j++) {
+			if (row[j]!=0.0) {
+				numOfEntries++;
+				sum+=row[j];
+			}
+		}
+		return (numOfEntries==0) ? 0 : sum / numOfEntries;
+	}
+	
+	public double getPredictionScore(Stakeholder s, Forum f, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors) {
 		// Calculates the prediction score of a particular forum for a particular stakeholder
 		// TODO Determine if prediction score formula should be modified so that average scores are calculated only on co-rated items
 		// The binary prediction formulas are not supported for the 'formula' paramenter
@@ -184,9 +180,8 @@ class RecommenderFunctionsObjRangeMemberships extends RecommenderFunctionsObj {
 		MatrixElement ratingMatrix = _matrixManager.getMatrix(ratingsMatrixName);
 		double[][] ratings = ratingMatrix.getArray();
 		
-		// Gets the matrix with the average ratings of the stakeholders
+		// Gets the matrix with the average ratings of the stakeholders - only the averages of the neighbors are read, so they are read one by one
 		MatrixElement averagesMatrix = _matrixManager.getMatrix(supportingMatrixName);
-		double[][] averages = averagesMatrix.getArray();
 		
 		double weightedRating;
 		double sumOfSimilaries;
@@ -194,12 +189,14 @@ class RecommenderFunctionsObjRangeMemberships extends RecommenderFunctionsObj {
 		weightedRating = 0;
 		sumOfSimilaries = 0;
 		// Iterates over all the neighbors of this user
-		for (Node j : neighbors.get(stakeholderNum)) {
+		int end = neighbors.getEnd(stakeholderNum);
+		for (int k=neighbors.getStart(stakeholderNum); k<end; k++) {
+			int j = neighbors.getId(k);
 			// Only if the neighbor has rated this item do we include him in the calculation of the prediction value.
-			if (ratings[j.getId()][forumNum] != 0) {
-				// Similarity of the stakeholders (j.value) x (the rating of the neighbor - the average rating of the neighbor)
-				weightedRating += j.getValue() * (ratings[j.getId()][forumNum] - averages[j.getId()][0]);
-				sumOfSimilaries += j.getValue();
+			if (ratings[j][forumNum] != 0) {
+				// Similarity of the stakeholders x (the rating of the neighbor - the average rating of the neighbor)
+				weightedRating += neighbors.getSimilarity(k) * (ratings[j][forumNum] - averagesMatrix.get(j, 0));
+				sumOfSimilaries += neighbors.getSimilarity(k);
 			}
 		}
 		
@@ -212,12 +209,51 @@ class RecommenderFunctionsObjRangeMemberships extends RecommenderFunctionsObj {
 		}
 		
 		// Calculates the prediction score:
-		predictionScore = averages[stakeholderNum][0] + neighborsInput;
+		predictionScore = averagesMatrix.get(stakeholderNum, 0) + neighborsInput;
 		
 		return predictionScore;
 	}
 
-	public List<Node> getPredictionScores(Stakeholder s, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, Map<Integer, List<Node>> neighbors) {
+	void fillPredictionScores(int stakeholderNum, PredictionFormula formula, double[][] ratings, double[][] averages, NeighborTable neighbors, double[] predictions) {
+		// Same formula as getPredictionScore, but the neighbors are visited once and their ratings are accumulated for all the forums at the same time
+		// The supporting array holds the average ratings of the stakeholders
+		switch (formula) {
+		case Bin_I:
+		case Bin_II:
+		case Bin_III:
+		case Bin_IV:
+			throw new IllegalArgumentException("Since the recommender being used is for range membership scores, the binary prediction formulas are not allowed for the paramter 'formula'"); 
+		default :
+			break;
+		}
+		
+		int numOfForums = predictions.length;
+		double[] weightedRating = new double[numOfForums];
+		double[] sumOfSimilaries = new double[numOfForums];
+		
+		// Iterates over all the neighbors of this user
+		int end = neighbors.getEnd(stakeholderNum);
+		for (int k=neighbors.getStart(stakeholderNum); k<end; k++) {
+			int j = neighbors.getId(k);
+			double similarity = neighbors.getSimilarity(k);
+			double[] neighborRatings = ratings[j];
+			for (int f=0; f<numOfForums; f++) {
+				// Only if the neighbor has rated this item do we include him in the calculation of the prediction value.
+				if (neighborRatings[f] != 0) {
+					weightedRating[f] += similarity * (neighborRatings[f] - averages[j][0]);
+					sumOfSimilaries[f] += similarity;
+				}
+			}
+		}
+		
+		// Calculates the prediction scores
+		for (int f=0; f<numOfForums; f++) {
+			double neighborsInput = (sumOfSimilaries[f]==0) ? 0.0 : (weightedRating[f] / sumOfSimilaries[f]);
+			predictions[f] = averages[stakeholderNum][0] + neighborsInput;
+		}
+	}
+
+	public List<Node> getPredictionScores(Stakeholder s, PredictionFormula formula, String ratingsMatrixName, String supportingMatrixName, NeighborTable neighbors) {
 		// Resulting data structure
 		List<Node> stakeholderItemPredictions;
 
@@ -2,6 +2,7 @@ package recommender;
 
 import data.basic.BasicElementManager;
 import data.matrix.MatrixManager;
+import data.parameters.ParameterManager;
 
 /**
  *
@@ -12,11 +13,20 @@ public class RecommenderFunctionsStaticFactory {
 	private RecommenderFunctionsStaticFactory() {}
 	
 	public static RecommenderFunctions getRecommenderFunctionsForRangeMemberships(BasicElementManager elementManager, MatrixManager matrixManager) {
-		return new RecommenderFunctionsObjRangeMemberships(elementManager, matrixManager);
+		return new RecommenderFunctionsObjRangeMemberships(elementManager, matrixManager, null);
 	}
 
 	public static RecommenderFunctions getRecommenderFunctionsForBinaryMemberships(BasicElementManager elementManager, MatrixManager matrixManager) {
-		return new RecommenderFunctionsObjBinaryMembership(elementManager, matrixManager);
+		return new RecommenderFunctionsObjBinaryMembership(elementManager, matrixManager, null);
+	}
+
+	// The parameters are read when the functions are executed (ex. 'numberofthreads' for the similarity computations, and 'similarityprecision' = double|float for the storage of the similarities)
+	public static RecommenderFunctions getRecommenderFunctionsForRangeMemberships(BasicElementManager elementManager, MatrixManager matrixManager, ParameterManager parameters) {
+		return new RecommenderFunctionsObjRangeMemberships(elementManager, matrixManager, parameters);
+	}
+
+	public static RecommenderFunctions getRecommenderFunctionsForBinaryMemberships(BasicElementManager elementManager, MatrixManager matrixManager, ParameterManager parameters) {
+		return new RecommenderFunctionsObjBinaryMembership(elementManager, matrixManager, parameters);
 	}
 
 	
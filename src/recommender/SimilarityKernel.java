@@ -0,0 +1,12 @@
+package recommender;
+
+/**
+ * 
+ * Interface for the functions that compute the similarity between two users (two rows of a ratings matrix).
+ * The recommender functions use a kernel to fill the similarity matrix, so the way the pairs of users are visited
+ * is independent of the formula that is used for each pair.
+ *
+ */
+interface SimilarityKernel {
+	public double similarity(int userI, int userJ);
+}
@@ -0,0 +1,58 @@
+package recommender;
+
+/**
+ * 
+ * L2 Normalization (cosine) similarity between two users with binary profiles: |intersect(S1,S2)| / sqrt(|S1| * |S2|)
+ * As in the Pearson kernel, the ratings are read in compressed row form and the intersection is found by merging the two sorted lists of items.
+ * 
+ */
+final class SimilarityKernelBinary implements SimilarityKernel {
+	// Compressed ratings
+	int[] _rowPtr;
+	int[] _items;
+	
+	// Totals per user
+	double[][] _totals;
+	
+	// Constructor - Package Private.  The arrays are not copied: for row i the items are in positions rowPtr[i] .. rowPtr[i+1]-1, sorted.
+	SimilarityKernelBinary(int[] rowPtr, int[] items, double[][] totals) {
+		// Integrity checks
+		if ((rowPtr==null) || (items==null))
+			throw new IllegalArgumentException("The compressed ratings have to be valid arrays");
+		if (totals==null)
+			throw new IllegalArgumentException("The totals matrix has to be a valid object");
+		
+		// Sets the internal fields;
+		_rowPtr = rowPtr;
+		_items = items;
+		_totals = totals;
+	}
+	
+	public double similarity(int i, int j) {
+		// If any of the users have no ratings (his total=0) then the formula for the similarity is undefined and hence the similarity will be 0
+		if ((_totals[i][0]==0) || (_totals[j][0]==0)) {
+			return 0;
+		}
+		
+		// Counts the items that appear in both sorted lists
+		int numCorratedItems = 0;
+		int ki = _rowPtr[i];
+		int endI = _rowPtr[i+1];
+		int kj = _rowPtr[j];
+		int endJ = _rowPtr[j+1];
+		while ((ki < endI) && (kj < endJ)) {
+			int itemI = _items[ki];
+			int itemJ = _items[kj];
+			if (itemI < itemJ) {
+				ki++;
+			} else if (itemI > itemJ) {
+				kj++;
+			} else {
+				numCorratedItems++;
+				ki++;
+				kj++;
+			}
+		}
+		return numCorratedItems / (Math.sqrt(_totals[i][0] * _totals[j][0]));
+	}
+}
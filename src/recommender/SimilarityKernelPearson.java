@@ -0,0 +1,82 @@
+package recommender;
+
+/**
+ * 
+ * Pearson Correlation between two users, computed only over the items that were rated by both users.
+ * The ratings are read in compressed row form (the non-zero ratings of each user sorted by item), so the co-rated items
+ * are found by merging the two sorted lists of items.  The cost of each pair is proportional to the number of items rated by the two users,
+ * instead of the total number of items.
+ * 
+ * The terms are accumulated in increasing order of item, so the result is the same as the one of the dense formula.
+ * 
+ */
+final class SimilarityKernelPearson implements SimilarityKernel {
+	// Compressed ratings
+	int[] _rowPtr;
+	int[] _items;
+	double[] _ratings;
+	
+	// Averages per user
+	double[][] _averages;
+	
+	// Number of co-rated items under which the similarity is penalized
+	int _penalize;
+	
+	// Constructor - Package Private.  The arrays are not copied: for row i the ratings are in positions rowPtr[i] .. rowPtr[i+1]-1, sorted by item.
+	SimilarityKernelPearson(int[] rowPtr, int[] items, double[] ratings, double[][] averages, int penalize) {
+		// Integrity checks
+		if ((rowPtr==null) || (items==null) || (ratings==null))
+			throw new IllegalArgumentException("The compressed ratings have to be valid arrays");
+		if (averages==null)
+			throw new IllegalArgumentException("The averages matrix has to be a valid object");
+		
+		// Sets the internal fields;
+		_rowPtr = rowPtr;
+		_items = items;
+		_ratings = ratings;
+		_averages = averages;
+		_penalize = penalize;
+	}
+	
+	public double similarity(int i, int j) {
+		double covarianceUsers = 0;
+		double varianceUserI = 0;
+		double varianceUserJ = 0;
+		int numCorratedItems = 0;
+		
+		double averageI = _averages[i][0];
+		double averageJ = _averages[j][0];
+		
+		// Merges the sorted items of both users - only the items that appear in both lists are co-rated
+		int ki = _rowPtr[i];
+		int endI = _rowPtr[i+1];
+		int kj = _rowPtr[j];
+		int endJ = _rowPtr[j+1];
+		while ((ki < endI) && (kj < endJ)) {
+			int itemI = _items[ki];
+			int itemJ = _items[kj];
+			if (itemI < itemJ) {
+				ki++;
+			} else if (itemI > itemJ) {
+				kj++;
+			} else {
+				double deviationI = _ratings[ki] - averageI;
+				double deviationJ = _ratings[kj] - averageJ;
+				numCorratedItems++;
+				covarianceUsers += deviationI * deviationJ;
+				varianceUserI += deviationI * deviationI;
+				varianceUserJ += deviationJ * deviationJ;
+				ki++;
+				kj++;
+			}
+		}
+		
+		// If any of the standard deviations is equal to 0 then the formula for the correlation is undefined and hence the similarity will be 0
+		if ((varianceUserI==0) || (varianceUserJ==0)) {
+			return 0;
+		}
+		double similarityIJ = covarianceUsers / (Math.sqrt(varianceUserI) * Math.sqrt(varianceUserJ));
+		// If the number of corrated items between these two users is small then we cannot be very confident about the score, and as such we need to penalize the computed similarity
+		return similarityIJ * (Math.min((double)numCorratedItems, (double)_penalize) / (double)_penalize );
+	}
+}